@@ -0,0 +1,92 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Draws indexes with probabilities proportional to their weights in constant time and without allocation,
+ * using the alias method of Walker and Vose.
+ *
+ * Every index owns a column of the same height. The column of an index holds the index itself with
+ * probability {@code probability[i]} and its alias otherwise, so a draw picks a column uniformly and then
+ * either the index or its alias.
+ */
+public class AliasTable {
+
+    private final double[] probability;
+
+    private final int[] alias;
+
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        double total = 0;
+        for (double weight : weights) {
+            if (weight < 0 || Double.isNaN(weight) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("Weights must be finite and >= 0.");
+            }
+            total += weight;
+        }
+        if (n == 0 || total <= 0) {
+            throw new IllegalArgumentException("At least one weight must be > 0.");
+        }
+
+        probability = new double[n];
+        alias = new int[n];
+
+        // Columns which are lower than the average are filled up from columns which are higher
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallSize = 0;
+        int largeSize = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small[smallSize++] = i;
+            } else {
+                large[largeSize++] = i;
+            }
+        }
+        while (smallSize > 0 && largeSize > 0) {
+            int less = small[--smallSize];
+            int more = large[--largeSize];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[smallSize++] = more;
+            } else {
+                large[largeSize++] = more;
+            }
+        }
+        // Rounding errors leave columns which are full
+        while (largeSize > 0) {
+            probability[large[--largeSize]] = 1;
+        }
+        while (smallSize > 0) {
+            probability[small[--smallSize]] = 1;
+        }
+    }
+
+    public int next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int column = random.nextInt(probability.length);
+        return random.nextDouble() < probability[column] ? column : alias[column];
+    }
+
+    public int size() {
+        return probability.length;
+    }
+
+    /**
+     * @return the probability with which {@link #next()} draws the index, read from the columns in linear time
+     */
+    public double probability(int index) {
+        double columns = probability[index];
+        for (int column = 0; column < alias.length; column++) {
+            if (alias[column] == index) {
+                columns += 1 - probability[column];
+            }
+        }
+        return columns / probability.length;
+    }
+}
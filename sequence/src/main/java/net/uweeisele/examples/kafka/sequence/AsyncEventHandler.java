@@ -0,0 +1,224 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import net.uweeisele.examples.kafka.sequence.event.ClientEvent;
+import net.uweeisele.examples.kafka.sequence.event.EventsDropped;
+import net.uweeisele.examples.kafka.sequence.event.ShutdownComplete;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Hands the events over to a writer thread, which passes them in batches to the delegate and flushes the
+ * delegate whenever the queue has been drained.
+ *
+ * The calling threads never take a lock. If the queue is full, the event is handled according to the
+ * {@link OverflowPolicy}. A {@link ShutdownComplete} event is never dropped, the calling thread waits until
+ * it has been written and flushed.
+ */
+public class AsyncEventHandler implements EventHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncEventHandler.class);
+
+    private static final int BATCH_SIZE = 1024;
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long DROPPED_REPORT_INTERVAL_MS = 1000;
+
+    public enum OverflowPolicy {
+        /** Waits until the writer has made room in the queue. */
+        BLOCK,
+        /** Discards the event. */
+        DROP,
+        /** Discards the event and reports the number of discarded events in an {@link EventsDropped} event. */
+        COUNT_AND_DROP
+    }
+
+    private final String name;
+
+    private final EventHandler delegate;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final MpscRingBuffer<ClientEvent> queue;
+
+    private final Thread writer;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Number of events taken from the queue, which have been written and flushed
+    private volatile long flushed = 0;
+
+    private volatile boolean closed = false;
+
+    // Only accessed by the writer thread
+    private long consumed = 0;
+    private boolean unflushed = false;
+    private boolean flushRequired = false;
+    private long reportedDropped = 0;
+    private long lastDroppedReportMs = 0;
+
+    public AsyncEventHandler(EventHandler delegate, int capacity, OverflowPolicy overflowPolicy) {
+        this("event-writer", delegate, capacity, overflowPolicy);
+    }
+
+    public AsyncEventHandler(String name, EventHandler delegate, int capacity, OverflowPolicy overflowPolicy) {
+        this.name = requireNonNull(name);
+        this.delegate = requireNonNull(delegate);
+        this.overflowPolicy = requireNonNull(overflowPolicy);
+        this.queue = new MpscRingBuffer<>(capacity);
+        this.writer = new Thread(this::writeLoop, name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void on(ClientEvent event) {
+        if (event instanceof ShutdownComplete) {
+            enqueueBlocking(event);
+            awaitFlushed(queue.producerPosition());
+            return;
+        }
+        if (queue.offer(event)) {
+            return;
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                enqueueBlocking(event);
+                break;
+            case COUNT_AND_DROP:
+                dropped.incrementAndGet();
+                break;
+            case DROP:
+                break;
+        }
+    }
+
+    /**
+     * Waits until every event which has been enqueued so far has been written and flushed.
+     */
+    @Override
+    public void flush() {
+        awaitFlushed(queue.producerPosition());
+    }
+
+    /**
+     * Writes the pending events, stops the writer thread and closes the delegate.
+     */
+    @Override
+    public void close() {
+        stop();
+        delegate.close();
+    }
+
+    /**
+     * Writes the pending events and stops the writer thread, but keeps the delegate open for other writers.
+     */
+    public void stop() {
+        closed = true;
+        LockSupport.unpark(writer);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void enqueueBlocking(ClientEvent event) {
+        while (!queue.offer(event)) {
+            checkWriter();
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(IDLE_NANOS);
+        }
+    }
+
+    private void awaitFlushed(long position) {
+        LockSupport.unpark(writer);
+        while (flushed < position) {
+            checkWriter();
+            LockSupport.parkNanos(IDLE_NANOS);
+        }
+    }
+
+    private void checkWriter() {
+        if (!writer.isAlive()) {
+            throw new IllegalStateException(name + " has been closed.");
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            // Read the flag before draining, so that no event which has been enqueued before close is lost
+            boolean closing = closed;
+            int drained = queue.drain(this::consume, BATCH_SIZE);
+            reportDropped(false);
+            if (drained < BATCH_SIZE || flushRequired) {
+                flushDelegate();
+            }
+            if (drained == 0) {
+                if (closing) {
+                    reportDropped(true);
+                    flushDelegate();
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+
+    private void consume(ClientEvent event) {
+        if (event instanceof ShutdownComplete) {
+            reportDropped(true);
+            flushRequired = true;
+        }
+        write(event);
+        consumed++;
+    }
+
+    private void write(ClientEvent event) {
+        try {
+            delegate.on(event);
+        } catch (RuntimeException e) {
+            log.error("Could not write event {}: ", event.name(), e);
+        }
+        unflushed = true;
+    }
+
+    private void flushDelegate() {
+        if (!unflushed) {
+            return;
+        }
+        try {
+            delegate.flush();
+        } catch (RuntimeException e) {
+            log.error("Could not flush events: ", e);
+        }
+        unflushed = false;
+        flushRequired = false;
+        flushed = consumed;
+    }
+
+    private void reportDropped(boolean force) {
+        long total = dropped.get();
+        long now = System.currentTimeMillis();
+        if (total > reportedDropped && (force || now - lastDroppedReportMs >= DROPPED_REPORT_INTERVAL_MS)) {
+            write(new EventsDropped(name, total - reportedDropped));
+            reportedDropped = total;
+            lastDroppedReportMs = now;
+        }
+    }
+}
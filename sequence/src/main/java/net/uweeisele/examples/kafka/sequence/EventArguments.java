@@ -0,0 +1,122 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentContainer;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.uweeisele.examples.kafka.sequence.AsyncEventHandler.OverflowPolicy;
+import net.uweeisele.examples.kafka.sequence.eventlog.BinaryEventHandler;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+
+import static net.sourceforge.argparse4j.impl.Arguments.store;
+
+/**
+ * The arguments which configure how the events of a command are written, and the event handler created from them.
+ */
+class EventArguments {
+
+    private EventArguments() {
+    }
+
+    static EventHandler createEventHandler(Namespace res) {
+        int eventBuffer = res.getInt("eventBuffer");
+        String eventLogDir = res.getString("eventLogDir");
+        EventHandler eventHandler;
+        if (eventLogDir != null) {
+            eventHandler = new BinaryEventHandler(Paths.get(eventLogDir), res.getLong("eventLogSegmentBytes"));
+        } else if (eventBuffer == 0) {
+            eventHandler = new JsonPrintEventHandler();
+        } else {
+            // The writer thread flushes the stream whenever it has written all pending events
+            eventHandler = new JsonPrintEventHandler(new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false));
+        }
+        if ("window".equals(res.getString("reportMode"))) {
+            eventHandler = new WindowedEventHandler(eventHandler, res.getLong("reportWindow"));
+        }
+        if (eventBuffer == 0) {
+            return eventHandler;
+        }
+        OverflowPolicy overflowPolicy = OverflowPolicy.valueOf(res.getString("eventOverflow").toUpperCase().replace('-', '_'));
+        return new AsyncEventHandler(eventHandler, eventBuffer, overflowPolicy);
+    }
+
+    /**
+     * Creates a shutdown hook which closes the clients one after the other and then the event handler which they
+     * write to, so that the events of the clients are written out before the handler is closed.
+     */
+    static Thread shutdownHook(EventHandler eventHandler, Runnable... closeClients) {
+        return new Thread(() -> {
+            for (Runnable closeClient : closeClients) {
+                closeClient.run();
+            }
+            eventHandler.close();
+        });
+    }
+
+    /**
+     * @param eventBufferDefault describes how the command writes its events without an event buffer
+     */
+    static void addArguments(ArgumentContainer parser, String eventBufferDefault) {
+        parser.addArgument("--event-buffer")
+                .action(store())
+                .required(false)
+                .setDefault(0)
+                .type(Integer.class)
+                .choices(Arguments.range(0, 1 << 30))
+                .metavar("EVENTS")
+                .dest("eventBuffer")
+                .help("Write the events on a separate thread and let up to this many events wait to be written. " + eventBufferDefault);
+
+        parser.addArgument("--event-overflow")
+                .action(store())
+                .required(false)
+                .setDefault("block")
+                .type(String.class)
+                .choices("block", "drop", "count-and-drop")
+                .metavar("POLICY")
+                .dest("eventOverflow")
+                .help("Set what happens to an event if the event buffer is full: block until there is room, drop the event, or drop it and report the number of dropped events. Default is block.");
+
+        parser.addArgument("--event-log-dir")
+                .action(store())
+                .required(false)
+                .type(String.class)
+                .metavar("DIR")
+                .dest("eventLogDir")
+                .help("Write the events in a compact binary format into segment files in this directory instead of printing them as JSON. The segments can be read with the event-log tool.");
+
+        parser.addArgument("--event-log-segment-bytes")
+                .action(store())
+                .required(false)
+                .setDefault(128L * 1024 * 1024)
+                .type(Long.class)
+                .choices(Arguments.range(1L, Long.MAX_VALUE))
+                .metavar("BYTES")
+                .dest("eventLogSegmentBytes")
+                .help("Start a new event log segment once the current segment exceeds this size. Default is 128 MiB.");
+
+        parser.addArgument("--report-mode")
+                .action(store())
+                .required(false)
+                .setDefault("record")
+                .type(String.class)
+                .choices("record", "window")
+                .metavar("MODE")
+                .dest("reportMode")
+                .help("Emit an event per sent or received record, or aggregate them into one window_summary event per time window. Default is record.");
+
+        parser.addArgument("--report-window")
+                .action(store())
+                .required(false)
+                .setDefault(1000L)
+                .type(Long.class)
+                .choices(Arguments.range(1L, Long.MAX_VALUE))
+                .metavar("WINDOW_MS")
+                .dest("reportWindow")
+                .help("Set the length of the time windows in milliseconds if the report mode is window. Default is 1 second.");
+    }
+}
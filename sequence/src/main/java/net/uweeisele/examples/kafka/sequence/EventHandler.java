@@ -2,7 +2,22 @@ package net.uweeisele.examples.kafka.sequence;
 
 import net.uweeisele.examples.kafka.sequence.event.ClientEvent;
 
-public interface EventHandler {
+public interface EventHandler extends AutoCloseable {
 
     void on(ClientEvent event);
+
+    /**
+     * Writes out the events which have been buffered by this handler.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Writes out the buffered events and releases the resources of this handler and of the handler which it
+     * passes the events to. Closing a handler again has no effect.
+     */
+    @Override
+    default void close() {
+        flush();
+    }
 }
@@ -0,0 +1,200 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.uweeisele.examples.kafka.sequence.eventlog.EventLogReader;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Exit;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static net.sourceforge.argparse4j.impl.Arguments.*;
+
+/**
+ * Reads the segments which have been written with {@code --event-log-dir} and prints the events as JSON or
+ * a summary of the events per client.
+ */
+public class EventLogCommand {
+
+    private static final Set<String> SENT = Set.of("producer_send_success");
+    private static final Set<String> RECEIVED = Set.of("valid_record_received", "unexpected_record_received");
+
+    public static void main(String[] args) {
+        ArgumentParser parser = argParser();
+        if (args.length == 0) {
+            parser.printHelp();
+            Exit.exit(0);
+        }
+
+        Namespace res = null;
+        try {
+            res = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            Exit.exit(1);
+        }
+
+        ObjectMapper mapper = JsonPrintEventHandler.newObjectMapper();
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        EventLogReader reader = new EventLogReader(Paths.get(res.getString("logDir")));
+        List<String> names = res.getList("names");
+
+        int returnCode = 0;
+        try {
+            if (res.getBoolean("summary")) {
+                Map<String, ClientSummary> summaries = new TreeMap<>();
+                reader.forEach(filter(names, event -> summaries
+                        .computeIfAbsent(Objects.toString(text(event, "client"), ""), ClientSummary::new)
+                        .add(event)));
+                for (ClientSummary summary : summaries.values()) {
+                    out.println(mapper.writeValueAsString(summary.toJson(mapper)));
+                }
+            } else {
+                reader.forEach(filter(names, event -> out.println(event.toString())));
+            }
+        } catch (UncheckedIOException | JsonProcessingException e) {
+            System.err.println(e.getMessage());
+            returnCode = 1;
+        } finally {
+            out.flush();
+        }
+
+        Exit.exit(returnCode);
+    }
+
+    private static Consumer<ObjectNode> filter(List<String> names, Consumer<ObjectNode> action) {
+        if (names == null || names.isEmpty()) {
+            return action;
+        }
+        Set<String> accepted = new HashSet<>(names);
+        return event -> {
+            if (accepted.contains(text(event, "name"))) {
+                action.accept(event);
+            }
+        };
+    }
+
+    private static String text(JsonNode event, String field) {
+        JsonNode value = event.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    private static class ClientSummary {
+
+        private final String client;
+
+        private final Map<String, Long> events = new TreeMap<>();
+
+        private final Map<TopicPartition, long[]> sent = new HashMap<>();
+        private final Map<TopicPartition, long[]> received = new HashMap<>();
+
+        private long firstTimestamp = Long.MAX_VALUE;
+        private long lastTimestamp = Long.MIN_VALUE;
+
+        ClientSummary(String client) {
+            this.client = client;
+        }
+
+        void add(ObjectNode event) {
+            String name = text(event, "name");
+            events.merge(name, 1L, Long::sum);
+
+            long timestamp = event.path("timestamp").asLong();
+            firstTimestamp = Math.min(firstTimestamp, timestamp);
+            lastTimestamp = Math.max(lastTimestamp, timestamp);
+
+            if (SENT.contains(name)) {
+                addOffset(sent, event);
+            } else if (RECEIVED.contains(name)) {
+                addOffset(received, event);
+            }
+        }
+
+        // count, min offset, max offset per partition
+        private static void addOffset(Map<TopicPartition, long[]> partitions, ObjectNode event) {
+            TopicPartition tp = new TopicPartition(text(event, "topic"), event.path("partition").asInt());
+            long offset = event.path("offset").asLong();
+            long[] stats = partitions.computeIfAbsent(tp, p -> new long[] { 0, Long.MAX_VALUE, Long.MIN_VALUE });
+            stats[0]++;
+            stats[1] = Math.min(stats[1], offset);
+            stats[2] = Math.max(stats[2], offset);
+        }
+
+        ObjectNode toJson(ObjectMapper mapper) {
+            ObjectNode summary = mapper.createObjectNode();
+            summary.put("name", "event_log_summary");
+            summary.put("client", client);
+            summary.put("first_timestamp", firstTimestamp);
+            summary.put("last_timestamp", lastTimestamp);
+            ObjectNode counts = summary.putObject("events");
+            events.forEach(counts::put);
+            putPartitions(summary, "sent", sent);
+            putPartitions(summary, "received", received);
+            return summary;
+        }
+
+        private static void putPartitions(ObjectNode summary, String field, Map<TopicPartition, long[]> partitions) {
+            if (partitions.isEmpty()) {
+                return;
+            }
+            List<TopicPartition> sorted = new ArrayList<>(partitions.keySet());
+            sorted.sort(Comparator.comparing(TopicPartition::topic).thenComparingInt(TopicPartition::partition));
+            for (TopicPartition tp : sorted) {
+                long[] stats = partitions.get(tp);
+                ObjectNode partition = summary.withArray(field).addObject();
+                partition.put("topic", tp.topic());
+                partition.put("partition", tp.partition());
+                partition.put("count", stats[0]);
+                partition.put("minOffset", stats[1]);
+                partition.put("maxOffset", stats[2]);
+            }
+        }
+    }
+
+    /** Get the command-line argument parser. */
+    private static ArgumentParser argParser() {
+        ArgumentParser parser = ArgumentParsers
+                .newFor("event-log")
+                .addHelp(true)
+                .build()
+                .description("This tool reads the binary event log written by the generator and the verifier and prints the events as JSON objects or a summary per client to STDOUT.");
+
+        parser.addArgument("--log-dir")
+                .action(store())
+                .required(true)
+                .type(String.class)
+                .metavar("DIR")
+                .dest("logDir")
+                .help("Directory which contains the event log segments.");
+
+        parser.addArgument("--name")
+                .action(append())
+                .required(false)
+                .type(String.class)
+                .metavar("EVENT-NAME")
+                .dest("names")
+                .help("Only read events with this name (e.g. valid_record_received). Argument can be specified multiple times.");
+
+        parser.addArgument("--summary")
+                .action(storeTrue())
+                .type(Boolean.class)
+                .metavar("SUMMARY")
+                .dest("summary")
+                .help("Print the number of events per name and the offset ranges per partition of every client instead of the events.");
+
+        return parser;
+    }
+}
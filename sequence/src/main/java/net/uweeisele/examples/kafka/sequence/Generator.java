@@ -1,6 +1,10 @@
 package net.uweeisele.examples.kafka.sequence;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import net.uweeisele.examples.kafka.sequence.AsyncEventHandler.OverflowPolicy;
+import net.uweeisele.examples.kafka.sequence.Verifier.LatencyPercentiles;
+import net.uweeisele.examples.kafka.sequence.Verifier.PartitionLatency;
 import net.uweeisele.examples.kafka.sequence.event.ClientEvent;
 import net.uweeisele.examples.kafka.sequence.event.ShutdownComplete;
 import net.uweeisele.examples.kafka.sequence.event.StartupComplete;
@@ -8,26 +12,37 @@ import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
-import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.errors.OutOfOrderSequenceException;
+import org.apache.kafka.common.errors.ProducerFencedException;
+import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.internals.RecordHeader;
-import org.apache.kafka.common.header.internals.RecordHeaders;
 
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.singletonList;
 import static java.util.Objects.requireNonNull;
 import static java.util.UUID.randomUUID;
 
-public class Generator implements Runnable, AutoCloseable {
+public class Generator implements SequenceGenerator {
 
     private final String clientName;
 
-    private final Producer<String, String> producer;
+    private final Producer<String, Long> producer;
 
     private final String topic;
 
@@ -37,98 +52,294 @@ public class Generator implements Runnable, AutoCloseable {
 
     private final ThroughputThrottler throughputThrottler;
 
-    private Instant createTime;
+    private final ThroughputUnit throughputUnit;
 
-    private boolean syncProduce;
+    // Serializer of the values if they carry a payload, which reports the size of every value
+    private final PayloadSerializer payloadSerializer;
+
+    // Schedule of the intended send times in open-loop mode, shared by all shards
+    private final RatePacer openLoopSchedule;
+
+    private final boolean syncProduce;
 
     private final EventHandler eventHandler;
 
-    // Hook to trigger producing thread to stop sending messages
-    private volatile boolean stopProducing = false;
+    // Writer thread of the events, unless the event handler has one already
+    private final AsyncEventHandler eventWriter;
+
+    // Only set in transactional mode
+    private final Transactions transactions;
+
+    // Limits the records which have been sent but not completed yet, shared by all shards, null if unlimited
+    private final Semaphore inFlightWindow;
+
+    private final LongAdder inFlightBlockedNs = new LongAdder();
+
+    // The ack latencies are only reported in the final stats if <= 0
+    private final long latencyReportIntervalNs;
+
+    // If set, the sequences are resumed from and persisted to the checkpoint
+    private final GeneratorCheckpoint checkpoint;
 
-    private long numSent = 0;
+    private final boolean restored;
 
-    private long numAcked = 0;
+    // Callbacks kept for reuse per shard, enough to cover the records in flight at high rates
+    private static final int CALLBACK_POOL_SIZE = 1 << 14;
 
-    private Instant start;
+    // Events which may wait for the event writer, the producer I/O threads block if it can't keep up
+    private static final int EVENT_QUEUE_CAPACITY = 1 << 16;
+
+    private static final long NO_CREATE_TIME = Long.MIN_VALUE;
+
+    private static final long MAX_IN_FLIGHT_WAIT_MS = 100;
+
+    // Number of draws of finished keys in a row after which they are removed from the key distribution
+    private static final int MAX_MISSES = 16;
+
+    // Every key is owned by exactly one shard, which sends its sequence in order
+    private final List<Shard> shards = new ArrayList<>();
+
+    // Hook to trigger producing thread to stop sending messages
+    private volatile boolean stopProducing = false;
 
     private final CountDownLatch shutdownLatch = new CountDownLatch(1);
 
-    protected Generator(String clientName, Producer<String, String> producer, String topic, Collection<String> keys, long maxMessagesPerKey, ThroughputThrottler throughputThrottler, Instant createTime, boolean syncProduce, EventHandler eventHandler) {
+    protected Generator(String clientName, Producer<String, Long> producer, IntFunction<Producer<String, Long>> shardProducerFactory, String topic, Collection<String> keys, long maxMessagesPerKey, ThroughputThrottler throughputThrottler, ThroughputUnit throughputUnit, PayloadSerializer payloadSerializer, boolean openLoop, KeyDistribution keyDistribution, int numShards, Instant createTime, boolean syncProduce, Transactions transactions, int maxInFlight, long latencyReportIntervalMs, GeneratorCheckpoint checkpoint, EventHandler eventHandler) {
         this.clientName = clientName;
         this.producer = producer;
         this.topic = topic;
-        this.keys = new LinkedHashSet<>(keys);
+        this.checkpoint = checkpoint;
+        // A restored generator continues the sequences of the keys of the checkpoint instead of the given keys
+        Map<String, Long> ackedValues = checkpoint != null ? checkpoint.restore() : Collections.emptyMap();
+        this.restored = !ackedValues.isEmpty();
+        this.keys = new LinkedHashSet<>(restored ? ackedValues.keySet() : keys);
         this.maxMessagesPerKey = maxMessagesPerKey;
         this.throughputThrottler = throughputThrottler;
-        this.createTime = createTime;
+        this.throughputUnit = throughputUnit;
+        this.payloadSerializer = payloadSerializer;
+        if (openLoop) {
+            long targetThroughput = throughputThrottler.getTargetThroughput();
+            if (targetThroughput <= 0 || throughputUnit != ThroughputUnit.MESSAGES) {
+                throw new IllegalArgumentException("Open loop requires a constant target throughput > 0 in messages/sec.");
+            }
+            this.openLoopSchedule = RatePacer.unbounded(targetThroughput);
+        } else {
+            this.openLoopSchedule = null;
+        }
         this.syncProduce = syncProduce;
-        this.eventHandler = eventHandler;
+        // The producer I/O threads only enqueue their events, so they never wait for the event handler
+        this.eventWriter = eventHandler instanceof AsyncEventHandler ? null : new AsyncEventHandler(clientName + "-event-writer", eventHandler, EVENT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+        this.eventHandler = eventWriter != null ? eventWriter : eventHandler;
+        this.transactions = transactions;
+        this.inFlightWindow = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        this.latencyReportIntervalNs = TimeUnit.MILLISECONDS.toNanos(latencyReportIntervalMs);
+
+        int shardCount = Math.max(1, Math.min(numShards, this.keys.size()));
+        if (transactions != null && shardCount > 1 && shardProducerFactory == null) {
+            throw new IllegalArgumentException("Transactions with more than one shard require dedicated producers.");
+        }
+        List<List<String>> shardKeys = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            shardKeys.add(new ArrayList<>());
+        }
+        int k = 0;
+        for (String key : this.keys) {
+            shardKeys.get(k++ % shardCount).add(key);
+        }
+        // Keys are dealt to the shards by rank, so that every shard gets a similar share of hot and cold keys
+        double[] keyWeights = keyDistribution != null ? keyDistribution.weights(this.keys.size()) : null;
+        double weightSum = keyWeights != null ? Arrays.stream(keyWeights).sum() : 0;
+        if (keyWeights != null && shardCount > 1 && (openLoop || throughputThrottler.getTargetThroughput() < 0)) {
+            throw new IllegalArgumentException("A key distribution with more than one shard requires a throughput and no open loop.");
+        }
+        for (int i = 0; i < shardCount; i++) {
+            // The first shard always uses the producer of the generator, so it is never idle
+            Producer<String, Long> shardProducer = shardProducerFactory != null && i > 0 ? shardProducerFactory.apply(i) : producer;
+            double[] weights = null;
+            if (keyWeights != null) {
+                weights = new double[shardKeys.get(i).size()];
+                for (int j = 0; j < weights.length; j++) {
+                    weights[j] = keyWeights[i + j * shardCount];
+                }
+            }
+            ThroughputThrottler shardThrottler;
+            if (shardCount == 1) {
+                shardThrottler = throughputThrottler;
+            } else if (weights != null) {
+                // Every shard sends at the share of its keys in the distribution, which keeps the skew across all keys
+                shardThrottler = throughputThrottler.share(weightSum > 0 ? Math.min(1, Arrays.stream(weights).sum() / weightSum) : 0);
+            } else {
+                shardThrottler = throughputThrottler.share(i, shardCount);
+            }
+            Integer shard = shardCount == 1 ? null : i;
+            shardThrottler.withStepListener((step, startNs, endNs, targetAmount, achievedAmount) -> {
+                this.eventHandler.on(new ThroughputStep(clientName, shard, step, startNs, endNs, targetAmount, achievedAmount, throughputUnit));
+            });
+            long[] nextValues = new long[shardKeys.get(i).size()];
+            for (int j = 0; j < nextValues.length; j++) {
+                nextValues[j] = ackedValues.getOrDefault(shardKeys.get(i).get(j), GeneratorCheckpoint.NONE) + 1;
+            }
+            shards.add(new Shard(i, shardKeys.get(i), shardProducer, shardThrottler, weights, nextValues, createTime));
+        }
     }
 
     public void run() {
         if (stopProducing) {
+            closeEventWriter();
             return;
         }
 
         eventHandler.on(new StartupComplete(clientName));
         eventHandler.on(new KeysGenerated(clientName, keys));
 
-        // negative maxMessages (-1) means "infinite"
-        long maxMessagesPerKey = (this.maxMessagesPerKey < 0) ? Long.MAX_VALUE : this.maxMessagesPerKey;
-
-        for (long i = 0; i < maxMessagesPerKey; i++) {
-            for (String key : keys) {
-                if (stopProducing) {
-                    break;
-                }
-
-                long sendStartMs = System.currentTimeMillis();
-                if (start == null) {
-                    start = Instant.ofEpochMilli(sendStartMs);
-                }
-
-                this.send(key, i);
+        CountDownLatch checkpointsStopped = new CountDownLatch(1);
+        Thread checkpointWriter = null;
+        if (checkpoint != null) {
+            if (restored) {
+                eventHandler.on(new CheckpointRestored(clientName, checkpoint.checkpointId(), keys.size(), ackedRecords(checkpointValues())));
+            }
+            checkpointWriter = new Thread(() -> writeCheckpoints(checkpointsStopped), clientName + "-checkpoint-writer");
+            checkpointWriter.start();
+        }
 
-                if (throughputThrottler.shouldThrottle(i, sendStartMs)) {
-                    throughputThrottler.throttle();
-                }
+        if (shards.size() == 1) {
+            shards.get(0).run();
+        } else {
+            List<Thread> threads = new ArrayList<>();
+            for (Shard shard : shards) {
+                Thread thread = new Thread(shard, clientName + "-shard-" + shard.index);
+                thread.start();
+                threads.add(thread);
             }
+            join(threads);
         }
 
+        // Closing the producers completes all callbacks before the stats are emitted, after which the
+        // histograms of the shards are no longer written
+        for (Shard shard : shards) {
+            if (shard.producer != producer) {
+                shard.producer.close();
+            }
+        }
         producer.close();
-        eventHandler.on(new ProducerStats(clientName, numSent, numAcked, throughputThrottler.getTargetThroughput(), getAvgThroughput()));
+        if (checkpointWriter != null) {
+            checkpointsStopped.countDown();
+            join(singletonList(checkpointWriter));
+            // All records have been completed, so the final checkpoint contains every ack
+            writeCheckpoint();
+        }
+        AckLatencies ackLatencies = new AckLatencies();
+        for (Shard shard : shards) {
+            shard.ackLatencies.roll(topic, new LatencyHistogram());
+            ackLatencies.addTotals(shard.ackLatencies);
+        }
+        LatencyHistogram ackLatency = new LatencyHistogram();
+        List<PartitionLatency> partitionAckLatencies = ackLatencies.totals(topic, ackLatency);
+        OpenLoopLatencies openLoopLatencies = null;
+        if (openLoopSchedule != null) {
+            openLoopLatencies = new OpenLoopLatencies();
+            for (Shard shard : shards) {
+                openLoopLatencies.add(shard.openLoopLatencies);
+            }
+        }
+        eventHandler.on(new ProducerStats(clientName, getNumSent(), getNumAcked(), getTargetThroughput(), getAvgThroughput(), shardStats(),
+                openLoopLatencies != null ? openLoopLatencies.corrected() : null,
+                openLoopLatencies != null ? openLoopLatencies.uncorrected() : null,
+                transactions != null ? transactions.stats(getStart()) : null,
+                inFlightWindow != null ? TimeUnit.NANOSECONDS.toMillis(inFlightBlockedNs.sum()) : null,
+                new LatencyPercentiles(ackLatency), partitionAckLatencies));
         eventHandler.on(new ShutdownComplete(clientName));
+        closeEventWriter();
         shutdownLatch.countDown();
     }
 
-    public void send(String key, Long value) {
-        ProducerRecord<String, String> record;
-
-        Headers headers = new RecordHeaders(List.of(new RecordHeader("producerid", (clientName + "-" + key).getBytes(UTF_8))));
-        if (createTime != null) {
-            record = new ProducerRecord<>(topic, null, createTime.toEpochMilli(), key, String.valueOf(value), headers);
-            createTime = createTime.plusMillis(System.currentTimeMillis() - start.toEpochMilli());
-        } else {
-            record = new ProducerRecord<>(topic, null, key, String.valueOf(value) ,headers);
+    private void writeCheckpoints(CountDownLatch stopped) {
+        try {
+            while (!stopped.await(checkpoint.intervalMs(), TimeUnit.MILLISECONDS)) {
+                writeCheckpoint();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
-        numSent++;
-        Future<RecordMetadata> result = null;
+    private void writeCheckpoint() {
+        long[] ackedValues = checkpointValues();
         try {
-            result = producer.send(record, new EventCallback(key, value));
-        } catch (Exception e) {
-            synchronized (eventHandler) {
-                eventHandler.on(new FailedSend(clientName, key, value, topic, e));
+            long checkpointId = checkpoint.write(getKeys(), ackedValues);
+            eventHandler.on(new CheckpointWritten(clientName, checkpointId, ackedRecords(ackedValues)));
+        } catch (UncheckedIOException e) {
+            eventHandler.on(new FailedCheckpoint(clientName, e));
+        }
+    }
+
+    // The values of the keys in the order of the keys, which have been dealt to the shards in turn
+    private long[] checkpointValues() {
+        long[] values = new long[keys.size()];
+        for (Shard shard : shards) {
+            for (int j = 0; j < shard.keys.size(); j++) {
+                values[shard.index + j * shards.size()] = shard.checkpointValues.get(j);
             }
         }
-        if (syncProduce && result != null) {
-            try {
-                result.get();
-            } catch (Exception e) {
-                // Handled by callback
+        return values;
+    }
+
+    private static long ackedRecords(long[] ackedValues) {
+        long records = 0;
+        for (long value : ackedValues) {
+            records += value + 1;
+        }
+        return records;
+    }
+
+    private void closeEventWriter() {
+        if (eventWriter != null) {
+            eventWriter.stop();
+        }
+    }
+
+    private void join(List<Thread> threads) {
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    stopProducing = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private List<ShardStats> shardStats() {
+        if (shards.size() == 1) {
+            return null;
+        }
+        List<ShardStats> stats = new ArrayList<>();
+        for (Shard shard : shards) {
+            long acked = shard.acked.sum();
+            stats.add(new ShardStats(shard.index, shard.keys.size(), shard.sent.sum(), acked, avgThroughput(acked, shard.start)));
+        }
+        return stats;
+    }
+
+    // Sum of the targets of the shards, -1 if they are not throttled
+    private long getTargetThroughput() {
+        if (openLoopSchedule != null) {
+            return Math.round(openLoopSchedule.getPermitsPerSec());
+        }
+        long targetThroughput = 0;
+        for (Shard shard : shards) {
+            long shardTarget = shard.throughputThrottler.getTargetThroughput();
+            if (shardTarget < 0) {
+                return -1;
             }
+            targetThroughput += shardTarget;
         }
+        return targetThroughput;
     }
 
     public List<String> getKeys() {
@@ -136,20 +347,38 @@ public class Generator implements Runnable, AutoCloseable {
     }
 
     public Instant getStart() {
+        Instant start = null;
+        for (Shard shard : shards) {
+            if (shard.start != null && (start == null || shard.start.isBefore(start))) {
+                start = shard.start;
+            }
+        }
         return start;
     }
 
     public long getNumSent() {
-        return numSent;
+        long sent = 0;
+        for (Shard shard : shards) {
+            sent += shard.sent.sum();
+        }
+        return sent;
     }
 
     public long getNumAcked() {
-        return numAcked;
+        long acked = 0;
+        for (Shard shard : shards) {
+            acked += shard.acked.sum();
+        }
+        return acked;
     }
 
     public double getAvgThroughput() {
+        return avgThroughput(getNumAcked(), getStart());
+    }
+
+    private static double avgThroughput(long acked, Instant start) {
         long currentMs = System.currentTimeMillis();
-        return 1000 * (numAcked / (double) (currentMs - (start != null ? start.toEpochMilli() : currentMs)));
+        return 1000 * (acked / (double) (currentMs - (start != null ? start.toEpochMilli() : currentMs)));
     }
 
     @Override
@@ -171,43 +400,697 @@ public class Generator implements Runnable, AutoCloseable {
         }
     }
 
+    /**
+     * Sends the sequences of a subset of the keys on its own thread.
+     *
+     * The counters are updated by the sending thread and the producer I/O thread, so they are kept in
+     * {@link LongAdder}s and summed up without locking.
+     */
+    private class Shard implements Runnable {
+
+        private final int index;
+
+        private final List<String> keys;
+
+        private final Producer<String, Long> producer;
+
+        private final ThroughputThrottler throughputThrottler;
+
+        // Weights of the keys if they are drawn from a distribution, otherwise the keys are sent round-robin
+        private final double[] weights;
+
+        // The producerid header of every key, which is shared by all records of the key
+        private final List<List<Header>> headers;
+
+        // Length of every key as written by the StringSerializer
+        private final int[] keyLengths;
+
+        // Callbacks whose records have been completed, they are returned by the producer I/O threads
+        private final MpscRingBuffer<EventCallback> callbacks = new MpscRingBuffer<>(CALLBACK_POOL_SIZE);
+
+        // Next value of every key, only used by the sending thread
+        private final long[] nextValues;
+
+        // Highest value of every key after which a restored generator continues, which is the end of the acked
+        // prefix of the sequence, or the highest committed value in transactional mode. Only kept if there is a checkpoint.
+        private final AtomicLongArray checkpointValues;
+
+        // Lowest value of every key whose send has failed, later acks don't advance the checkpoint beyond it
+        private final AtomicLongArray failedValues;
+
+        private long createTimeMs;
+
+        private volatile Instant start;
+
+        // Messages or bytes sent by this shard
+        private long amountSoFar = 0;
+
+        // Records and start of the open transaction in transactional mode
+        private boolean inTransaction = false;
+        private long transactionRecords = 0;
+        private long transactionStartNs;
+
+        // Set if the producer can't be used for transactions anymore, which stops the shard
+        private boolean transactionsFailed = false;
+
+        private final LongAdder sent = new LongAdder();
+
+        private final LongAdder acked = new LongAdder();
+
+        // Only in open-loop mode
+        private final OpenLoopLatencies openLoopLatencies = openLoopSchedule != null ? new OpenLoopLatencies() : null;
+
+        // Written by the thread which completes the records of the shard, like the time of the latest report
+        private final AckLatencies ackLatencies = new AckLatencies();
+        private long lastLatencyReportNs = 0;
+
+        Shard(int index, List<String> keys, Producer<String, Long> producer, ThroughputThrottler throughputThrottler, double[] weights, long[] nextValues, Instant createTime) {
+            this.index = index;
+            this.keys = keys;
+            this.producer = producer;
+            this.throughputThrottler = throughputThrottler;
+            this.weights = weights;
+            this.nextValues = nextValues;
+            this.checkpointValues = checkpoint != null ? new AtomicLongArray(nextValues.length) : null;
+            for (int k = 0; checkpointValues != null && k < nextValues.length; k++) {
+                checkpointValues.set(k, nextValues[k] - 1);
+            }
+            this.failedValues = checkpoint != null && transactions == null ? new AtomicLongArray(nextValues.length) : null;
+            for (int k = 0; failedValues != null && k < nextValues.length; k++) {
+                failedValues.set(k, Long.MAX_VALUE);
+            }
+            this.createTimeMs = createTime != null ? createTime.toEpochMilli() : NO_CREATE_TIME;
+            this.headers = new ArrayList<>(keys.size());
+            this.keyLengths = new int[keys.size()];
+            for (int k = 0; k < keys.size(); k++) {
+                // The header is read-only once the record has been sent, so one instance serves all records of the key
+                headers.add(List.of(new RecordHeader("producerid", (clientName + "-" + keys.get(k)).getBytes(UTF_8))));
+                keyLengths[k] = utf8Length(keys.get(k));
+            }
+        }
+
+        /**
+         * Advances the checkpoint of the key to the acked value, unless an earlier value of the key has failed.
+         */
+        void onAckedSend(int keyIndex, long value) {
+            // In transactional mode, only a commit advances the checkpoint
+            if (failedValues != null && value < failedValues.get(keyIndex)) {
+                checkpointValues.accumulateAndGet(keyIndex, value, Math::max);
+            }
+        }
+
+        /**
+         * Pins the checkpoint of the key before the failed value, so that a restored generator sends it again.
+         */
+        void onFailedSend(int keyIndex, long value) {
+            if (failedValues != null) {
+                failedValues.accumulateAndGet(keyIndex, value, Math::min);
+                checkpointValues.accumulateAndGet(keyIndex, value - 1, Math::min);
+            }
+        }
+
+        AckLatencyReport latencyReport() {
+            LatencyHistogram total = new LatencyHistogram();
+            List<PartitionLatency> partitions = ackLatencies.roll(topic, total);
+            return new AckLatencyReport(clientName, shards.size() == 1 ? null : index, new LatencyPercentiles(total), partitions);
+        }
+
+        @Override
+        public void run() {
+            // negative maxMessages (-1) means "infinite"
+            long maxMessagesPerKey = (Generator.this.maxMessagesPerKey < 0) ? Long.MAX_VALUE : Generator.this.maxMessagesPerKey;
+
+            if (transactions != null && !initTransactions()) {
+                return;
+            }
+
+            if (weights == null) {
+                sendInTurn(maxMessagesPerKey);
+            } else {
+                sendDrawnKeys(maxMessagesPerKey);
+            }
+            if (inTransaction) {
+                endTransaction(false);
+            }
+            throughputThrottler.complete();
+        }
+
+        private boolean isStopped() {
+            return stopProducing || transactionsFailed;
+        }
+
+        private void sendInTurn(long maxMessagesPerKey) {
+            int unfinished = unfinishedKeys(nextValues, maxMessagesPerKey).length;
+            int k = 0;
+            // Values and key at which the open transaction has started
+            long[] transactionValues = transactions != null ? new long[keys.size()] : null;
+            int transactionKey = 0;
+
+            while (unfinished > 0 && !isStopped()) {
+                if (transactions != null && !inTransaction) {
+                    System.arraycopy(nextValues, 0, transactionValues, 0, nextValues.length);
+                    transactionKey = k;
+                    beginTransaction();
+                }
+
+                // The keys of a restored generator may finish at different times
+                if (nextValues[k] < maxMessagesPerKey) {
+                    sendAndThrottle(k, nextValues[k]++);
+                    if (nextValues[k] >= maxMessagesPerKey) {
+                        unfinished--;
+                    }
+                }
+                if (++k == keys.size()) {
+                    k = 0;
+                }
+
+                if (inTransaction && transactions.isDue(transactionRecords, transactionStartNs) && endTransaction(transactions.shouldAbort())) {
+                    // The records of an aborted transaction are sent again, so the committed sequences have no gaps
+                    System.arraycopy(transactionValues, 0, nextValues, 0, nextValues.length);
+                    unfinished = unfinishedKeys(nextValues, maxMessagesPerKey).length;
+                    k = transactionKey;
+                }
+            }
+        }
+
+        /**
+         * Sends the next value of a key which is drawn from the key distribution. The sequence of every key stays
+         * contiguous, only the order in which the keys are sent follows the distribution.
+         */
+        private void sendDrawnKeys(long maxMessagesPerKey) {
+            if (Arrays.stream(weights).sum() <= 0) {
+                // None of the keys of this shard gets traffic
+                return;
+            }
+            // Values at which the open transaction has started
+            long[] transactionValues = transactions != null ? new long[keys.size()] : null;
+            int[] drawable = IntStream.range(0, keys.size()).toArray();
+            AliasTable table = new AliasTable(weights);
+            int unfinished = unfinishedKeys(nextValues, maxMessagesPerKey).length;
+            int misses = 0;
+
+            while (unfinished > 0 && !isStopped()) {
+                if (inTransaction && transactions.isDue(transactionRecords, transactionStartNs) && endTransaction(transactions.shouldAbort())) {
+                    // The records of an aborted transaction are sent again, so the committed sequences have no gaps
+                    System.arraycopy(transactionValues, 0, nextValues, 0, nextValues.length);
+                    unfinished = unfinishedKeys(nextValues, maxMessagesPerKey).length;
+                    drawable = IntStream.range(0, keys.size()).toArray();
+                    table = new AliasTable(weights);
+                    misses = 0;
+                }
+                if (transactions != null && !inTransaction) {
+                    System.arraycopy(nextValues, 0, transactionValues, 0, nextValues.length);
+                    beginTransaction();
+                }
+
+                int k = drawable[table.next()];
+                if (nextValues[k] >= maxMessagesPerKey) {
+                    // Draw only from the unfinished keys once the finished keys are drawn repeatedly
+                    if (++misses >= MAX_MISSES) {
+                        drawable = unfinishedKeys(nextValues, maxMessagesPerKey);
+                        double[] drawableWeights = new double[drawable.length];
+                        for (int i = 0; i < drawable.length; i++) {
+                            drawableWeights[i] = weights[drawable[i]];
+                        }
+                        if (Arrays.stream(drawableWeights).sum() <= 0) {
+                            // The remaining keys get no traffic
+                            return;
+                        }
+                        table = new AliasTable(drawableWeights);
+                        misses = 0;
+                    }
+                    continue;
+                }
+                misses = 0;
+                sendAndThrottle(k, nextValues[k]++);
+                if (nextValues[k] >= maxMessagesPerKey) {
+                    unfinished--;
+                }
+            }
+        }
+
+        private int[] unfinishedKeys(long[] nextValues, long maxMessagesPerKey) {
+            return IntStream.range(0, nextValues.length).filter(k -> nextValues[k] < maxMessagesPerKey).toArray();
+        }
+
+        private boolean initTransactions() {
+            try {
+                producer.initTransactions();
+                return true;
+            } catch (KafkaException e) {
+                onTransactionFailure(e);
+                return false;
+            }
+        }
+
+        private void beginTransaction() {
+            producer.beginTransaction();
+            inTransaction = true;
+            transactionRecords = 0;
+            transactionStartNs = System.nanoTime();
+        }
+
+        /**
+         * Commits or aborts the open transaction. A transaction whose commit fails is aborted.
+         *
+         * @return true if the transaction has been aborted
+         */
+        private boolean endTransaction(boolean abort) {
+            inTransaction = false;
+            try {
+                if (!abort) {
+                    long commitStartNs = System.nanoTime();
+                    producer.commitTransaction();
+                    transactions.onCommit(transactionRecords, System.nanoTime() - commitStartNs);
+                    for (int k = 0; checkpointValues != null && k < nextValues.length; k++) {
+                        checkpointValues.lazySet(k, nextValues[k] - 1);
+                    }
+                    return false;
+                }
+                producer.abortTransaction();
+                transactions.onAbort(transactionRecords);
+            } catch (ProducerFencedException | OutOfOrderSequenceException | AuthorizationException e) {
+                // The producer can't be used for transactions anymore
+                onTransactionFailure(e);
+            } catch (KafkaException e) {
+                eventHandler.on(new FailedTransaction(clientName, index, e));
+                try {
+                    producer.abortTransaction();
+                    transactions.onAbort(transactionRecords);
+                } catch (KafkaException abortException) {
+                    onTransactionFailure(abortException);
+                }
+            }
+            return true;
+        }
+
+        private void onTransactionFailure(KafkaException e) {
+            transactionsFailed = true;
+            transactions.onFailure();
+            eventHandler.on(new FailedTransaction(clientName, index, e));
+        }
+
+        private void sendAndThrottle(int key, long value) {
+            if (start == null) {
+                start = Instant.now();
+            }
+
+            if (openLoopSchedule != null) {
+                // The record is due at its slot of the schedule, even if the previous sends were late
+                long intendedNs = openLoopSchedule.reserve(1);
+                RatePacer.awaitNanoTime(intendedNs);
+                send(key, value, intendedNs);
+                return;
+            }
+
+            int size = send(key, value, -1);
+            if (size < 0) {
+                return;
+            }
+            amountSoFar += throughputUnit == ThroughputUnit.BYTES ? size : 1;
+
+            if (throughputThrottler.shouldThrottle(amountSoFar)) {
+                throughputThrottler.throttle();
+            }
+        }
+
+        /**
+         * Sends the value of the key with the given index into the keys of the shard. Apart from the record and
+         * the boxed value, nothing is allocated: the headers are built once per key, the callbacks are recycled
+         * and the value is serialized without a string.
+         *
+         * @param intendedNs time at which the record should have been sent in open-loop mode, otherwise -1
+         * @return the size of key and value including the payload filler, -1 if the generator has been
+         *         stopped while waiting for the in-flight window
+         */
+        private int send(int keyIndex, long value, long intendedNs) {
+            if (!acquireInFlight()) {
+                return -1;
+            }
+            String key = keys.get(keyIndex);
+            ProducerRecord<String, Long> record;
+            if (createTimeMs != NO_CREATE_TIME) {
+                record = new ProducerRecord<>(topic, null, createTimeMs, key, value, headers.get(keyIndex));
+                createTimeMs += System.currentTimeMillis() - start.toEpochMilli();
+            } else {
+                record = new ProducerRecord<>(topic, null, key, value, headers.get(keyIndex));
+            }
+
+            EventCallback callback = callbacks.poll();
+            if (callback == null) {
+                callback = new EventCallback(this);
+            }
+            callback.init(keyIndex, value, intendedNs, System.nanoTime());
+
+            sent.increment();
+            transactionRecords++;
+            Future<RecordMetadata> result = null;
+            try {
+                result = producer.send(record, callback);
+            } catch (Exception e) {
+                // The producer only completes the callback if it doesn't throw
+                if (callback.pending) {
+                    callback.complete();
+                }
+                onFailedSend(keyIndex, value);
+                eventHandler.on(new FailedSend(clientName, key, value, topic, e));
+            }
+            if (syncProduce && result != null) {
+                try {
+                    result.get();
+                } catch (Exception e) {
+                    // Handled by callback
+                }
+            }
+            // The payload serializer has drawn the size of the value on this thread while the record was sent
+            int valueLength = payloadSerializer != null ? payloadSerializer.lastSize() : Payload.sequenceLength(value);
+            return keyLengths[keyIndex] + valueLength;
+        }
+
+        /**
+         * Waits until the number of records in flight is below the window, if there is one.
+         *
+         * @return false if the generator has been stopped while waiting
+         */
+        private boolean acquireInFlight() {
+            if (inFlightWindow == null || inFlightWindow.tryAcquire()) {
+                return true;
+            }
+            long blockedStartNs = System.nanoTime();
+            try {
+                // Checks regularly whether the generator has been stopped, as the acks may never come
+                while (!isStopped()) {
+                    if (inFlightWindow.tryAcquire(MAX_IN_FLIGHT_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                inFlightBlockedNs.add(System.nanoTime() - blockedStartNs);
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                // 4 bytes per surrogate pair
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Latencies in microseconds from the call of send to the ack, per partition of the topic. The latencies are
+     * recorded for the current report interval and added to the totals when the interval is rolled over.
+     *
+     * Every shard has its own instance, which is only written by the thread which completes the records of the
+     * shard, so it needs no lock. The histograms are kept in arrays indexed by the partition.
+     */
+    private static class AckLatencies {
+
+        private LatencyHistogram[] interval = new LatencyHistogram[0];
+        private LatencyHistogram[] total = new LatencyHistogram[0];
+
+        void record(int partition, long latencyNs) {
+            if (partition < 0) {
+                return;
+            }
+            if (partition >= interval.length) {
+                interval = Arrays.copyOf(interval, partition + 1);
+                total = Arrays.copyOf(total, partition + 1);
+            }
+            if (interval[partition] == null) {
+                interval[partition] = new LatencyHistogram();
+                total[partition] = new LatencyHistogram();
+            }
+            interval[partition].record(latencyNs / 1000);
+        }
+
+        /**
+         * Adds the latencies of the interval to the totals and starts a new interval.
+         *
+         * @param sum receives the latencies of the interval of all partitions
+         * @return the latencies of the interval per partition
+         */
+        List<PartitionLatency> roll(String topic, LatencyHistogram sum) {
+            List<PartitionLatency> partitions = new ArrayList<>();
+            for (int partition = 0; partition < interval.length; partition++) {
+                LatencyHistogram histogram = interval[partition];
+                if (histogram != null && histogram.count() > 0) {
+                    partitions.add(new PartitionLatency(topic, partition, new LatencyPercentiles(histogram)));
+                    sum.add(histogram);
+                    total[partition].add(histogram);
+                    histogram.reset();
+                }
+            }
+            return partitions;
+        }
+
+        void addTotals(AckLatencies other) {
+            if (other.total.length > total.length) {
+                total = Arrays.copyOf(total, other.total.length);
+            }
+            for (int partition = 0; partition < other.total.length; partition++) {
+                if (other.total[partition] != null) {
+                    if (total[partition] == null) {
+                        total[partition] = new LatencyHistogram();
+                    }
+                    total[partition].add(other.total[partition]);
+                }
+            }
+        }
+
+        /**
+         * @param sum receives the total latencies of all partitions
+         * @return the total latencies per partition
+         */
+        List<PartitionLatency> totals(String topic, LatencyHistogram sum) {
+            List<PartitionLatency> partitions = new ArrayList<>();
+            for (int partition = 0; partition < total.length; partition++) {
+                if (total[partition] != null && total[partition].count() > 0) {
+                    partitions.add(new PartitionLatency(topic, partition, new LatencyPercentiles(total[partition])));
+                    sum.add(total[partition]);
+                }
+            }
+            return partitions;
+        }
+    }
+
+    /**
+     * Ack latencies of the open-loop mode in microseconds. The corrected latency is measured from the intended
+     * send time, so it includes the time for which the generator was held up by a slow broker (coordinated
+     * omission), the uncorrected latency is measured from the call of send.
+     *
+     * Every shard has its own instance, which is only written by the I/O thread of the producer of the shard
+     * and only read once the producer has been closed, so it needs no lock.
+     */
+    private static class OpenLoopLatencies {
+
+        private final LatencyHistogram corrected = new LatencyHistogram();
+        private final LatencyHistogram uncorrected = new LatencyHistogram();
+
+        void record(long correctedNs, long uncorrectedNs) {
+            corrected.record(correctedNs / 1000);
+            uncorrected.record(uncorrectedNs / 1000);
+        }
+
+        void add(OpenLoopLatencies other) {
+            corrected.add(other.corrected);
+            uncorrected.add(other.uncorrected);
+        }
+
+        LatencyPercentiles corrected() {
+            return new LatencyPercentiles(corrected);
+        }
+
+        LatencyPercentiles uncorrected() {
+            return new LatencyPercentiles(uncorrected);
+        }
+    }
+
+    /**
+     * Limits and results of the transactional mode, shared by all shards. A transaction is ended after
+     * {@code maxRecords} records or once it is older than {@code maxNs} at the next send, whichever comes first.
+     */
+    private static class Transactions {
+
+        private final long maxRecords;
+        private final long maxNs;
+        private final double abortFraction;
+
+        // Commit latency in microseconds
+        private final LatencyHistogram commitLatencies = new LatencyHistogram();
+
+        private long committed = 0;
+        private long aborted = 0;
+        private long failed = 0;
+        private long committedRecords = 0;
+        private long abortedRecords = 0;
+
+        Transactions(long maxRecords, long maxMs, double abortFraction) {
+            this.maxRecords = maxRecords > 0 ? maxRecords : Long.MAX_VALUE;
+            this.maxNs = maxMs > 0 ? maxMs * 1_000_000L : -1;
+            this.abortFraction = abortFraction;
+        }
+
+        boolean isDue(long records, long startNs) {
+            return records >= maxRecords || (maxNs > 0 && System.nanoTime() - startNs >= maxNs);
+        }
+
+        boolean shouldAbort() {
+            return abortFraction > 0 && ThreadLocalRandom.current().nextDouble() < abortFraction;
+        }
+
+        synchronized void onCommit(long records, long commitNs) {
+            committed++;
+            committedRecords += records;
+            commitLatencies.record(commitNs / 1000);
+        }
+
+        synchronized void onAbort(long records) {
+            aborted++;
+            abortedRecords += records;
+        }
+
+        synchronized void onFailure() {
+            failed++;
+        }
+
+        synchronized TransactionStats stats(Instant start) {
+            return new TransactionStats(committed, aborted, failed, committedRecords, abortedRecords, avgThroughput(committed, start), new LatencyPercentiles(commitLatencies));
+        }
+    }
+
+    /**
+     * Callback of one record at a time. It returns itself to the pool of its shard once it has been completed,
+     * so it is reused for a later record of the shard.
+     */
     private class EventCallback implements Callback {
 
-        private String key;
-        private Long value;
+        private final Shard shard;
 
-        EventCallback(String key, Long value) {
-            this.key = key;
+        private int keyIndex;
+        private long value;
+        private long intendedNs;
+        private long sendNs;
+
+        // Set until the record has been completed, then the callback may be reused
+        private volatile boolean pending;
+
+        EventCallback(Shard shard) {
+            this.shard = shard;
+        }
+
+        void init(int keyIndex, long value, long intendedNs, long sendNs) {
+            this.keyIndex = keyIndex;
             this.value = value;
+            this.intendedNs = intendedNs;
+            this.sendNs = sendNs;
+            this.pending = true;
+        }
+
+        /**
+         * Frees the slot of the record in the in-flight window and returns the callback to the pool.
+         */
+        void complete() {
+            pending = false;
+            if (inFlightWindow != null) {
+                inFlightWindow.release();
+            }
+            // Dropped if the pool is full, then a new callback is created for a later record
+            shard.callbacks.offer(this);
         }
 
         public void onCompletion(RecordMetadata recordMetadata, Exception e) {
-            synchronized (Generator.this.eventHandler) {
-                if (e == null) {
-                    Generator.this.numAcked++;
-                    Generator.this.eventHandler.on(new SuccessfulSend(clientName, this.key, this.value, recordMetadata));
-                } else {
-                    Generator.this.eventHandler.on(new FailedSend(clientName, this.key, this.value, topic, e));
+            int keyIndex = this.keyIndex;
+            long value = this.value;
+            long intendedNs = this.intendedNs;
+            long sendNs = this.sendNs;
+            complete();
+
+            if (e == null) {
+                shard.acked.increment();
+                shard.onAckedSend(keyIndex, value);
+                long ackNs = System.nanoTime();
+                shard.ackLatencies.record(recordMetadata.partition(), ackNs - sendNs);
+                if (intendedNs >= 0) {
+                    shard.openLoopLatencies.record(ackNs - intendedNs, ackNs - sendNs);
+                }
+                if (latencyReportIntervalNs > 0 && ackNs - shard.lastLatencyReportNs >= latencyReportIntervalNs) {
+                    // The shard reports on the thread which writes its histograms
+                    if (shard.lastLatencyReportNs != 0) {
+                        eventHandler.on(shard.latencyReport());
+                    }
+                    shard.lastLatencyReportNs = ackNs;
                 }
+                eventHandler.on(new SuccessfulSend(clientName, shard.keys.get(keyIndex), value, recordMetadata));
+            } else {
+                shard.onFailedSend(keyIndex, value);
+                eventHandler.on(new FailedSend(clientName, shard.keys.get(keyIndex), value, topic, e));
             }
         }
     }
 
     public static class Builder {
 
-        private final Producer<String, String> producer;
+        private final Producer<String, Long> producer;
 
         private final String topic;
 
         private String clientName = Generator.class.getSimpleName().toLowerCase();
 
-        // Default is one key
-        private Set<String> keys = new LinkedHashSet<>(singletonList(randomUUID().toString()));
+        // Default is one key
+        private Set<String> keys = new LinkedHashSet<>(singletonList(randomUUID().toString()));
+
+        // If maxMessagesPerKey < 0, produce until the process is killed externally
+        private long maxMessagesPerKey = -1;
+
+        private ThroughputThrottler throughputThrottler;
+
+        private ThroughputUnit throughputUnit = ThroughputUnit.MESSAGES;
+
+        private boolean openLoop = false;
+
+        // Only needed to count the payload in bytes/sec if the values are serialized with a payload
+        private PayloadSerializer payloadSerializer;
+
+        // Not transactional if both limits are <= 0
+        private long transactionRecords = -1;
+        private long transactionMs = -1;
+
+        private double abortFraction = 0;
+
+        // Records in flight are not limited if <= 0
+        private int maxInFlight = -1;
+
+        private long latencyReportIntervalMs = 10000;
+
+        // If no checkpoint is set, every run starts new sequences at 0
+        private GeneratorCheckpoint checkpoint;
+
+        // Keys are sent round-robin if not set
+        private KeyDistribution keyDistribution;
 
-        // If maxMessagesPerKey < 0, produce until the process is killed externally
-        private long maxMessagesPerKey = -1;
+        private int shards = 1;
 
-        private ThroughputThrottler throughputThrottler;
+        // By default all shards share the producer of the builder
+        private IntFunction<Producer<String, Long>> shardProducerFactory;
 
         // The create time to set in messages
         private Instant createTime;
@@ -216,7 +1099,7 @@ public class Generator implements Runnable, AutoCloseable {
 
         private EventHandler eventHandler = new JsonPrintEventHandler();
 
-        public Builder(Producer<String, String> producer, String topic) {
+        public Builder(Producer<String, Long> producer, String topic) {
             this.producer = producer;
             this.topic = topic;
         }
@@ -254,6 +1137,97 @@ public class Generator implements Runnable, AutoCloseable {
             return this;
         }
 
+        public Builder withThroughputUnit(ThroughputUnit throughputUnit) {
+            this.throughputUnit = requireNonNull(throughputUnit);
+            return this;
+        }
+
+        /**
+         * The serializer of the values of the producers, if they carry a payload. The size of every value is taken
+         * from it, so that a throughput in bytes/sec includes the filler of the payload.
+         */
+        public Builder withPayloadSerializer(PayloadSerializer payloadSerializer) {
+            this.payloadSerializer = payloadSerializer;
+            return this;
+        }
+
+        // Sends every record at its intended time of the constant target throughput, regardless of how long previous sends took
+        public Builder withOpenLoop(boolean openLoop) {
+            this.openLoop = openLoop;
+            return this;
+        }
+
+        /**
+         * Sends the records in transactions of at most {@code maxRecords} records or {@code maxMs} milliseconds,
+         * a limit <= 0 is ignored. The producer needs a transactional.id, every dedicated producer its own one.
+         */
+        public Builder withTransactions(long maxRecords, long maxMs) {
+            if (maxRecords <= 0 && maxMs <= 0) {
+                throw new IllegalArgumentException("maxRecords or maxMs must be > 0");
+            }
+            this.transactionRecords = maxRecords;
+            this.transactionMs = maxMs;
+            return this;
+        }
+
+        // Aborts this fraction of the transactions at random, their records are sent again in the next transaction
+        public Builder withAbortFraction(double abortFraction) {
+            if (abortFraction < 0 || abortFraction >= 1) {
+                throw new IllegalArgumentException("abortFraction must be >= 0 and < 1");
+            }
+            this.abortFraction = abortFraction;
+            return this;
+        }
+
+        // Blocks the sending threads while this many records are waiting for their ack
+        public Builder withMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * @param latencyReportIntervalMs the interval of the ack latency reports, or 0 to only report the
+         *                                latencies in the final stats
+         */
+        public Builder withLatencyReportInterval(long latencyReportIntervalMs) {
+            if (latencyReportIntervalMs < 0) {
+                throw new IllegalArgumentException("latencyReportIntervalMs must be >= 0");
+            }
+            this.latencyReportIntervalMs = latencyReportIntervalMs;
+            return this;
+        }
+
+        /**
+         * Resumes the keys and sequences of the checkpoint if the file exists, the keys of the builder are only used
+         * if it doesn't. The maximum number of messages per key still counts from 0, so the keys stop at the same
+         * value as without a restart.
+         */
+        public Builder withCheckpoint(GeneratorCheckpoint checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        // With more than one shard, every shard sends at the share of its keys, which requires a throughput and no open loop
+        public Builder withKeyDistribution(KeyDistribution keyDistribution) {
+            this.keyDistribution = keyDistribution;
+            return this;
+        }
+
+        public Builder withShards(int shards) {
+            if (shards < 1) {
+                throw new IllegalArgumentException("shards must be >= 1");
+            }
+            this.shards = shards;
+            return this;
+        }
+
+        // Creates a dedicated producer for every shard but the first one, which uses the producer of the builder.
+        // The producers are closed by the generator.
+        public Builder withDedicatedProducers(IntFunction<Producer<String, Long>> shardProducerFactory) {
+            this.shardProducerFactory = shardProducerFactory;
+            return this;
+        }
+
         public Builder withCreateTime(Instant createTime) {
             this.createTime = createTime;
             return this;
@@ -270,10 +1244,15 @@ public class Generator implements Runnable, AutoCloseable {
         }
 
         public Generator build() {
-            return new Generator(clientName, producer, topic, keys, maxMessagesPerKey, throughputThrottler, createTime, syncProduce, eventHandler);
+            Transactions transactions = transactionRecords > 0 || transactionMs > 0 ? new Transactions(transactionRecords, transactionMs, abortFraction) : null;
+            return new Generator(clientName, producer, shardProducerFactory, topic, keys, maxMessagesPerKey, throughputThrottler, throughputUnit, payloadSerializer, openLoop, keyDistribution, shards, createTime, syncProduce, transactions, maxInFlight, latencyReportIntervalMs, checkpoint, eventHandler);
         }
     }
 
+    public enum ThroughputUnit {
+        MESSAGES, BYTES
+    }
+
     public static class KeysGenerated extends ClientEvent {
 
         private Collection<String> keys;
@@ -337,6 +1316,10 @@ public class Generator implements Runnable, AutoCloseable {
         public long offset() {
             return recordMetadata.offset();
         }
+
+        public long recordTimestamp() {
+            return recordMetadata.timestamp();
+        }
     }
 
     public static class FailedSend extends ClientEvent {
@@ -392,13 +1375,31 @@ public class Generator implements Runnable, AutoCloseable {
         private long acked;
         private long targetThroughput;
         private double avgThroughput;
+        private List<ShardStats> shards;
+        private LatencyPercentiles correctedLatency;
+        private LatencyPercentiles uncorrectedLatency;
+        private TransactionStats transactions;
+        private Long inFlightBlockedMs;
+        private LatencyPercentiles ackLatency;
+        private List<PartitionLatency> partitionAckLatencies;
 
         public ProducerStats(String clientName, long sent, long acked, long targetThroughput, double avgThroughput) {
+            this(clientName, sent, acked, targetThroughput, avgThroughput, null, null, null, null, null, null, null);
+        }
+
+        public ProducerStats(String clientName, long sent, long acked, long targetThroughput, double avgThroughput, List<ShardStats> shards, LatencyPercentiles correctedLatency, LatencyPercentiles uncorrectedLatency, TransactionStats transactions, Long inFlightBlockedMs, LatencyPercentiles ackLatency, List<PartitionLatency> partitionAckLatencies) {
             super(clientName);
             this.sent = sent;
             this.acked = acked;
             this.targetThroughput = targetThroughput;
             this.avgThroughput = avgThroughput;
+            this.shards = shards;
+            this.correctedLatency = correctedLatency;
+            this.uncorrectedLatency = uncorrectedLatency;
+            this.transactions = transactions;
+            this.inFlightBlockedMs = inFlightBlockedMs;
+            this.ackLatency = ackLatency;
+            this.partitionAckLatencies = partitionAckLatencies;
         }
 
         @Override
@@ -425,5 +1426,384 @@ public class Generator implements Runnable, AutoCloseable {
         public double avgThroughput() {
             return this.avgThroughput;
         }
+
+        // Only reported if the keys are sent by more than one shard
+        @JsonProperty
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public List<ShardStats> shards() {
+            return this.shards;
+        }
+
+        // Only reported in open-loop mode, in microseconds from the intended send time to the ack
+        @JsonProperty("corrected_latency_us")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public LatencyPercentiles correctedLatency() {
+            return this.correctedLatency;
+        }
+
+        // Only reported in open-loop mode, in microseconds from the call of send to the ack
+        @JsonProperty("uncorrected_latency_us")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public LatencyPercentiles uncorrectedLatency() {
+            return this.uncorrectedLatency;
+        }
+
+        // Only reported in transactional mode
+        @JsonProperty
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public TransactionStats transactions() {
+            return this.transactions;
+        }
+
+        // Only reported with an in-flight window, summed over all shards
+        @JsonProperty("in_flight_blocked_ms")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public Long inFlightBlockedMs() {
+            return this.inFlightBlockedMs;
+        }
+
+        // In microseconds from the call of send to the ack
+        @JsonProperty("ack_latency_us")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public LatencyPercentiles ackLatency() {
+            return this.ackLatency;
+        }
+
+        @JsonProperty("partition_ack_latency_us")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public List<PartitionLatency> partitionAckLatencies() {
+            return this.partitionAckLatencies;
+        }
+    }
+
+    /**
+     * Transactions of the generator. The throughput is in committed transactions/sec, the commit latency in
+     * microseconds. Failed transactions could neither be committed nor aborted.
+     */
+    public static class TransactionStats {
+
+        private long committed;
+        private long aborted;
+        private long failed;
+        private long committedRecords;
+        private long abortedRecords;
+        private double avgThroughput;
+        private LatencyPercentiles commitLatency;
+
+        public TransactionStats(long committed, long aborted, long failed, long committedRecords, long abortedRecords, double avgThroughput, LatencyPercentiles commitLatency) {
+            this.committed = committed;
+            this.aborted = aborted;
+            this.failed = failed;
+            this.committedRecords = committedRecords;
+            this.abortedRecords = abortedRecords;
+            this.avgThroughput = avgThroughput;
+            this.commitLatency = commitLatency;
+        }
+
+        @JsonProperty
+        public long committed() {
+            return this.committed;
+        }
+
+        @JsonProperty
+        public long aborted() {
+            return this.aborted;
+        }
+
+        @JsonProperty
+        public long failed() {
+            return this.failed;
+        }
+
+        @JsonProperty("committed_records")
+        public long committedRecords() {
+            return this.committedRecords;
+        }
+
+        @JsonProperty("aborted_records")
+        public long abortedRecords() {
+            return this.abortedRecords;
+        }
+
+        @JsonProperty("avg_throughput")
+        public double avgThroughput() {
+            return this.avgThroughput;
+        }
+
+        @JsonProperty("commit_latency_us")
+        public LatencyPercentiles commitLatency() {
+            return this.commitLatency;
+        }
+    }
+
+    /**
+     * Latencies in microseconds from the call of send to the ack of the records of a shard which have been
+     * acknowledged since the previous report.
+     */
+    public static class AckLatencyReport extends ClientEvent {
+
+        private Integer shard;
+        private LatencyPercentiles latency;
+        private List<PartitionLatency> partitions;
+
+        public AckLatencyReport(String clientName, Integer shard, LatencyPercentiles latency, List<PartitionLatency> partitions) {
+            super(clientName);
+            this.shard = shard;
+            this.latency = latency;
+            this.partitions = partitions;
+        }
+
+        @Override
+        public String name() {
+            return "ack_latency_report";
+        }
+
+        @JsonProperty
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public Integer shard() {
+            return shard;
+        }
+
+        @JsonProperty
+        public LatencyPercentiles latency() {
+            return latency;
+        }
+
+        @JsonProperty
+        public List<PartitionLatency> partitions() {
+            return partitions;
+        }
+    }
+
+    public static class CheckpointWritten extends ClientEvent {
+
+        private final long checkpointId;
+        private final long acked;
+
+        public CheckpointWritten(String clientName, long checkpointId, long acked) {
+            super(clientName);
+            this.checkpointId = checkpointId;
+            this.acked = acked;
+        }
+
+        @Override
+        public String name() {
+            return "producer_checkpoint_written";
+        }
+
+        @JsonProperty
+        public long checkpointId() {
+            return checkpointId;
+        }
+
+        // Records of all keys up to the highest acked value, including those of previous runs
+        @JsonProperty
+        public long acked() {
+            return acked;
+        }
+    }
+
+    public static class CheckpointRestored extends ClientEvent {
+
+        private final long checkpointId;
+        private final int keys;
+        private final long acked;
+
+        public CheckpointRestored(String clientName, long checkpointId, int keys, long acked) {
+            super(clientName);
+            this.checkpointId = checkpointId;
+            this.keys = keys;
+            this.acked = acked;
+        }
+
+        @Override
+        public String name() {
+            return "producer_checkpoint_restored";
+        }
+
+        @JsonProperty
+        public long checkpointId() {
+            return checkpointId;
+        }
+
+        @JsonProperty
+        public int keys() {
+            return keys;
+        }
+
+        @JsonProperty
+        public long acked() {
+            return acked;
+        }
+    }
+
+    public static class FailedCheckpoint extends ClientEvent {
+
+        private Exception exception;
+
+        public FailedCheckpoint(String clientName, Exception exception) {
+            super(clientName);
+            this.exception = exception;
+        }
+
+        @Override
+        public String name() {
+            return "producer_checkpoint_error";
+        }
+
+        @JsonProperty
+        public String exception() {
+            return exception.getClass().toString();
+        }
+
+        @JsonProperty
+        public String message() {
+            return exception.getMessage();
+        }
+    }
+
+    public static class FailedTransaction extends ClientEvent {
+
+        private int shard;
+        private Exception exception;
+
+        public FailedTransaction(String clientName, int shard, Exception exception) {
+            super(clientName);
+            this.shard = shard;
+            this.exception = exception;
+        }
+
+        @Override
+        public String name() {
+            return "producer_transaction_error";
+        }
+
+        @JsonProperty
+        public int shard() {
+            return shard;
+        }
+
+        @JsonProperty
+        public String exception() {
+            return exception.getClass().toString();
+        }
+
+        @JsonProperty
+        public String message() {
+            return exception.getMessage();
+        }
+    }
+
+    public static class ShardStats {
+
+        private int shard;
+        private int keys;
+        private long sent;
+        private long acked;
+        private double avgThroughput;
+
+        public ShardStats(int shard, int keys, long sent, long acked, double avgThroughput) {
+            this.shard = shard;
+            this.keys = keys;
+            this.sent = sent;
+            this.acked = acked;
+            this.avgThroughput = avgThroughput;
+        }
+
+        @JsonProperty
+        public int shard() {
+            return this.shard;
+        }
+
+        @JsonProperty
+        public int keys() {
+            return this.keys;
+        }
+
+        @JsonProperty
+        public long sent() {
+            return this.sent;
+        }
+
+        @JsonProperty
+        public long acked() {
+            return this.acked;
+        }
+
+        @JsonProperty("avg_throughput")
+        public double avgThroughput() {
+            return this.avgThroughput;
+        }
+    }
+
+    /**
+     * Target and achieved rate of a step of the throughput profile, in messages/sec or bytes/sec. The start and
+     * the end of the step are relative to the first send of the shard.
+     */
+    public static class ThroughputStep extends ClientEvent {
+
+        private Integer shard;
+        private long step;
+        private long startNs;
+        private long endNs;
+        private double targetAmount;
+        private long achievedAmount;
+        private ThroughputUnit unit;
+
+        public ThroughputStep(String clientName, Integer shard, long step, long startNs, long endNs, double targetAmount, long achievedAmount, ThroughputUnit unit) {
+            super(clientName);
+            this.shard = shard;
+            this.step = step;
+            this.startNs = startNs;
+            this.endNs = endNs;
+            this.targetAmount = targetAmount;
+            this.achievedAmount = achievedAmount;
+            this.unit = unit;
+        }
+
+        @Override
+        public String name() {
+            return "throughput_step";
+        }
+
+        @JsonProperty
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public Integer shard() {
+            return this.shard;
+        }
+
+        @JsonProperty
+        public long step() {
+            return this.step;
+        }
+
+        @JsonProperty("start_ms")
+        public double startMs() {
+            return this.startNs / 1e6;
+        }
+
+        @JsonProperty("end_ms")
+        public double endMs() {
+            return this.endNs / 1e6;
+        }
+
+        @JsonProperty("target_rate")
+        public double targetRate() {
+            return rate(this.targetAmount);
+        }
+
+        @JsonProperty("achieved_rate")
+        public double achievedRate() {
+            return rate(this.achievedAmount);
+        }
+
+        @JsonProperty
+        public String unit() {
+            return this.unit.name().toLowerCase();
+        }
+
+        private double rate(double amount) {
+            return endNs > startNs ? amount * 1e9 / (endNs - startNs) : 0;
+        }
     }
 }
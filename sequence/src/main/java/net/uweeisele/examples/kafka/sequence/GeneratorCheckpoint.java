@@ -0,0 +1,118 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Persists the keys of a {@link Generator} together with the highest acknowledged value of every key, so that
+ * a restarted generator continues the sequences instead of starting new ones.
+ *
+ * A checkpoint is written to a temporary file which atomically replaces the previous checkpoint, so the
+ * checkpoint file is always complete. Records which have been in flight when the generator stopped are sent
+ * again after a restore, like all records of a key from its first failed record on.
+ */
+public class GeneratorCheckpoint {
+
+    private static final int MAGIC = 0x47434b50;
+    private static final int VERSION = 1;
+
+    // Value of a key of which no record has been acknowledged yet
+    static final long NONE = -1;
+
+    private final Path file;
+
+    private final long intervalMs;
+
+    private long checkpointId = 0;
+
+    public GeneratorCheckpoint(Path file, long intervalMs) {
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("intervalMs must be > 0");
+        }
+        this.file = file;
+        this.intervalMs = intervalMs;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public long intervalMs() {
+        return intervalMs;
+    }
+
+    public long checkpointId() {
+        return checkpointId;
+    }
+
+    /**
+     * @param keys the keys in the order in which they have been generated, a key may be null
+     * @param ackedValues the highest acknowledged value of every key, or {@link #NONE}
+     */
+    long write(List<String> keys, long[] ackedValues) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long id = checkpointId + 1;
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(id);
+            out.writeInt(keys.size());
+            for (int k = 0; k < keys.size(); k++) {
+                String key = keys.get(k);
+                out.writeBoolean(key != null);
+                if (key != null) {
+                    out.writeUTF(key);
+                }
+                out.writeLong(ackedValues[k]);
+            }
+            out.flush();
+            fileOut.getChannel().force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not write checkpoint %s.", temp), e);
+        }
+        try {
+            Files.move(temp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not replace checkpoint %s.", file), e);
+        }
+        checkpointId = id;
+        return id;
+    }
+
+    /**
+     * Reads the keys and their highest acknowledged values from the checkpoint file, if it exists.
+     *
+     * @return the values by key in the order in which the keys have been generated, or an empty map if there is
+     *         no checkpoint
+     */
+    Map<String, Long> restore() {
+        Map<String, Long> ackedValues = new LinkedHashMap<>();
+        if (!Files.exists(file)) {
+            return ackedValues;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("File is not a generator checkpoint of version " + VERSION + ".");
+            }
+            long id = in.readLong();
+            int keys = in.readInt();
+            for (int k = 0; k < keys; k++) {
+                String key = in.readBoolean() ? in.readUTF() : null;
+                ackedValues.put(key, in.readLong());
+            }
+            checkpointId = id;
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not restore checkpoint %s.", file), e);
+        }
+        return ackedValues;
+    }
+}
@@ -1,21 +1,28 @@
 package net.uweeisele.examples.kafka.sequence;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.MutuallyExclusiveGroup;
 import net.sourceforge.argparse4j.inf.Namespace;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.Serializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.apache.kafka.common.utils.Exit;
 
+import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.function.IntFunction;
 
 import static java.util.Optional.ofNullable;
+import static java.util.UUID.randomUUID;
 import static net.sourceforge.argparse4j.impl.Arguments.append;
 import static net.sourceforge.argparse4j.impl.Arguments.store;
 
@@ -29,26 +36,32 @@ public class GeneratorCommand {
         }
 
         try {
-            final Generator generator = createFromArgs(parser, args);
-            Runtime.getRuntime().addShutdownHook(new Thread(generator::close));
+            Namespace res = parser.parseArgs(args);
+            try (EventHandler eventHandler = EventArguments.createEventHandler(res)) {
+                final SequenceGenerator generator = createFromArgs(parser, res, eventHandler);
+                Runtime.getRuntime().addShutdownHook(EventArguments.shutdownHook(eventHandler, generator::close));
 
-            generator.run();
+                generator.run();
+            }
         } catch (ArgumentParserException e) {
             parser.handleError(e);
             Exit.exit(1);
         }
     }
 
-    private static Generator createFromArgs(ArgumentParser parser, String[] args) throws ArgumentParserException {
-        Namespace res = parser.parseArgs(args);
-
+    private static SequenceGenerator createFromArgs(ArgumentParser parser, Namespace res, EventHandler eventHandler) throws ArgumentParserException {
         String brokerList = res.getString("brokerList");
         String topic = res.getString("topic");
         String clientName = res.getString("clientName");
         int acks = res.getInt("acks");
         boolean sync = res.getBoolean("sync");
+        int shards = res.getInt("shards");
+        boolean dedicatedProducers = res.getBoolean("dedicatedProducers");
         Integer numKeys = res.getInt("numKeys");
         List<String> keys = res.getList("keys");
+        Long keySeed = res.getLong("keySeed");
+        int keySlice = res.getInt("keySlice");
+        int keySlices = res.getInt("keySlices");
         long maxMessagesPerKey = res.getLong("maxMessagesPerKey");
         int throughput = res.getInt("throughput");
         String createTime = res.getString("createTime");
@@ -57,27 +70,143 @@ public class GeneratorCommand {
             createTime = null;
         }
 
+        if (keySeed != null) {
+            if (numKeys == null || numKeys <= 0) {
+                throw new ArgumentParserException("--key-seed requires --num-keys > 0.", parser);
+            }
+            try {
+                keys = new KeySpace(keySeed, numKeys).slice(keySlice, keySlices);
+            } catch (IllegalArgumentException e) {
+                throw new ArgumentParserException(e.getMessage(), e, parser);
+            }
+            numKeys = null;
+        } else if (keySlice != 0 || keySlices != 1) {
+            throw new ArgumentParserException("--key-slice and --key-slices require --key-seed.", parser);
+        }
+
+        validateLoopEngineArgs(parser, res);
+
         Properties actualProducerProperties = new Properties();
         Optional.<Properties>ofNullable(res.get("producer.config")).ifPresent(actualProducerProperties::putAll);
 
         actualProducerProperties.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, brokerList);
         actualProducerProperties.setProperty(ProducerConfig.CLIENT_ID_CONFIG, clientName);
-        actualProducerProperties.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        actualProducerProperties.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
         actualProducerProperties.setProperty(ProducerConfig.ACKS_CONFIG, String.valueOf(acks));
 
-        Generator.Builder builder = new Generator.Builder(new KafkaProducer<>(actualProducerProperties), topic)
+        // All producers share the value serializer, so that the generator can read the size of every payload from it
+        PayloadSerializer payloadSerializer = res.get("payloadSize") != null ? new PayloadSerializer(res.<PayloadSize>get("payloadSize")) : null;
+        Serializer<Long> valueSerializer = payloadSerializer != null ? payloadSerializer : new SequenceSerializer();
+
+        if ("scheduled".equals(res.getString("engine"))) {
+            List<String> scheduledKeys = keys;
+            if (scheduledKeys == null) {
+                scheduledKeys = new ArrayList<>();
+                if (numKeys != null && numKeys <= 0) {
+                    scheduledKeys.add(null);
+                }
+                for (int k = 0; k < (numKeys != null ? numKeys : 1); k++) {
+                    scheduledKeys.add(randomUUID().toString());
+                }
+            }
+            return new ScheduledGenerator.Builder(producerFactory(actualProducerProperties, clientName, valueSerializer), topic)
+                    .withClientName(clientName)
+                    .withKeys(scheduledKeys)
+                    .withMaxMessagesPerKey(maxMessagesPerKey)
+                    .withThreads(shards)
+                    .withProducers(res.getInt("producers"))
+                    .withKeyRate(res.getDouble("keyRate"))
+                    .withJitter(res.getDouble("keyJitter"))
+                    .withKeyDistribution(res.get("keyDistribution"))
+                    .withRatePacer(throughput > 0 ? new RatePacer(throughput) : null)
+                    .withEventHandler(eventHandler)
+                    .build();
+        }
+
+        // Only the loop engine sends transactions
+        String transactionalId = res.getString("transactionalId");
+        if (transactionalId != null) {
+            actualProducerProperties.setProperty(ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionalId);
+        }
+
+        Generator.Builder builder = new Generator.Builder(new KafkaProducer<>(actualProducerProperties, new StringSerializer(), valueSerializer), topic)
                 .withClientName(clientName)
                 .withMaxMessagesPerKey(maxMessagesPerKey)
-                .withThroughput(new ThroughputThrottler(throughput))
+                .withThroughput(res.get("throughputProfile") != null ? new ThroughputThrottler(res.<RateProfile>get("throughputProfile")) : new ThroughputThrottler(throughput))
+                .withThroughputUnit(Generator.ThroughputUnit.valueOf(res.getString("throughputUnit").toUpperCase()))
+                .withPayloadSerializer(payloadSerializer)
+                .withOpenLoop(res.getBoolean("openLoop"))
+                .withMaxInFlight(res.getInt("maxInFlight"))
+                .withLatencyReportInterval(res.getLong("latencyReportInterval"))
+                .withKeyDistribution(res.get("keyDistribution"))
+                .withShards(shards)
                 .withCreateTime(createTime != null ? Instant.parse(createTime) : null)
-                .withSyncProduce(sync);
+                .withSyncProduce(sync)
+                .withEventHandler(eventHandler);
+        if (transactionalId != null) {
+            builder.withTransactions(res.getLong("transactionRecords"), res.getLong("transactionMs"))
+                    .withAbortFraction(res.getDouble("abortFraction"));
+        }
+        String checkpointFile = res.getString("checkpointFile");
+        if (checkpointFile != null) {
+            builder.withCheckpoint(new GeneratorCheckpoint(Paths.get(checkpointFile), res.getLong("checkpointInterval")));
+        }
+        if (dedicatedProducers) {
+            builder.withDedicatedProducers(producerFactory(actualProducerProperties, clientName, valueSerializer));
+        }
         ofNullable(numKeys).ifPresent(builder::withNumKeys);
         ofNullable(keys).ifPresent(builder::withKeys);
 
         return builder.build();
     }
 
+    // Every producer gets its own client id and transactional id
+    /**
+     * Rejects the combinations of arguments which the builder of the loop engine would reject, so that they are
+     * reported with the usage of the command.
+     */
+    static void validateLoopEngineArgs(ArgumentParser parser, Namespace res) throws ArgumentParserException {
+        if (!"loop".equals(res.getString("engine"))) {
+            return;
+        }
+        int shards = res.getInt("shards");
+        int throughput = res.getInt("throughput");
+        RateProfile throughputProfile = res.get("throughputProfile");
+        boolean openLoop = res.getBoolean("openLoop");
+
+        if (openLoop && (throughputProfile != null || throughput <= 0 || !"messages".equals(res.getString("throughputUnit")))) {
+            throw new ArgumentParserException("--open-loop requires a constant --throughput > 0 in messages/sec.", parser);
+        }
+        // The shards can only keep the skew of the keys if they are paced
+        if (res.get("keyDistribution") != null && shards > 1 && (openLoop || throughput < 0 && throughputProfile == null)) {
+            throw new ArgumentParserException("--key-distribution with --shards > 1 requires --throughput or --throughput-profile and no --open-loop.", parser);
+        }
+        if (res.getString("transactionalId") != null) {
+            if (shards > 1 && !res.getBoolean("dedicatedProducers")) {
+                throw new ArgumentParserException("--transactional-id with --shards > 1 requires --dedicated-producers.", parser);
+            }
+            if (res.getLong("transactionRecords") <= 0 && res.getLong("transactionMs") <= 0) {
+                throw new ArgumentParserException("--transactional-id requires --transaction-records > 0 or --transaction-ms > 0.", parser);
+            }
+        }
+        double abortFraction = res.getDouble("abortFraction");
+        if (abortFraction < 0 || abortFraction >= 1) {
+            throw new ArgumentParserException("--abort-fraction must be >= 0 and < 1.", parser);
+        }
+    }
+
+    private static IntFunction<Producer<String, Long>> producerFactory(Properties producerProperties, String clientName, Serializer<Long> valueSerializer) {
+        return index -> {
+            Properties properties = new Properties();
+            properties.putAll(producerProperties);
+            properties.setProperty(ProducerConfig.CLIENT_ID_CONFIG, clientName + "-" + index);
+            String transactionalId = producerProperties.getProperty(ProducerConfig.TRANSACTIONAL_ID_CONFIG);
+            if (transactionalId != null) {
+                properties.setProperty(ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionalId + "-" + index);
+            }
+            return new KafkaProducer<>(properties, new StringSerializer(), valueSerializer);
+        };
+    }
+
     /** Get the command-line argument parser. */
     private static ArgumentParser argParser() {
         ArgumentParser parser = ArgumentParsers
@@ -128,6 +257,33 @@ public class GeneratorCommand {
                 .dest("keys")
                 .help("Key which should be used for generated sequence. Argument can be specified multiple times.");
 
+        parser.addArgument("--key-seed")
+                .action(store())
+                .required(false)
+                .type(Long.class)
+                .metavar("SEED")
+                .dest("keySeed")
+                .help("Derive the keys of --num-keys from this seed instead of generating random keys, so that a verifier with the same --num-keys and --key-seed expects them without a key list.");
+
+        parser.addArgument("--key-slice")
+                .action(store())
+                .required(false)
+                .setDefault(0)
+                .type(Integer.class)
+                .metavar("SLICE")
+                .dest("keySlice")
+                .help("Index of the slice of the seeded keys which this generator produces, from 0 to --key-slices - 1.");
+
+        parser.addArgument("--key-slices")
+                .action(store())
+                .required(false)
+                .setDefault(1)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("SLICES")
+                .dest("keySlices")
+                .help("Split the seeded keys into this many disjoint slices, e.g. one per generator process. Default is 1, every generator produces all keys.");
+
         parser.addArgument("--max-messages-per-key")
                 .action(store())
                 .required(false)
@@ -145,6 +301,24 @@ public class GeneratorCommand {
                 .metavar("THROUGHPUT")
                 .help("If set >= 0, throttle maximum message throughput to *approximately* THROUGHPUT messages/sec.");
 
+        parser.addArgument("--throughput-profile")
+                .action(store())
+                .required(false)
+                .type(new RateProfileArgumentType())
+                .metavar("PROFILE")
+                .dest("throughputProfile")
+                .help("Target throughput which changes over time, replaces --throughput. One of constant:RATE, ramp:FROM:TO:DURATION-MS, step:START:INCREMENT:INTERVAL-MS[:STEPS], burst:BASE:PEAK:PERIOD-MS:BURST-MS or sine:MEAN:AMPLITUDE:PERIOD-MS. The target and the achieved rate of every step are reported.");
+
+        parser.addArgument("--throughput-unit")
+                .action(store())
+                .required(false)
+                .setDefault("messages")
+                .type(String.class)
+                .choices("messages", "bytes")
+                .metavar("UNIT")
+                .dest("throughputUnit")
+                .help("Whether --throughput and --throughput-profile are in messages/sec or in bytes/sec of key and value, including the filler of --payload-size.");
+
         parser.addArgument("--acks")
                 .action(store())
                 .required(false)
@@ -154,6 +328,152 @@ public class GeneratorCommand {
                 .metavar("ACKS")
                 .help("Acks required on each produced message. See Kafka docs on acks for details.");
 
+        parser.addArgument("--shards")
+                .action(store())
+                .required(false)
+                .setDefault(1)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("SHARDS")
+                .dest("shards")
+                .help("Number of threads which send the messages. Every key is sent by exactly one thread, so the order per key is preserved. All threads together send at the target throughput.");
+
+        parser.addArgument("--dedicated-producers")
+                .action(store())
+                .required(false)
+                .setDefault(false)
+                .type(Boolean.class)
+                .metavar("DEDICATED-PRODUCERS")
+                .dest("dedicatedProducers")
+                .help("Use one producer per shard instead of one producer which is shared by all shards.");
+
+        parser.addArgument("--engine")
+                .action(store())
+                .required(false)
+                .setDefault("loop")
+                .type(String.class)
+                .choices("loop", "scheduled")
+                .metavar("ENGINE")
+                .dest("engine")
+                .help("How the messages are sent. 'loop' sends one message per key in turn, throttled by --throughput. 'scheduled' advances every key independently at --key-rate with --key-jitter, using --shards scheduler threads and a pool of --producers producers. With 'scheduled', --throughput limits the aggregate rate of all keys, --throughput-profile, --throughput-unit, --dedicated-producers, --sync, --message-create-time, --max-in-flight and the transaction options are ignored.");
+
+        parser.addArgument("--producers")
+                .action(store())
+                .required(false)
+                .setDefault(1)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("PRODUCERS")
+                .dest("producers")
+                .help("Number of producers which are shared by the keys of the scheduled engine.");
+
+        parser.addArgument("--key-rate")
+                .action(store())
+                .required(false)
+                .setDefault(-1.0)
+                .type(Double.class)
+                .metavar("KEY-RATE")
+                .dest("keyRate")
+                .help("Messages/sec of every key with the scheduled engine. If <= 0, every key is sent as fast as possible.");
+
+        parser.addArgument("--key-jitter")
+                .action(store())
+                .required(false)
+                .setDefault(0.0)
+                .type(Double.class)
+                .metavar("KEY-JITTER")
+                .dest("keyJitter")
+                .help("Fraction between 0 and 1 by which the time between two messages of a key varies randomly with the scheduled engine.");
+
+        parser.addArgument("--key-distribution")
+                .action(store())
+                .required(false)
+                .type(new KeyDistributionArgumentType())
+                .metavar("DISTRIBUTION")
+                .dest("keyDistribution")
+                .help("Share of the traffic of every key by its rank: uniform, zipf:EXPONENT or hotspot:TRAFFIC-PERCENT:KEYS-PERCENT. The loop engine draws the next key from the distribution instead of sending the keys in turn, the sequence of every key stays contiguous. With --shards, the keys are dealt to the shards by rank and every shard sends at the share of its keys, which requires --throughput or --throughput-profile and no --open-loop. The scheduled engine scales --key-rate of every key, keeping the aggregate rate. By default the keys are sent in turn.");
+
+        parser.addArgument("--open-loop")
+                .action(store())
+                .required(false)
+                .setDefault(false)
+                .type(Boolean.class)
+                .metavar("OPEN-LOOP")
+                .dest("openLoop")
+                .help("Send every record at its intended time of the constant --throughput, even if the broker has held up previous sends, and report the ack latency from the intended send time (corrected for coordinated omission) as well as from the call of send.");
+
+        parser.addArgument("--max-in-flight")
+                .action(store())
+                .required(false)
+                .setDefault(-1)
+                .type(Integer.class)
+                .metavar("MAX-IN-FLIGHT")
+                .dest("maxInFlight")
+                .help("Maximum number of records which have been sent but not acknowledged yet. Sending blocks while the window is full, and the time blocked is reported. The default of -1 leaves only the producer buffer (buffer.memory and max.block.ms) as the limit. Ignored by the scheduled engine.");
+
+        parser.addArgument("--latency-report-interval")
+                .action(store())
+                .required(false)
+                .setDefault(10000L)
+                .type(Long.class)
+                .choices(Arguments.range(0L, Long.MAX_VALUE))
+                .metavar("INTERVAL_MS")
+                .dest("latencyReportInterval")
+                .help("Set the interval in milliseconds in which the ack latencies are reported per partition. The latency is measured from the call of send to the acknowledgement. Default is 10 seconds, 0 only reports them in the final stats. Ignored by the scheduled engine.");
+
+        parser.addArgument("--checkpoint-file")
+                .action(store())
+                .required(false)
+                .type(String.class)
+                .metavar("CHECKPOINT-FILE")
+                .dest("checkpointFile")
+                .help("Periodically write the keys and the highest acknowledged value of every key to this file. If the file exists on startup, the keys of the checkpoint are used instead of --num-keys or --key, and every key continues after its acknowledged value. Records which were in flight are sent again. --max-messages-per-key still counts from the start of the sequences. Ignored by the scheduled engine.");
+
+        parser.addArgument("--checkpoint-interval")
+                .action(store())
+                .required(false)
+                .setDefault(10000L)
+                .type(Long.class)
+                .choices(Arguments.range(1L, Long.MAX_VALUE))
+                .metavar("INTERVAL_MS")
+                .dest("checkpointInterval")
+                .help("Set the interval in milliseconds in which checkpoints are written. Default is 10 seconds.");
+
+        parser.addArgument("--transactional-id")
+                .action(store())
+                .required(false)
+                .type(String.class)
+                .metavar("TRANSACTIONAL-ID")
+                .dest("transactionalId")
+                .help("Send the records in transactions with this transactional id. Dedicated producers append their index to the id. Ignored by the scheduled engine.");
+
+        parser.addArgument("--transaction-records")
+                .action(store())
+                .required(false)
+                .setDefault(100L)
+                .type(Long.class)
+                .metavar("TRANSACTION-RECORDS")
+                .dest("transactionRecords")
+                .help("Maximum number of records per transaction, a value <= 0 means no limit.");
+
+        parser.addArgument("--transaction-ms")
+                .action(store())
+                .required(false)
+                .setDefault(-1L)
+                .type(Long.class)
+                .metavar("TRANSACTION-MS")
+                .dest("transactionMs")
+                .help("Maximum duration of a transaction in milliseconds, checked at every send. A value <= 0 means no limit.");
+
+        parser.addArgument("--abort-fraction")
+                .action(store())
+                .required(false)
+                .setDefault(0.0)
+                .type(Double.class)
+                .metavar("ABORT-FRACTION")
+                .dest("abortFraction")
+                .help("Fraction between 0 and 1 of the transactions which are aborted at random. The records of an aborted transaction are sent again, so a read_committed verifier sees every sequence without gaps or duplicates.");
+
         parser.addArgument("--sync")
                 .action(store())
                 .required(false)
@@ -162,6 +482,14 @@ public class GeneratorCommand {
                 .metavar("SYNC")
                 .help("Synchronously produce records.");
 
+        parser.addArgument("--payload-size")
+                .action(store())
+                .required(false)
+                .type(new PayloadSizeArgumentType())
+                .metavar("PAYLOAD-SIZE")
+                .dest("payloadSize")
+                .help("Size of the record values in bytes, one of fixed:SIZE, uniform:MIN:MAX or histogram:FILE with one line SIZE WEIGHT per size. A uniform range is drawn from at most 64 evenly spaced sizes. The value starts with the sequence number, followed by a space and filler bytes. If not set, the value is just the sequence number.");
+
         parser.addArgument("--producer.config")
                 .action(store())
                 .required(false)
@@ -178,6 +506,8 @@ public class GeneratorCommand {
                 .dest("createTime")
                 .help("Send messages with creation time starting at the arguments value, represented as ISO Instant string such as  2019-07-26T10:15:30.00Z.");
 
+        EventArguments.addArguments(parser, "Default is 0, which still writes the events on a separate thread, but lets up to 65536 events wait and blocks the producer threads when they are full, regardless of --event-overflow.");
+
         return parser;
     }
 
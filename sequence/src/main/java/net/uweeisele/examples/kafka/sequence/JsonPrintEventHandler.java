@@ -14,7 +14,7 @@ import java.io.PrintStream;
 
 public class JsonPrintEventHandler implements EventHandler {
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectMapper mapper = newObjectMapper();
 
     private final PrintStream out;
 
@@ -24,7 +24,6 @@ public class JsonPrintEventHandler implements EventHandler {
 
     public JsonPrintEventHandler(PrintStream out) {
         this.out = out;
-        addKafkaSerializerModule();
     }
 
     @Override
@@ -36,7 +35,16 @@ public class JsonPrintEventHandler implements EventHandler {
         }
     }
 
-    private void addKafkaSerializerModule() {
+    @Override
+    public void flush() {
+        out.flush();
+    }
+
+    /**
+     * @return a mapper which writes the events in the same way as this handler
+     */
+    public static ObjectMapper newObjectMapper() {
+        ObjectMapper mapper = new ObjectMapper();
         SimpleModule kafka = new SimpleModule();
         kafka.addSerializer(TopicPartition.class, new JsonSerializer<TopicPartition>() {
             @Override
@@ -48,5 +56,6 @@ public class JsonPrintEventHandler implements EventHandler {
             }
         });
         mapper.registerModule(kafka);
+        return mapper;
     }
 }
@@ -0,0 +1,105 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import java.util.Arrays;
+
+import static java.lang.String.format;
+
+/**
+ * Share of the traffic of every key, by the rank of the key in the order in which the keys are given.
+ */
+public abstract class KeyDistribution {
+
+    /**
+     * @return the weight of every key, the weights don't need to sum up to 1
+     */
+    public abstract double[] weights(int numKeys);
+
+    public static KeyDistribution uniform() {
+        return new KeyDistribution() {
+            @Override
+            public double[] weights(int numKeys) {
+                double[] weights = new double[numKeys];
+                Arrays.fill(weights, 1);
+                return weights;
+            }
+        };
+    }
+
+    /**
+     * The key of rank {@code r} (starting at 1) gets the weight {@code 1 / r^exponent}.
+     */
+    public static KeyDistribution zipf(double exponent) {
+        if (exponent < 0 || Double.isNaN(exponent)) {
+            throw new IllegalArgumentException("The exponent of zipf must be >= 0.");
+        }
+        return new KeyDistribution() {
+            @Override
+            public double[] weights(int numKeys) {
+                double[] weights = new double[numKeys];
+                for (int i = 0; i < numKeys; i++) {
+                    weights[i] = 1 / Math.pow(i + 1, exponent);
+                }
+                return weights;
+            }
+        };
+    }
+
+    /**
+     * {@code trafficPercent} of the traffic goes to the first {@code keysPercent} of the keys, at least one key.
+     */
+    public static KeyDistribution hotspot(double trafficPercent, double keysPercent) {
+        if (trafficPercent < 0 || trafficPercent > 100 || keysPercent <= 0 || keysPercent > 100) {
+            throw new IllegalArgumentException("The traffic must be between 0 and 100 percent, the keys between 0 (exclusive) and 100 percent.");
+        }
+        return new KeyDistribution() {
+            @Override
+            public double[] weights(int numKeys) {
+                int hot = Math.max(1, Math.min(numKeys, (int) Math.ceil(numKeys * keysPercent / 100)));
+                int cold = numKeys - hot;
+                double[] weights = new double[numKeys];
+                for (int i = 0; i < numKeys; i++) {
+                    if (i < hot) {
+                        weights[i] = (cold == 0 ? 100 : trafficPercent) / hot;
+                    } else {
+                        weights[i] = (100 - trafficPercent) / cold;
+                    }
+                }
+                return weights;
+            }
+        };
+    }
+
+    /**
+     * Parses a distribution of the form {@code uniform}, {@code zipf:EXPONENT} or
+     * {@code hotspot:TRAFFIC-PERCENT:KEYS-PERCENT}.
+     *
+     * @throws IllegalArgumentException if the distribution is invalid
+     */
+    public static KeyDistribution parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        try {
+            switch (parts[0]) {
+                case "uniform":
+                    if (parts.length == 1) {
+                        return uniform();
+                    }
+                    break;
+                case "zipf":
+                    if (parts.length == 2) {
+                        return zipf(Double.parseDouble(parts[1]));
+                    }
+                    break;
+                case "hotspot":
+                    if (parts.length == 3) {
+                        return hotspot(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(format("Unknown key distribution %s.", parts[0]));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(format("Key distribution %s contains an invalid number.", spec), e);
+        }
+        throw new IllegalArgumentException(format("Invalid key distribution %s.", spec));
+    }
+}
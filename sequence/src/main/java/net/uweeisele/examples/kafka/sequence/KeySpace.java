@@ -0,0 +1,65 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keys which are derived from a seed, so that generators and verifiers which are started with the same seed and
+ * number of keys agree on the keys without exchanging them.
+ *
+ * The keys can be split into contiguous slices, so that several generators each send a disjoint part of the keys
+ * while a single verifier expects all of them.
+ */
+public class KeySpace {
+
+    private final long seed;
+
+    private final int numKeys;
+
+    public KeySpace(long seed, int numKeys) {
+        if (numKeys <= 0) {
+            throw new IllegalArgumentException("numKeys must be > 0");
+        }
+        this.seed = seed;
+        this.numKeys = numKeys;
+    }
+
+    public int numKeys() {
+        return numKeys;
+    }
+
+    /**
+     * @return the key with the given index, a name-based UUID of the seed and the index which is the same on every JVM
+     */
+    public String key(int index) {
+        return UUID.nameUUIDFromBytes((seed + "/" + index).getBytes(UTF_8)).toString();
+    }
+
+    public List<String> keys() {
+        return slice(0, 1);
+    }
+
+    /**
+     * @return the keys of the slice with the given index if the keys are split into {@code slices} slices, whose
+     *         sizes differ by at most one
+     */
+    public List<String> slice(int slice, int slices) {
+        if (slices < 1 || slices > numKeys) {
+            throw new IllegalArgumentException(format("The %d keys can't be split into %d slices.", numKeys, slices));
+        }
+        if (slice < 0 || slice >= slices) {
+            throw new IllegalArgumentException(format("The slice must be >= 0 and < %d.", slices));
+        }
+        int from = (int) ((long) numKeys * slice / slices);
+        int to = (int) ((long) numKeys * (slice + 1) / slices);
+        List<String> keys = new ArrayList<>(to - from);
+        for (int index = from; index < to; index++) {
+            keys.add(key(index));
+        }
+        return keys;
+    }
+}
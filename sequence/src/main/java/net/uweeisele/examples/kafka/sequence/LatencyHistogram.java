@@ -0,0 +1,100 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non-negative values with a bounded relative error, in the style of HdrHistogram.
+ *
+ * Values below 2 * {@value #SUB_BUCKETS} are counted exactly. Larger values are counted in buckets of
+ * {@value #SUB_BUCKETS} linear sub-buckets per power of two, so the relative error is below 1%.
+ * Recording a value is a constant time array increment without allocation.
+ *
+ * Instances are not thread-safe.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Values up to 2^40 - 1, larger values are counted in the last bucket
+    private static final int MAX_VALUE_BITS = 40;
+    private static final long MAX_TRACKABLE_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    private final long[] counts = new long[indexOf(MAX_TRACKABLE_VALUE) + 1];
+
+    private long count = 0;
+    private long max = 0;
+
+    public void record(long value) {
+        long v = value < 0 ? 0 : value;
+        counts[indexOf(Math.min(v, MAX_TRACKABLE_VALUE))]++;
+        count++;
+        if (v > max) {
+            max = v;
+        }
+    }
+
+    public void add(LatencyHistogram other) {
+        if (other.count == 0) {
+            return;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        if (count > 0) {
+            Arrays.fill(counts, 0);
+        }
+        count = 0;
+        max = 0;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value which is equivalent to the value at the given percentile, or 0 if the
+     *         histogram is empty
+     */
+    public long valueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    private static long highestEquivalentValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,114 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded, lock-free ring buffer for any number of producer threads and exactly one consumer thread.
+ *
+ * Producers claim a slot by advancing the tail with a CAS. Every slot has a sequence number, which tells
+ * the consumer that the element of a claimed slot has been published and tells the producers that a slot
+ * has been consumed. The capacity is rounded up to the next power of two.
+ */
+public class MpscRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    // Only written by the consumer
+    private volatile long head = 0;
+
+    public MpscRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    public boolean offer(E element) {
+        while (true) {
+            long t = tail.get();
+            int index = (int) (t & mask);
+            long sequence = sequences.get(index);
+            if (sequence == t) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    buffer.lazySet(index, element);
+                    sequences.lazySet(index, t + 1);
+                    return true;
+                }
+            } else if (sequence < t) {
+                // The slot has not been consumed since the previous round
+                return false;
+            }
+            // Another producer has claimed the slot, retry with the new tail
+        }
+    }
+
+    /**
+     * Must only be called by the consumer thread.
+     *
+     * @return the oldest element, or null if the buffer is empty or the oldest element is not published yet
+     */
+    public E poll() {
+        long h = head;
+        int index = (int) (h & mask);
+        if (sequences.get(index) != h + 1) {
+            return null;
+        }
+        E element = buffer.get(index);
+        buffer.lazySet(index, null);
+        sequences.lazySet(index, h + buffer.length());
+        head = h + 1;
+        return element;
+    }
+
+    /**
+     * Must only be called by the consumer thread.
+     *
+     * @return the number of elements passed to the action
+     */
+    public int drain(Consumer<? super E> action, int limit) {
+        int drained = 0;
+        E element;
+        while (drained < limit && (element = poll()) != null) {
+            action.accept(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * @return the number of slots which have been claimed by producers so far
+     */
+    public long producerPosition() {
+        return tail.get();
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    public int capacity() {
+        return buffer.length();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,58 @@
+package net.uweeisele.examples.kafka.sequence;
+
+/**
+ * Format of the record values. A value is the decimal sequence number, optionally followed by
+ * {@link #SEPARATOR} and filler bytes which pad the value to its payload size (see {@link PayloadSerializer}).
+ */
+public final class Payload {
+
+    public static final char SEPARATOR = ' ';
+
+    private Payload() {
+    }
+
+    /**
+     * Parses the serialized value without decoding it.
+     *
+     * @return the sequence number at the start of the value, or -1 if the value doesn't start with a
+     *         non-negative decimal number which is followed by the end of the value or {@link #SEPARATOR}
+     */
+    public static long sequenceOf(byte[] value) {
+        if (value == null || value.length == 0 || value[0] == SEPARATOR) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = 0; i < value.length && value[i] != SEPARATOR; i++) {
+            int digit = value[i] - '0';
+            if (digit < 0 || digit > 9 || number > (Long.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            number = number * 10 + digit;
+        }
+        return number;
+    }
+
+    /**
+     * @return the number of bytes of the serialized sequence number, which must be >= 0
+     */
+    static int sequenceLength(long number) {
+        int length = 1;
+        while (number >= 10) {
+            number /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the sequence number, which must be >= 0, as ASCII digits to the start of the buffer.
+     *
+     * @param length the length of the number as returned by {@link #sequenceLength(long)}
+     */
+    static void writeSequence(long number, byte[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            buffer[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+    }
+}
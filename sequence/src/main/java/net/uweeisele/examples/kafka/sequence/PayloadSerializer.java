@@ -0,0 +1,114 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Serializes the sequence number of the generator into a value of the size which is drawn from the configured
+ * {@link PayloadSize}: the number, {@link Payload#SEPARATOR} and filler bytes up to the size. A value which is
+ * shorter than the number is sent without filler.
+ *
+ * The values are written into buffers which are reused by the thread for later values of the same size. There is a
+ * buffer per size which {@link PayloadSize} can draw, so once every size has been drawn the generator allocates
+ * nothing per record for the payload. This relies on the producer copying the value into its
+ * batch before {@code send} returns, which {@code KafkaProducer} does. The serializer must not be used where the
+ * serialized value is kept.
+ */
+public class PayloadSerializer implements Serializer<Long> {
+
+    /**
+     * {@link PayloadSize} or its spec as accepted by {@link PayloadSize#parse(String)}.
+     */
+    public static final String PAYLOAD_SIZE_CONFIG = "payload.size";
+
+    // Longest number and separator, the filler behind it is restored whenever a buffer is reused
+    private static final int MAX_PREFIX = 20;
+
+    private PayloadSize payloadSize;
+
+    private byte[] filler;
+
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    // Values without filler
+    private final SequenceSerializer sequenceSerializer = new SequenceSerializer();
+
+    public PayloadSerializer() {
+    }
+
+    public PayloadSerializer(PayloadSize payloadSize) {
+        init(payloadSize);
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        Object payloadSize = configs.get(PAYLOAD_SIZE_CONFIG);
+        if (payloadSize instanceof PayloadSize) {
+            init((PayloadSize) payloadSize);
+        } else if (payloadSize != null) {
+            init(PayloadSize.parse(payloadSize.toString()));
+        } else if (this.payloadSize == null) {
+            throw new IllegalArgumentException(PAYLOAD_SIZE_CONFIG + " must be configured.");
+        }
+    }
+
+    private void init(PayloadSize payloadSize) {
+        this.payloadSize = payloadSize;
+        // Printable, pseudo random filler, so that the payload compresses like text and not like zeros
+        Random random = new Random(0);
+        this.filler = new byte[payloadSize.max()];
+        for (int i = 0; i < filler.length; i++) {
+            filler[i] = (byte) ('a' + random.nextInt(26));
+        }
+    }
+
+    @Override
+    public byte[] serialize(String topic, Long data) {
+        if (data == null) {
+            return null;
+        }
+        long number = data;
+        Buffers buffers = this.buffers.get();
+        int index = payloadSize.nextIndex();
+        int size = payloadSize.size(index);
+        int length = number >= 0 ? Payload.sequenceLength(number) : MAX_PREFIX;
+        if (size <= length + 1 || length > MAX_PREFIX - 1) {
+            byte[] value = sequenceSerializer.serialize(topic, data);
+            buffers.lastSize = value.length;
+            return value;
+        }
+
+        if (buffers.bySize == null) {
+            buffers.bySize = new byte[payloadSize.sizes()][];
+        }
+        byte[] buffer = buffers.bySize[index];
+        if (buffer == null) {
+            buffer = Arrays.copyOf(filler, size);
+            buffers.bySize[index] = buffer;
+        } else {
+            System.arraycopy(filler, 0, buffer, 0, Math.min(MAX_PREFIX, size));
+        }
+        Payload.writeSequence(number, buffer, length);
+        buffer[length] = (byte) Payload.SEPARATOR;
+        buffers.lastSize = size;
+        return buffer;
+    }
+
+    /**
+     * @return the size of the last value which has been serialized by the calling thread, or 0 if there is none
+     */
+    public int lastSize() {
+        return buffers.get().lastSize;
+    }
+
+    private static class Buffers {
+
+        // Indexed like the sizes of the payload size, allocated on first use
+        private byte[][] bySize;
+
+        private int lastSize;
+    }
+}
@@ -0,0 +1,194 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.lang.String.format;
+
+/**
+ * Distribution of the sizes of the record values in bytes.
+ *
+ * The sizes are drawn from a bounded set, so that a serializer can keep a buffer per size. A uniform distribution
+ * over more than {@value #MAX_UNIFORM_SIZES} sizes is drawn from that many evenly spaced sizes between min and max.
+ */
+public abstract class PayloadSize {
+
+    public static final int MAX_UNIFORM_SIZES = 64;
+
+    /**
+     * @return the size of the next value, drawn without allocation
+     */
+    public int next() {
+        return size(nextIndex());
+    }
+
+    /**
+     * @return the index of the size of the next value, drawn without allocation
+     */
+    public abstract int nextIndex();
+
+    /**
+     * @param index the index of a size, which is >= 0 and < {@link #sizes()}
+     */
+    public abstract int size(int index);
+
+    /**
+     * @return the number of sizes which can be drawn
+     */
+    public abstract int sizes();
+
+    /**
+     * @return the largest size which can be drawn
+     */
+    public abstract int max();
+
+    public static PayloadSize fixed(int size) {
+        return uniform(size, size);
+    }
+
+    public static PayloadSize uniform(int min, int max) {
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("Payload sizes must be >= 0 and min must not exceed max.");
+        }
+        return new Uniform(min, max);
+    }
+
+    /**
+     * Reads a histogram with one line {@code SIZE WEIGHT} per size, lines starting with # are ignored.
+     */
+    public static PayloadSize histogram(String file) {
+        List<int[]> sizes = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("[\\s,]+");
+                if (fields.length != 2) {
+                    throw new IllegalArgumentException(format("Invalid line '%s' in payload size histogram %s, expected SIZE WEIGHT.", line, file));
+                }
+                sizes.add(new int[] { Integer.parseInt(fields[0]), Integer.parseInt(fields[1]) });
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Payload size histogram %s could not be read.", file), e);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(format("Payload size histogram %s contains an invalid number.", file), e);
+        }
+        return new Histogram(sizes);
+    }
+
+    /**
+     * Parses a distribution of the form {@code fixed:SIZE}, {@code uniform:MIN:MAX} or {@code histogram:FILE}.
+     *
+     * @throws IllegalArgumentException if the distribution is invalid
+     */
+    public static PayloadSize parse(String spec) {
+        String[] parts = spec.trim().split(":", 2);
+        try {
+            switch (parts[0]) {
+                case "fixed":
+                    return fixed(Integer.parseInt(parts[1]));
+                case "uniform":
+                    String[] range = parts[1].split(":");
+                    if (range.length != 2) {
+                        throw new IllegalArgumentException("Payload size uniform expects MIN:MAX.");
+                    }
+                    return uniform(Integer.parseInt(range[0]), Integer.parseInt(range[1]));
+                case "histogram":
+                    return histogram(parts[1]);
+                default:
+                    throw new IllegalArgumentException(format("Unknown payload size %s.", parts[0]));
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException(format("Invalid payload size %s.", spec), e);
+        } catch (UncheckedIOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    private static class Uniform extends PayloadSize {
+
+        private final int min;
+        private final int max;
+        private final int sizes;
+
+        Uniform(int min, int max) {
+            this.min = min;
+            this.max = max;
+            this.sizes = (int) Math.min((long) max - min + 1, MAX_UNIFORM_SIZES);
+        }
+
+        @Override
+        public int nextIndex() {
+            return sizes == 1 ? 0 : ThreadLocalRandom.current().nextInt(sizes);
+        }
+
+        @Override
+        public int size(int index) {
+            return sizes == 1 ? min : min + (int) ((long) (max - min) * index / (sizes - 1));
+        }
+
+        @Override
+        public int sizes() {
+            return sizes;
+        }
+
+        @Override
+        public int max() {
+            return max;
+        }
+    }
+
+    private static class Histogram extends PayloadSize {
+
+        private final int[] sizes;
+
+        private final AliasTable table;
+
+        Histogram(List<int[]> entries) {
+            if (entries.isEmpty()) {
+                throw new IllegalArgumentException("Payload size histogram is empty.");
+            }
+            sizes = new int[entries.size()];
+            double[] weights = new double[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                int[] entry = entries.get(i);
+                if (entry[0] < 0 || entry[1] < 0) {
+                    throw new IllegalArgumentException("Sizes and weights of the payload size histogram must be >= 0.");
+                }
+                sizes[i] = entry[0];
+                weights[i] = entry[1];
+            }
+            table = new AliasTable(weights);
+        }
+
+        @Override
+        public int nextIndex() {
+            return table.next();
+        }
+
+        @Override
+        public int size(int index) {
+            return sizes[index];
+        }
+
+        @Override
+        public int sizes() {
+            return sizes.length;
+        }
+
+        @Override
+        public int max() {
+            return Arrays.stream(sizes).max().getAsInt();
+        }
+    }
+}
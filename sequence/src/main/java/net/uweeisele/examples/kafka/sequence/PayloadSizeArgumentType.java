@@ -0,0 +1,18 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import net.sourceforge.argparse4j.inf.Argument;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.ArgumentType;
+
+public class PayloadSizeArgumentType implements ArgumentType<PayloadSize> {
+
+    @Override
+    public PayloadSize convert(ArgumentParser parser, Argument arg, String value) throws ArgumentParserException {
+        try {
+            return PayloadSize.parse(value);
+        } catch (IllegalArgumentException e) {
+            throw new ArgumentParserException(e.getMessage(), e, parser, arg);
+        }
+    }
+}
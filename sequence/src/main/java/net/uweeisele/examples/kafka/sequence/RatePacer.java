@@ -0,0 +1,100 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token bucket which paces any number of threads to one aggregate rate without locking.
+ *
+ * A caller reserves its permits by advancing the time of the next free permit with a single CAS, then parks
+ * until its reservation is due. The rate therefore only depends on the reservations and not on how precisely
+ * the threads wake up: a thread which wakes up late finds the next reservation already due. Permits which are
+ * not used are saved up to a burst of {@code maxBurstNs}, so that late wake-ups don't lower the rate.
+ *
+ * Times are kept in fixed point with {@link #FRACTION_BITS} fractional bits of a nanosecond, so that rates whose
+ * interval is not a whole number of nanoseconds don't drift.
+ */
+public class RatePacer {
+
+    private static final int FRACTION_BITS = 8;
+
+    private static final long NS_PER_SEC = 1_000_000_000L;
+
+    private static final long DEFAULT_MAX_BURST_NS = 10_000_000L;
+
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private final double permitsPerSec;
+
+    // Fixed point nanoseconds per permit and of the burst
+    private final long permitCost;
+    private final long maxBurst;
+
+    private final long originNs = System.nanoTime();
+
+    // Fixed point nanoseconds since originNs at which the next permit is free, the schedule starts with the first reservation
+    private final AtomicLong nextPermit = new AtomicLong(NOT_STARTED);
+
+    public RatePacer(double permitsPerSec) {
+        this(permitsPerSec, DEFAULT_MAX_BURST_NS);
+    }
+
+    public RatePacer(double permitsPerSec, long maxBurstNs) {
+        if (!(permitsPerSec > 0) || Double.isInfinite(permitsPerSec)) {
+            throw new IllegalArgumentException("permitsPerSec must be > 0");
+        }
+        if (maxBurstNs < 0) {
+            throw new IllegalArgumentException("maxBurstNs must be >= 0");
+        }
+        this.permitsPerSec = permitsPerSec;
+        this.permitCost = Math.max(1, Math.round((NS_PER_SEC << FRACTION_BITS) / permitsPerSec));
+        this.maxBurst = maxBurstNs > (Long.MAX_VALUE >> FRACTION_BITS) ? Long.MAX_VALUE : maxBurstNs << FRACTION_BITS;
+    }
+
+    /**
+     * Pacer which never skips a permit, however far the callers fall behind. The reservations follow a fixed
+     * schedule of one permit every {@code 1 / permitsPerSec} seconds from the first reservation, which makes
+     * them the intended times of an open-loop load.
+     */
+    public static RatePacer unbounded(double permitsPerSec) {
+        return new RatePacer(permitsPerSec, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reserves the permits without blocking.
+     *
+     * @return the {@link System#nanoTime()} at which the permits may be used
+     */
+    public long reserve(long permits) {
+        long cost = permits * permitCost;
+        while (true) {
+            long now = (System.nanoTime() - originNs) << FRACTION_BITS;
+            long next = nextPermit.get();
+            long start = next == NOT_STARTED ? now : Math.max(next, now - maxBurst);
+            if (nextPermit.compareAndSet(next, start + cost)) {
+                return originNs + (start >> FRACTION_BITS);
+            }
+        }
+    }
+
+    /**
+     * Blocks until the permits may be used, or the thread is interrupted.
+     */
+    public void acquire(long permits) {
+        awaitNanoTime(reserve(permits));
+    }
+
+    public double getPermitsPerSec() {
+        return permitsPerSec;
+    }
+
+    /**
+     * Parks the thread until {@link System#nanoTime()} has reached the deadline, or the thread is interrupted.
+     */
+    public static void awaitNanoTime(long deadlineNs) {
+        long remainingNs;
+        while ((remainingNs = deadlineNs - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(remainingNs);
+        }
+    }
+}
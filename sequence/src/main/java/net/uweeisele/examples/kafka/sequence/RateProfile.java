@@ -0,0 +1,352 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import static java.lang.String.format;
+
+/**
+ * Target rate of a {@link ThroughputThrottler} over the time since the throttler has started. The rate is in
+ * messages/sec or bytes/sec, depending on what the throttler counts.
+ *
+ * A profile is divided into steps, for which the throttler reports the target and the achieved rate.
+ */
+public abstract class RateProfile {
+
+    static final long NS_PER_MS = 1_000_000L;
+    static final long NS_PER_SEC = 1000 * NS_PER_MS;
+
+    // Step of the profiles which change continuously
+    private static final long DEFAULT_STEP_NS = NS_PER_SEC;
+
+    /**
+     * @return the target rate at the given time, {@link Double#POSITIVE_INFINITY} if the rate is not limited
+     */
+    public abstract double rateAt(long elapsedNs);
+
+    /**
+     * @return the amount which should have been sent until the given time, which is the integral of
+     *         {@link #rateAt(long)}
+     */
+    public abstract double amountUntil(long elapsedNs);
+
+    /**
+     * @return this profile with all rates multiplied by the factor
+     */
+    public abstract RateProfile scaled(double factor);
+
+    /**
+     * @return the index of the step which contains the given time
+     */
+    public long stepAt(long elapsedNs) {
+        return elapsedNs / DEFAULT_STEP_NS;
+    }
+
+    /**
+     * @return the time at which the step starts
+     */
+    public long stepStart(long step) {
+        return step * DEFAULT_STEP_NS;
+    }
+
+    /**
+     * @return true if the rate never changes, in which case no steps are reported
+     */
+    public boolean isConstant() {
+        return false;
+    }
+
+    /**
+     * A negative rate means no throttling.
+     */
+    public static RateProfile constant(double rate) {
+        return new Constant(rate < 0 ? Double.POSITIVE_INFINITY : rate);
+    }
+
+    /**
+     * Linear change of the rate from {@code from} to {@code to} within {@code durationMs}, then {@code to}.
+     */
+    public static RateProfile ramp(double from, double to, long durationMs) {
+        return new Ramp(requireNonNegative(from), requireNonNegative(to), requirePositive(durationMs) * NS_PER_MS);
+    }
+
+    /**
+     * Starts at {@code start} and increases the rate by {@code increment} every {@code intervalMs}, at most
+     * {@code steps} times if {@code steps} is >= 0.
+     */
+    public static RateProfile step(double start, double increment, long intervalMs, long steps) {
+        if (start + increment * Math.max(0, steps < 0 ? Long.MAX_VALUE : steps) < 0) {
+            throw new IllegalArgumentException("The rate of the last step must be >= 0.");
+        }
+        return new Step(requireNonNegative(start), increment, requirePositive(intervalMs) * NS_PER_MS, steps < 0 ? Long.MAX_VALUE : steps);
+    }
+
+    /**
+     * Sends at {@code peak} for the first {@code burstMs} of every {@code periodMs} and at {@code base} for the rest.
+     */
+    public static RateProfile burst(double base, double peak, long periodMs, long burstMs) {
+        if (burstMs <= 0 || burstMs >= periodMs) {
+            throw new IllegalArgumentException("The burst must be > 0 and shorter than the period.");
+        }
+        return new Burst(requireNonNegative(base), requireNonNegative(peak), periodMs * NS_PER_MS, burstMs * NS_PER_MS);
+    }
+
+    /**
+     * Rate of {@code mean + amplitude * sin(2 * pi * t / period)}.
+     */
+    public static RateProfile sine(double mean, double amplitude, long periodMs) {
+        if (amplitude < 0 || amplitude > mean) {
+            throw new IllegalArgumentException("The amplitude must be between 0 and the mean rate.");
+        }
+        return new Sine(mean, amplitude, requirePositive(periodMs) * NS_PER_MS);
+    }
+
+    /**
+     * Parses a profile of the form
+     * <ul>
+     *     <li>{@code constant:RATE}</li>
+     *     <li>{@code ramp:FROM:TO:DURATION-MS}</li>
+     *     <li>{@code step:START:INCREMENT:INTERVAL-MS[:STEPS]}</li>
+     *     <li>{@code burst:BASE:PEAK:PERIOD-MS:BURST-MS}</li>
+     *     <li>{@code sine:MEAN:AMPLITUDE:PERIOD-MS}</li>
+     * </ul>
+     *
+     * @throws IllegalArgumentException if the profile is invalid
+     */
+    public static RateProfile parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        try {
+            switch (parts[0]) {
+                case "constant":
+                    requireParameters(parts, 1, 1);
+                    return constant(Double.parseDouble(parts[1]));
+                case "ramp":
+                    requireParameters(parts, 3, 3);
+                    return ramp(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), Long.parseLong(parts[3]));
+                case "step":
+                    requireParameters(parts, 3, 4);
+                    return step(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), Long.parseLong(parts[3]), parts.length > 4 ? Long.parseLong(parts[4]) : -1);
+                case "burst":
+                    requireParameters(parts, 4, 4);
+                    return burst(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), Long.parseLong(parts[3]), Long.parseLong(parts[4]));
+                case "sine":
+                    requireParameters(parts, 3, 3);
+                    return sine(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), Long.parseLong(parts[3]));
+                default:
+                    throw new IllegalArgumentException(format("Unknown throughput profile %s.", parts[0]));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(format("Throughput profile %s contains an invalid number.", spec), e);
+        }
+    }
+
+    private static void requireParameters(String[] parts, int min, int max) {
+        int parameters = parts.length - 1;
+        if (parameters < min || parameters > max) {
+            throw new IllegalArgumentException(format("Throughput profile %s expects %s parameters, but got %d.", parts[0], min == max ? min : min + " to " + max, parameters));
+        }
+    }
+
+    private static double requireNonNegative(double rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rates must be >= 0.");
+        }
+        return rate;
+    }
+
+    private static long requirePositive(long durationMs) {
+        if (durationMs <= 0) {
+            throw new IllegalArgumentException("Durations must be > 0.");
+        }
+        return durationMs;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / (double) NS_PER_SEC;
+    }
+
+    private static class Constant extends RateProfile {
+
+        private final double rate;
+
+        Constant(double rate) {
+            this.rate = rate;
+        }
+
+        @Override
+        public double rateAt(long elapsedNs) {
+            return rate;
+        }
+
+        @Override
+        public double amountUntil(long elapsedNs) {
+            return Double.isInfinite(rate) ? rate : rate * seconds(elapsedNs);
+        }
+
+        @Override
+        public RateProfile scaled(double factor) {
+            return new Constant(rate * factor);
+        }
+
+        @Override
+        public long stepAt(long elapsedNs) {
+            return 0;
+        }
+
+        @Override
+        public long stepStart(long step) {
+            return step == 0 ? 0 : Long.MAX_VALUE;
+        }
+
+        @Override
+        public boolean isConstant() {
+            return true;
+        }
+    }
+
+    private static class Ramp extends RateProfile {
+
+        private final double from;
+        private final double to;
+        private final long durationNs;
+
+        Ramp(double from, double to, long durationNs) {
+            this.from = from;
+            this.to = to;
+            this.durationNs = durationNs;
+        }
+
+        @Override
+        public double rateAt(long elapsedNs) {
+            if (elapsedNs >= durationNs) {
+                return to;
+            }
+            return from + (to - from) * elapsedNs / durationNs;
+        }
+
+        @Override
+        public double amountUntil(long elapsedNs) {
+            long rampNs = Math.min(elapsedNs, durationNs);
+            double amount = (from + rateAt(rampNs)) / 2 * seconds(rampNs);
+            return amount + to * seconds(elapsedNs - rampNs);
+        }
+
+        @Override
+        public RateProfile scaled(double factor) {
+            return new Ramp(from * factor, to * factor, durationNs);
+        }
+    }
+
+    private static class Step extends RateProfile {
+
+        private final double start;
+        private final double increment;
+        private final long intervalNs;
+        private final long steps;
+
+        Step(double start, double increment, long intervalNs, long steps) {
+            this.start = start;
+            this.increment = increment;
+            this.intervalNs = intervalNs;
+            this.steps = steps;
+        }
+
+        @Override
+        public double rateAt(long elapsedNs) {
+            return start + increment * Math.min(elapsedNs / intervalNs, steps);
+        }
+
+        @Override
+        public double amountUntil(long elapsedNs) {
+            long n = Math.min(elapsedNs / intervalNs, steps);
+            // Complete intervals 0..n-1 with the rates start + i * increment, then the rest at the current rate
+            double amount = (n * start + increment * n * (n - 1) / 2.0) * seconds(intervalNs);
+            return amount + rateAt(elapsedNs) * seconds(elapsedNs - n * intervalNs);
+        }
+
+        @Override
+        public RateProfile scaled(double factor) {
+            return new Step(start * factor, increment * factor, intervalNs, steps);
+        }
+
+        @Override
+        public long stepAt(long elapsedNs) {
+            return elapsedNs / intervalNs;
+        }
+
+        @Override
+        public long stepStart(long step) {
+            return step * intervalNs;
+        }
+    }
+
+    private static class Burst extends RateProfile {
+
+        private final double base;
+        private final double peak;
+        private final long periodNs;
+        private final long burstNs;
+
+        Burst(double base, double peak, long periodNs, long burstNs) {
+            this.base = base;
+            this.peak = peak;
+            this.periodNs = periodNs;
+            this.burstNs = burstNs;
+        }
+
+        @Override
+        public double rateAt(long elapsedNs) {
+            return elapsedNs % periodNs < burstNs ? peak : base;
+        }
+
+        @Override
+        public double amountUntil(long elapsedNs) {
+            long periods = elapsedNs / periodNs;
+            long rest = elapsedNs % periodNs;
+            double amount = periods * (peak * seconds(burstNs) + base * seconds(periodNs - burstNs));
+            return amount + peak * seconds(Math.min(rest, burstNs)) + base * seconds(Math.max(0, rest - burstNs));
+        }
+
+        @Override
+        public RateProfile scaled(double factor) {
+            return new Burst(base * factor, peak * factor, periodNs, burstNs);
+        }
+
+        // Every burst and every pause in between is a step
+        @Override
+        public long stepAt(long elapsedNs) {
+            return 2 * (elapsedNs / periodNs) + (elapsedNs % periodNs < burstNs ? 0 : 1);
+        }
+
+        @Override
+        public long stepStart(long step) {
+            return (step / 2) * periodNs + (step % 2 == 0 ? 0 : burstNs);
+        }
+    }
+
+    private static class Sine extends RateProfile {
+
+        private final double mean;
+        private final double amplitude;
+        private final long periodNs;
+
+        Sine(double mean, double amplitude, long periodNs) {
+            this.mean = mean;
+            this.amplitude = amplitude;
+            this.periodNs = periodNs;
+        }
+
+        @Override
+        public double rateAt(long elapsedNs) {
+            return mean + amplitude * Math.sin(2 * Math.PI * (elapsedNs % periodNs) / periodNs);
+        }
+
+        @Override
+        public double amountUntil(long elapsedNs) {
+            double phase = 2 * Math.PI * (elapsedNs % periodNs) / periodNs;
+            return mean * seconds(elapsedNs) + amplitude * seconds(periodNs) / (2 * Math.PI) * (1 - Math.cos(phase));
+        }
+
+        @Override
+        public RateProfile scaled(double factor) {
+            return new Sine(mean * factor, amplitude * factor, periodNs);
+        }
+    }
+}
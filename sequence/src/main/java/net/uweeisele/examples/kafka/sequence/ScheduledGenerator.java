@@ -0,0 +1,485 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import net.uweeisele.examples.kafka.sequence.AsyncEventHandler.OverflowPolicy;
+import net.uweeisele.examples.kafka.sequence.Generator.FailedSend;
+import net.uweeisele.examples.kafka.sequence.Generator.KeysGenerated;
+import net.uweeisele.examples.kafka.sequence.Generator.ProducerStats;
+import net.uweeisele.examples.kafka.sequence.Generator.SuccessfulSend;
+import net.uweeisele.examples.kafka.sequence.event.ShutdownComplete;
+import net.uweeisele.examples.kafka.sequence.event.StartupComplete;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+import java.util.function.ToDoubleFunction;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static java.util.Objects.requireNonNull;
+import static java.util.UUID.randomUUID;
+
+/**
+ * Generator which advances the sequence of every key independently, at its own rate, instead of sending
+ * the keys one after the other like {@link Generator}.
+ *
+ * The keys are split across a few scheduler threads. Each thread keeps the next send time of its keys in a
+ * binary heap and parks until the earliest key is due, so a key costs no thread of its own. The state of a
+ * key lives in primitive arrays (key, next value, next send time, interval and heap slot) next to the key
+ * string and its producerid header, which is built once. The keys share a small pool of producers.
+ */
+public class ScheduledGenerator implements SequenceGenerator {
+
+    private static final long NS_PER_SEC = 1_000_000_000L;
+
+    // Events which may wait for the event writer, the producer I/O threads block if it can't keep up
+    private static final int EVENT_QUEUE_CAPACITY = 1 << 16;
+
+    private final String clientName;
+
+    private final List<Producer<String, Long>> producers;
+
+    private final String topic;
+
+    private final List<String> keys;
+
+    // The producerid header of every key
+    private final List<List<Header>> headers;
+
+    private final long maxMessagesPerKey;
+
+    private final double jitter;
+
+    // Optional limit of the aggregate rate of all keys
+    private final RatePacer ratePacer;
+
+    private final EventHandler eventHandler;
+
+    // Writer thread of the events, unless the event handler has one already
+    private final AsyncEventHandler eventWriter;
+
+    private final List<Scheduler> schedulers = new ArrayList<>();
+
+    private final LongAdder numSent = new LongAdder();
+
+    private final LongAdder numAcked = new LongAdder();
+
+    private final long targetThroughput;
+
+    private volatile boolean stopProducing = false;
+
+    private final CountDownLatch shutdownLatch = new CountDownLatch(1);
+
+    protected ScheduledGenerator(String clientName, IntFunction<Producer<String, Long>> producerFactory, int numProducers, String topic, Collection<String> keys, long maxMessagesPerKey, ToDoubleFunction<String> keyRate, KeyDistribution keyDistribution, double jitter, RatePacer ratePacer, int numThreads, EventHandler eventHandler) {
+        this.clientName = clientName;
+        this.topic = topic;
+        this.keys = new ArrayList<>(new LinkedHashSet<>(keys));
+        this.maxMessagesPerKey = maxMessagesPerKey;
+        this.jitter = jitter;
+        this.ratePacer = ratePacer;
+        this.eventWriter = eventHandler instanceof AsyncEventHandler ? null : new AsyncEventHandler(clientName + "-event-writer", eventHandler, EVENT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+        this.eventHandler = eventWriter != null ? eventWriter : eventHandler;
+
+        // The header is read-only once the record has been sent, so one instance serves all records of the key
+        this.headers = new ArrayList<>(this.keys.size());
+        for (String key : this.keys) {
+            headers.add(List.of(new RecordHeader("producerid", (clientName + "-" + key).getBytes(UTF_8))));
+        }
+
+        this.producers = new ArrayList<>();
+        for (int i = 0; i < numProducers; i++) {
+            producers.add(producerFactory.apply(i));
+        }
+
+        // The key distribution shifts the rate between the keys, keeping the sum of the rates
+        double[] rates = new double[this.keys.size()];
+        double[] weights = keyDistribution != null ? keyDistribution.weights(rates.length) : null;
+        double weightSum = weights != null ? Arrays.stream(weights).sum() : 0;
+        List<Integer> scheduled = new ArrayList<>();
+        for (int k = 0; k < rates.length; k++) {
+            rates[k] = keyRate.applyAsDouble(this.keys.get(k));
+            if (weights != null && rates[k] > 0) {
+                if (!(weights[k] > 0)) {
+                    // Keys without traffic are not scheduled at all
+                    continue;
+                }
+                rates[k] *= rates.length * weights[k] / weightSum;
+            }
+            scheduled.add(k);
+        }
+
+        int threadCount = Math.max(1, Math.min(numThreads, scheduled.size()));
+        double totalRate = 0;
+        for (int t = 0; t < threadCount; t++) {
+            int size = scheduled.size() / threadCount + (t < scheduled.size() % threadCount ? 1 : 0);
+            Scheduler scheduler = new Scheduler(t, size);
+            for (int j = t, i = 0; j < scheduled.size(); j += threadCount, i++) {
+                int k = scheduled.get(j);
+                double rate = rates[k];
+                scheduler.keys[i] = k;
+                // A rate <= 0 sends the key as fast as possible
+                scheduler.intervals[i] = rate > 0 ? Math.max(1, Math.round(NS_PER_SEC / rate)) : 0;
+                totalRate = rate > 0 && totalRate >= 0 ? totalRate + rate : -1;
+            }
+            schedulers.add(scheduler);
+        }
+        if (ratePacer != null && (totalRate < 0 || ratePacer.getPermitsPerSec() < totalRate)) {
+            totalRate = ratePacer.getPermitsPerSec();
+        }
+        this.targetThroughput = totalRate >= 0 ? Math.round(totalRate) : -1;
+    }
+
+    @Override
+    public void run() {
+        if (stopProducing) {
+            closeEventWriter();
+            return;
+        }
+
+        eventHandler.on(new StartupComplete(clientName));
+        eventHandler.on(new KeysGenerated(clientName, keys));
+
+        long startMs = System.currentTimeMillis();
+        List<Thread> threads = new ArrayList<>();
+        for (Scheduler scheduler : schedulers) {
+            scheduler.thread = new Thread(scheduler, clientName + "-scheduler-" + scheduler.index);
+            scheduler.thread.start();
+            threads.add(scheduler.thread);
+        }
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    stop();
+                }
+            }
+        }
+
+        for (Producer<String, Long> producer : producers) {
+            producer.close();
+        }
+        long elapsedMs = System.currentTimeMillis() - startMs;
+        long acked = numAcked.sum();
+        eventHandler.on(new ProducerStats(clientName, numSent.sum(), acked, targetThroughput, 1000 * (acked / (double) elapsedMs)));
+        eventHandler.on(new ShutdownComplete(clientName));
+        closeEventWriter();
+        shutdownLatch.countDown();
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void closeEventWriter() {
+        if (eventWriter != null) {
+            eventWriter.stop();
+        }
+    }
+
+    public List<String> getKeys() {
+        return new ArrayList<>(keys);
+    }
+
+    public long getNumSent() {
+        return numSent.sum();
+    }
+
+    public long getNumAcked() {
+        return numAcked.sum();
+    }
+
+    private void stop() {
+        stopProducing = true;
+        for (Scheduler scheduler : schedulers) {
+            LockSupport.unpark(scheduler.thread);
+        }
+    }
+
+    @Override
+    public void close() {
+        boolean interrupted = false;
+        try {
+            stop();
+            while (true) {
+                try {
+                    shutdownLatch.await();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends the keys of one thread in the order of their next send time.
+     *
+     * The arrays are indexed by the slot of the key within the scheduler, {@link #heap} holds the slots
+     * ordered by {@link #due}.
+     */
+    private class Scheduler implements Runnable {
+
+        private final int index;
+
+        // Index into the keys of the generator
+        private final int[] keys;
+        private final long[] values;
+        private final long[] due;
+        private final long[] intervals;
+
+        private final int[] heap;
+        private int size;
+
+        private volatile Thread thread;
+
+        Scheduler(int index, int size) {
+            this.index = index;
+            this.keys = new int[size];
+            this.values = new long[size];
+            this.due = new long[size];
+            this.intervals = new long[size];
+            this.heap = new int[size];
+        }
+
+        @Override
+        public void run() {
+            // negative maxMessages (-1) means "infinite"
+            long maxMessagesPerKey = (ScheduledGenerator.this.maxMessagesPerKey < 0) ? Long.MAX_VALUE : ScheduledGenerator.this.maxMessagesPerKey;
+            if (maxMessagesPerKey == 0) {
+                return;
+            }
+
+            // The first send of every key is spread over its interval, so the keys don't send in lockstep
+            long now = System.nanoTime();
+            for (int slot = 0; slot < keys.length; slot++) {
+                due[slot] = now + (intervals[slot] > 0 ? ThreadLocalRandom.current().nextLong(intervals[slot]) : 0);
+                push(slot);
+            }
+
+            while (!stopProducing && size > 0) {
+                int slot = heap[0];
+                now = System.nanoTime();
+                if (due[slot] > now) {
+                    LockSupport.parkNanos(this, due[slot] - now);
+                    continue;
+                }
+
+                send(keys[slot], values[slot]);
+                if (ratePacer != null) {
+                    ratePacer.acquire(1);
+                }
+
+                if (++values[slot] >= maxMessagesPerKey) {
+                    pop();
+                } else {
+                    due[slot] = intervals[slot] > 0 ? due[slot] + nextInterval(intervals[slot]) : now;
+                    siftDown(0);
+                }
+            }
+        }
+
+        private long nextInterval(long interval) {
+            if (jitter <= 0) {
+                return interval;
+            }
+            return Math.max(0, Math.round(interval * (1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1))));
+        }
+
+        private void send(int key, long value) {
+            String keyString = ScheduledGenerator.this.keys.get(key);
+            ProducerRecord<String, Long> record = new ProducerRecord<>(topic, null, keyString, value, headers.get(key));
+
+            numSent.increment();
+            try {
+                producers.get(key % producers.size()).send(record, new EventCallback(keyString, value));
+            } catch (Exception e) {
+                eventHandler.on(new FailedSend(clientName, keyString, value, topic, e));
+            }
+        }
+
+        private void push(int slot) {
+            heap[size] = slot;
+            siftUp(size++);
+        }
+
+        private void pop() {
+            heap[0] = heap[--size];
+            if (size > 0) {
+                siftDown(0);
+            }
+        }
+
+        private void siftUp(int i) {
+            int slot = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (due[heap[parent]] <= due[slot]) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = slot;
+        }
+
+        private void siftDown(int i) {
+            int slot = heap[i];
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && due[heap[child + 1]] < due[heap[child]]) {
+                    child++;
+                }
+                if (due[slot] <= due[heap[child]]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = slot;
+        }
+    }
+
+    private class EventCallback implements Callback {
+
+        private final String key;
+        private final long value;
+
+        EventCallback(String key, long value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public void onCompletion(RecordMetadata recordMetadata, Exception e) {
+            if (e == null) {
+                numAcked.increment();
+                eventHandler.on(new SuccessfulSend(clientName, key, value, recordMetadata));
+            } else {
+                eventHandler.on(new FailedSend(clientName, key, value, topic, e));
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private final IntFunction<Producer<String, Long>> producerFactory;
+
+        private final String topic;
+
+        private String clientName = Generator.class.getSimpleName().toLowerCase();
+
+        // Default is one key
+        private Collection<String> keys = singletonList(randomUUID().toString());
+
+        // If maxMessagesPerKey < 0, produce until the process is killed externally
+        private long maxMessagesPerKey = -1;
+
+        private int producers = 1;
+
+        private int threads = 1;
+
+        // Messages/sec per key, a rate <= 0 sends as fast as possible
+        private ToDoubleFunction<String> keyRate = key -> -1;
+
+        // Scales the key rates by the rank of the keys if set
+        private KeyDistribution keyDistribution;
+
+        // Fraction of the interval by which the time between two messages of a key varies
+        private double jitter = 0;
+
+        private RatePacer ratePacer;
+
+        private EventHandler eventHandler = new JsonPrintEventHandler();
+
+        /**
+         * @param producerFactory creates the producer with the given index of the pool, the producers are closed
+         *                        by the generator
+         */
+        public Builder(IntFunction<Producer<String, Long>> producerFactory, String topic) {
+            this.producerFactory = requireNonNull(producerFactory);
+            this.topic = topic;
+        }
+
+        public Builder withClientName(String clientName) {
+            this.clientName = requireNonNull(clientName);
+            return this;
+        }
+
+        public Builder withKeys(Collection<String> keys) {
+            this.keys = requireNonNull(keys);
+            return this;
+        }
+
+        public Builder withMaxMessagesPerKey(long maxMessagesPerKey) {
+            this.maxMessagesPerKey = maxMessagesPerKey;
+            return this;
+        }
+
+        public Builder withProducers(int producers) {
+            if (producers < 1) {
+                throw new IllegalArgumentException("producers must be >= 1");
+            }
+            this.producers = producers;
+            return this;
+        }
+
+        public Builder withThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be >= 1");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder withKeyRate(double keyRate) {
+            this.keyRate = key -> keyRate;
+            return this;
+        }
+
+        public Builder withKeyRates(ToDoubleFunction<String> keyRate) {
+            this.keyRate = requireNonNull(keyRate);
+            return this;
+        }
+
+        // Shifts the key rates towards the keys of lower rank, the sum of the key rates stays the same
+        public Builder withKeyDistribution(KeyDistribution keyDistribution) {
+            this.keyDistribution = keyDistribution;
+            return this;
+        }
+
+        public Builder withJitter(double jitter) {
+            if (jitter < 0 || jitter > 1) {
+                throw new IllegalArgumentException("jitter must be between 0 and 1");
+            }
+            this.jitter = jitter;
+            return this;
+        }
+
+        // Limits the aggregate rate of all keys, the pacer may be shared with other generators
+        public Builder withRatePacer(RatePacer ratePacer) {
+            this.ratePacer = ratePacer;
+            return this;
+        }
+
+        public Builder withEventHandler(EventHandler eventHandler) {
+            this.eventHandler = requireNonNull(eventHandler);
+            return this;
+        }
+
+        public ScheduledGenerator build() {
+            return new ScheduledGenerator(clientName, producerFactory, producers, topic, keys, maxMessagesPerKey, keyRate, keyDistribution, jitter, ratePacer, threads, eventHandler);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * Parses the sequence number directly from the bytes of a value which has been written by
+ * {@link SequenceSerializer}, {@link PayloadSerializer} or as a string by {@code StringSerializer}. The filler of
+ * a payload is skipped without being decoded.
+ *
+ * Values which are not a sequence number (see {@link Payload#sequenceOf(byte[])}) are deserialized to null,
+ * like missing values.
+ */
+public class SequenceDeserializer implements Deserializer<Long> {
+
+    @Override
+    public Long deserialize(String topic, byte[] data) {
+        long number = Payload.sequenceOf(data);
+        return number >= 0 ? number : null;
+    }
+}
@@ -0,0 +1,14 @@
+package net.uweeisele.examples.kafka.sequence;
+
+/**
+ * Produces an increasing sequence of values per key until it is closed or every key has reached its
+ * maximum number of messages.
+ */
+public interface SequenceGenerator extends Runnable, AutoCloseable {
+
+    /**
+     * Stops producing and waits until {@link #run()} has returned.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,41 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import org.apache.kafka.common.serialization.Serializer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Serializes the sequence number of the generator into its decimal ASCII digits, which are the same bytes as
+ * {@code StringSerializer} writes for {@code String.valueOf(number)}.
+ *
+ * The digits are written into buffers which are reused by the thread for later numbers of the same length, so
+ * nothing is allocated per record. Like {@link PayloadSerializer}, this relies on the producer copying the value
+ * into its batch before {@code send} returns, and the serializer must not be used where the serialized value is kept.
+ */
+public class SequenceSerializer implements Serializer<Long> {
+
+    // One buffer per length of a non-negative long
+    private static final int MAX_LENGTH = 19;
+
+    private final ThreadLocal<byte[][]> buffers = ThreadLocal.withInitial(() -> new byte[MAX_LENGTH + 1][]);
+
+    @Override
+    public byte[] serialize(String topic, Long data) {
+        if (data == null) {
+            return null;
+        }
+        long number = data;
+        if (number < 0) {
+            return Long.toString(number).getBytes(UTF_8);
+        }
+        int length = Payload.sequenceLength(number);
+        byte[][] slots = buffers.get();
+        byte[] buffer = slots[length];
+        if (buffer == null) {
+            buffer = new byte[length];
+            slots[length] = buffer;
+        }
+        Payload.writeSequence(number, buffer, length);
+        return buffer;
+    }
+}
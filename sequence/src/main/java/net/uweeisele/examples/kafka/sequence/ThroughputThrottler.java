@@ -16,13 +16,17 @@
  */
 package net.uweeisele.examples.kafka.sequence;
 
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This class helps producers throttle throughput.
  *
  * If targetThroughput &gt;= 0, the resulting average throughput will be approximately
  * min(targetThroughput, maximumPossibleThroughput). If targetThroughput &lt; 0,
- * no throttling will occur.
+ * no throttling will occur. A constant target is enforced by a {@link RatePacer}, which is shared by all
+ * throttlers created with {@link #share(int, int)}, so that several threads send at one aggregate rate.
+ * Instead of a constant target, a {@link RateProfile} can change the target over time, in which case the
+ * target and the achieved rate of every step of the profile are passed to a {@link StepListener}.
  *
  * To use, do this between successive send attempts:
  * <pre>
@@ -39,92 +43,166 @@ public class ThroughputThrottler {
 
     private static final long NS_PER_MS = 1000000L;
     private static final long NS_PER_SEC = 1000 * NS_PER_MS;
-    private static final long MIN_SLEEP_NS = 2 * NS_PER_MS;
 
-    private final long sleepTimeNs;
+    // Upper bound of a single sleep, so that an increase of the target rate is noticed in time
+    private static final long MAX_SLEEP_NS = 10 * NS_PER_MS;
+
+    private final RateProfile profile;
     private final long targetThroughput;
 
-    private Long startMs;
-    private long sleepDeficitNs = 0;
-    private boolean wakeup = false;
+    // Only for constant targets > 0
+    private final RatePacer pacer;
+    private long pacedAmount = 0;
+    private long permitNs;
+
+    private StepListener stepListener;
+
+    private long startNs = -1;
+    private long amountSoFar = 0;
+    private volatile boolean wakeup = false;
+    private volatile Thread sleeping;
+
+    private long step = 0;
+    private long stepStartAmount = 0;
 
     /**
      * @param targetThroughput Can be messages/sec or bytes/sec
      */
     public ThroughputThrottler(long targetThroughput) {
+        this(RateProfile.constant(targetThroughput));
+    }
+
+    /**
+     * @param profile Target throughput over time, can be messages/sec or bytes/sec
+     */
+    public ThroughputThrottler(RateProfile profile) {
+        this.targetThroughput = profile.isConstant() && !Double.isInfinite(profile.rateAt(0)) ? Math.round(profile.rateAt(0)) : -1;
+        this.profile = profile;
+        this.pacer = targetThroughput > 0 ? new RatePacer(profile.rateAt(0)) : null;
+    }
+
+    private ThroughputThrottler(RateProfile profile, long targetThroughput, RatePacer pacer) {
         this.targetThroughput = targetThroughput;
-        this.sleepTimeNs = targetThroughput > 0 ?
-                           NS_PER_SEC / targetThroughput :
-                           Long.MAX_VALUE;
+        this.profile = profile;
+        this.pacer = pacer;
+    }
+
+    /**
+     * @return a throttler for one of {@code shareCount} senders, which together send at the target of this throttler
+     */
+    public ThroughputThrottler share(int share, int shareCount) {
+        ThroughputThrottler throttler;
+        if (profile.isConstant()) {
+            // A constant target is split into whole messages, a negative target means no throttling
+            long shareOfTarget = targetThroughput < 0 ? targetThroughput : targetThroughput / shareCount + (share < targetThroughput % shareCount ? 1 : 0);
+            throttler = new ThroughputThrottler(RateProfile.constant(shareOfTarget), shareOfTarget, pacer);
+        } else {
+            throttler = new ThroughputThrottler(profile.scaled(1.0 / shareCount));
+        }
+        return throttler;
+    }
+
+    /**
+     * @return a throttler for a sender which sends {@code fraction} of the target of this throttler at its own pace,
+     *         independent of the other senders
+     */
+    public ThroughputThrottler share(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("fraction must be >= 0 and <= 1");
+        }
+        return new ThroughputThrottler(profile.scaled(fraction));
+    }
+
+    /**
+     * Sets the listener which is called whenever a step of the profile has passed. Constant targets have no steps.
+     */
+    public ThroughputThrottler withStepListener(StepListener stepListener) {
+        this.stepListener = profile.isConstant() ? null : stepListener;
+        return this;
     }
 
     /**
      * @param amountSoFar bytes produced so far if you want to throttle data throughput, or
      *                    messages produced so far if you want to throttle message throughput.
-     * @param sendStartMs timestamp of the most recently sent message
-     * @return
+     * @return true if more has been produced than the target allows until now
      */
-    public boolean shouldThrottle(long amountSoFar, long sendStartMs) {
-        if (startMs == null) {
-            startMs = sendStartMs;
+    public boolean shouldThrottle(long amountSoFar) {
+        long nowNs = System.nanoTime();
+        if (startNs < 0) {
+            startNs = nowNs;
         }
+        this.amountSoFar = amountSoFar;
 
-        if (targetThroughput < 0) {
-            // No throttling in this case
-            return false;
+        if (pacer != null) {
+            if (amountSoFar > pacedAmount) {
+                permitNs = pacer.reserve(amountSoFar - pacedAmount);
+                pacedAmount = amountSoFar;
+            }
+            return permitNs - nowNs > 0;
         }
 
-        float elapsedSec = (sendStartMs - startMs) / 1000.f;
-        return elapsedSec > 0 && (amountSoFar / elapsedSec) > targetThroughput;
+        long elapsedNs = nowNs - startNs;
+        if (stepListener != null) {
+            completeSteps(elapsedNs);
+        }
+        return amountSoFar > profile.amountUntil(elapsedNs);
     }
 
     /**
-     * Occasionally blocks for small amounts of time to achieve targetThroughput.
+     * Blocks until the target allows the amount which has been passed to {@link #shouldThrottle(long)}.
      *
-     * Note that if targetThroughput is 0, this will block extremely aggressively.
+     * Note that if the target is 0, this will block until {@link #wakeup()} is called.
      */
     public void throttle() {
-        if (targetThroughput == 0) {
-            try {
-                synchronized (this) {
-                    while (!wakeup) {
-                        this.wait();
-                    }
+        sleeping = Thread.currentThread();
+        try {
+            while (!wakeup && !Thread.currentThread().isInterrupted()) {
+                long sleepNs = pacer != null ? permitNs - System.nanoTime() : profileSleepNs();
+                if (sleepNs <= 0) {
+                    return;
                 }
-            } catch (InterruptedException e) {
-                // do nothing
+                LockSupport.parkNanos(this, sleepNs);
             }
+        } finally {
+            sleeping = null;
+            wakeup = false;
+        }
+    }
+
+    private long profileSleepNs() {
+        long elapsedNs = System.nanoTime() - startNs;
+        double missing = amountSoFar - profile.amountUntil(elapsedNs);
+        if (missing <= 0) {
+            return 0;
+        }
+        double rate = profile.rateAt(elapsedNs);
+        long sleepNs = rate > 0 ? (long) Math.ceil(missing * NS_PER_SEC / rate) : MAX_SLEEP_NS;
+        return Math.min(sleepNs, MAX_SLEEP_NS);
+    }
+
+    /**
+     * Reports the step which is in progress, e.g. when the producer has finished.
+     */
+    public void complete() {
+        if (stepListener == null || startNs < 0) {
             return;
         }
+        long elapsedNs = System.nanoTime() - startNs;
+        completeSteps(elapsedNs);
+        long start = profile.stepStart(step);
+        if (elapsedNs > start) {
+            stepListener.onStep(step, start, elapsedNs, profile.amountUntil(elapsedNs) - profile.amountUntil(start), amountSoFar - stepStartAmount);
+        }
+        stepListener = null;
+    }
 
-        // throttle throughput by sleeping, on average,
-        // (1 / this.throughput) seconds between "things sent"
-        sleepDeficitNs += sleepTimeNs;
-
-        // If enough sleep deficit has accumulated, sleep a little
-        if (sleepDeficitNs >= MIN_SLEEP_NS) {
-            long sleepStartNs = System.nanoTime();
-            try {
-                synchronized (this) {
-                    long remaining = sleepDeficitNs;
-                    while (!wakeup && remaining > 0) {
-                        long sleepMs = remaining / 1000000;
-                        long sleepNs = remaining - sleepMs * 1000000;
-                        this.wait(sleepMs, (int) sleepNs);
-                        long elapsed = System.nanoTime() - sleepStartNs;
-                        remaining = sleepDeficitNs - elapsed;
-                    }
-                    wakeup = false;
-                }
-                sleepDeficitNs = 0;
-            } catch (InterruptedException e) {
-                // If sleep is cut short, reduce deficit by the amount of
-                // time we actually spent sleeping
-                long sleepElapsedNs = System.nanoTime() - sleepStartNs;
-                if (sleepElapsedNs <= sleepDeficitNs) {
-                    sleepDeficitNs -= sleepElapsedNs;
-                }
-            }
+    private void completeSteps(long elapsedNs) {
+        long current = profile.stepAt(elapsedNs);
+        for (; step < current; step++) {
+            long start = profile.stepStart(step);
+            long end = profile.stepStart(step + 1);
+            stepListener.onStep(step, start, end, profile.amountUntil(end) - profile.amountUntil(start), amountSoFar - stepStartAmount);
+            stepStartAmount = amountSoFar;
         }
     }
 
@@ -132,14 +210,30 @@ public class ThroughputThrottler {
      * Wakeup the throttler if its sleeping.
      */
     public void wakeup() {
-        synchronized (this) {
-            wakeup = true;
-            this.notifyAll();
-        }
+        wakeup = true;
+        LockSupport.unpark(sleeping);
     }
 
+    /**
+     * @return the constant target, or the average target since the start if the target follows a profile
+     */
     public long getTargetThroughput() {
-        return targetThroughput;
+        if (profile.isConstant()) {
+            return targetThroughput;
+        }
+        long elapsedNs = startNs < 0 ? 0 : System.nanoTime() - startNs;
+        return elapsedNs > 0 ? Math.round(profile.amountUntil(elapsedNs) * NS_PER_SEC / elapsedNs) : Math.round(profile.rateAt(0));
     }
-}
 
+    public interface StepListener {
+
+        /**
+         * @param step           index of the step in the profile
+         * @param startNs        start of the step since the start of the throttler
+         * @param endNs          end of the step since the start of the throttler
+         * @param targetAmount   amount which the profile targets within the step
+         * @param achievedAmount amount which has been produced within the step
+         */
+        void onStep(long step, long startNs, long endNs, double targetAmount, long achievedAmount);
+    }
+}
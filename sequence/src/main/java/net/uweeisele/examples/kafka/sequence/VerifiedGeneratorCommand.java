@@ -1,22 +1,29 @@
 package net.uweeisele.examples.kafka.sequence;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.*;
+import net.uweeisele.examples.kafka.sequence.state.HeapSequenceStateStore;
+import net.uweeisele.examples.kafka.sequence.state.MappedSequenceStateStore;
+import net.uweeisele.examples.kafka.sequence.state.SequenceStateStore;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.RangeAssignor;
 import org.apache.kafka.clients.consumer.RoundRobinAssignor;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.Serializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.apache.kafka.common.utils.Exit;
 
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.function.IntFunction;
 
 import static java.lang.Runtime.getRuntime;
 import static java.lang.String.format;
@@ -36,6 +43,7 @@ public class VerifiedGeneratorCommand {
         Namespace res = null;
         try {
             res = parser.parseArgs(args);
+            GeneratorCommand.validateLoopEngineArgs(parser, res);
         } catch (ArgumentParserException e) {
             parser.handleError(e);
             parser.printHelp();
@@ -45,10 +53,11 @@ public class VerifiedGeneratorCommand {
         List<String> keys = generateKeys(res);
 
         int returnCode = 0;
-        try(Generator generator = createGeneratorFromArgs(res, keys);
-            Verifier verifier = createVerifierFromArgs(res, keys)) {
-            getRuntime().addShutdownHook(new Thread(generator::close));
-            getRuntime().addShutdownHook(new Thread(verifier::close));
+        // Both clients write their events into the same stream, which is closed after both of them
+        try(EventHandler eventHandler = EventArguments.createEventHandler(res);
+            SequenceGenerator generator = createGeneratorFromArgs(res, keys, eventHandler);
+            Verifier verifier = createVerifierFromArgs(res, keys, eventHandler)) {
+            getRuntime().addShutdownHook(EventArguments.shutdownHook(eventHandler, generator::close, verifier::close));
 
             Executors.newSingleThreadScheduledExecutor(daemonThreadFactory()).schedule(() -> {
                 generator.close();
@@ -86,11 +95,13 @@ public class VerifiedGeneratorCommand {
         return keys;
     }
 
-    private static Generator createGeneratorFromArgs(Namespace res, Collection<String> keys) {
+    private static SequenceGenerator createGeneratorFromArgs(Namespace res, Collection<String> keys, EventHandler eventHandler) {
         String brokerList = res.getString("brokerList");
         String topic = res.getString("topicProduce");
         int acks = res.getInt("acks");
         boolean sync = res.getBoolean("sync");
+        int shards = res.getInt("shards");
+        boolean dedicatedProducers = res.getBoolean("dedicatedProducers");
         long maxMessagesPerKey = res.getLong("maxMessagesPerKey");
         int throughput = res.getInt("throughput");
         String createTime = res.getString("createTime");
@@ -103,20 +114,64 @@ public class VerifiedGeneratorCommand {
         Optional.<Properties>ofNullable(res.get("producer.config")).ifPresent(actualProducerProperties::putAll);
 
         actualProducerProperties.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, brokerList);
-        actualProducerProperties.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        actualProducerProperties.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
         actualProducerProperties.setProperty(ProducerConfig.ACKS_CONFIG, String.valueOf(acks));
 
-        return new Generator.Builder(new KafkaProducer<>(actualProducerProperties), topic)
+        // All producers share the value serializer, so that the generator can read the size of every payload from it
+        PayloadSerializer payloadSerializer = res.get("payloadSize") != null ? new PayloadSerializer(res.<PayloadSize>get("payloadSize")) : null;
+        Serializer<Long> valueSerializer = payloadSerializer != null ? payloadSerializer : new SequenceSerializer();
+
+        if ("scheduled".equals(res.getString("engine"))) {
+            return new ScheduledGenerator.Builder(index -> new KafkaProducer<>(actualProducerProperties, new StringSerializer(), valueSerializer), topic)
+                    .withKeys(keys)
+                    .withMaxMessagesPerKey(maxMessagesPerKey)
+                    .withThreads(shards)
+                    .withProducers(res.getInt("producers"))
+                    .withKeyRate(res.getDouble("keyRate"))
+                    .withJitter(res.getDouble("keyJitter"))
+                    .withKeyDistribution(res.get("keyDistribution"))
+                    .withRatePacer(throughput > 0 ? new RatePacer(throughput) : null)
+                    .withEventHandler(eventHandler)
+                    .build();
+        }
+
+        // Only the loop engine sends transactions
+        String transactionalId = res.getString("transactionalId");
+        if (transactionalId != null) {
+            actualProducerProperties.setProperty(ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionalId);
+        }
+
+        Generator.Builder builder = new Generator.Builder(new KafkaProducer<>(actualProducerProperties, new StringSerializer(), valueSerializer), topic)
                 .withKeys(keys)
                 .withMaxMessagesPerKey(maxMessagesPerKey)
-                .withThroughput(new ThroughputThrottler(throughput))
+                .withThroughput(res.get("throughputProfile") != null ? new ThroughputThrottler(res.<RateProfile>get("throughputProfile")) : new ThroughputThrottler(throughput))
+                .withThroughputUnit(Generator.ThroughputUnit.valueOf(res.getString("throughputUnit").toUpperCase()))
+                .withPayloadSerializer(payloadSerializer)
+                .withOpenLoop(res.getBoolean("openLoop"))
+                .withMaxInFlight(res.getInt("maxInFlight"))
+                .withLatencyReportInterval(res.getLong("latencyReportInterval"))
+                .withKeyDistribution(res.get("keyDistribution"))
+                .withShards(shards)
                 .withCreateTime(createTime != null ? Instant.parse(createTime) : null)
                 .withSyncProduce(sync)
-                .build();
+                .withEventHandler(eventHandler);
+        if (transactionalId != null) {
+            builder.withTransactions(res.getLong("transactionRecords"), res.getLong("transactionMs"))
+                    .withAbortFraction(res.getDouble("abortFraction"));
+        }
+        if (dedicatedProducers) {
+            builder.withDedicatedProducers(shard -> {
+                Properties properties = new Properties();
+                properties.putAll(actualProducerProperties);
+                if (transactionalId != null) {
+                    properties.setProperty(ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionalId + "-" + shard);
+                }
+                return new KafkaProducer<>(properties, new StringSerializer(), valueSerializer);
+            });
+        }
+        return builder.build();
     }
 
-    private static Verifier createVerifierFromArgs(Namespace res, Collection<String> keys) {
+    private static Verifier createVerifierFromArgs(Namespace res, Collection<String> keys, EventHandler eventHandler) {
         String topic = res.getString("topicConsume");
         boolean useAutoCommit = res.getBoolean("useAutoCommit");
 
@@ -135,9 +190,23 @@ public class VerifiedGeneratorCommand {
         actualConsumerProperties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, res.getString("resetPolicy"));
         actualConsumerProperties.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, Integer.toString(res.getInt("sessionTimeout")));
         actualConsumerProperties.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, res.getString("assignmentStrategy"));
+        if (res.getString("transactionalId") != null) {
+            // Aborted records would be received as duplicates, unless the consumer config says otherwise
+            actualConsumerProperties.putIfAbsent(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        }
 
-        StringDeserializer deserializer = new StringDeserializer();
-        KafkaConsumer<String, String> consumer = new KafkaConsumer<>(actualConsumerProperties, deserializer, deserializer);
+        KafkaConsumer<String, Long> consumer = new KafkaConsumer<>(actualConsumerProperties, new StringDeserializer(), new SequenceDeserializer());
+
+        int threads = res.getInt("threads");
+        String stateDir = res.getString("stateDir");
+        IntFunction<SequenceStateStore> stateStoreFactory;
+        if (stateDir == null) {
+            stateStoreFactory = worker -> new HeapSequenceStateStore();
+        } else if (threads > 1) {
+            stateStoreFactory = worker -> new MappedSequenceStateStore(Paths.get(stateDir, "worker-" + worker));
+        } else {
+            stateStoreFactory = worker -> new MappedSequenceStateStore(Paths.get(stateDir));
+        }
 
         final long sequenceNumbers = res.getLong("maxMessagesPerKey") >= 0 ? res.getLong("maxMessagesPerKey") : Long.MAX_VALUE;
 
@@ -146,7 +215,12 @@ public class VerifiedGeneratorCommand {
                 .withAsyncCommit(false)
                 .withAutoCommit(useAutoCommit)
                 .withKeyFilterSupplier(() -> new Verifier.FixedValueFilter(new HashSet<>(keys)))
-                .withValueFilterSupplier(() -> new Verifier.SequenceValueFilter(sequenceNumbers))
+                .withValueFilter(new Verifier.SequenceValueFilter(sequenceNumbers))
+                .withStateStoreFactory(stateStoreFactory)
+                .withThreads(threads)
+                .withPipeline(res.getInt("pipelineCapacity"))
+                .withLatencyReportInterval(res.getLong("latencyReportInterval"))
+                .withEventHandler(eventHandler)
                 .build();
     }
 
@@ -223,6 +297,8 @@ public class VerifiedGeneratorCommand {
                 .metavar("DURATION_MS")
                 .dest("maxDuration")
                 .help("Set the maximum duration for the generation and verification in milliseconds. If this value is negative, the max duration is infinity. Default is -1.");
+
+        EventArguments.addArguments(parser, "Default is 0, which writes the events of the verifier on the thread which emits them. The events of the generator are then still written on a separate thread, which lets up to 65536 events wait and blocks the producer threads when they are full.");
     }
 
     private static void argParserGenerator(ArgumentContainer parser) {
@@ -234,6 +310,14 @@ public class VerifiedGeneratorCommand {
                 .dest("topicProduce")
                 .help("Produce messages to this topic.");
 
+        parser.addArgument("--payload-size")
+                .action(store())
+                .required(false)
+                .type(new PayloadSizeArgumentType())
+                .metavar("PAYLOAD-SIZE")
+                .dest("payloadSize")
+                .help("Size of the record values in bytes, one of fixed:SIZE, uniform:MIN:MAX or histogram:FILE with one line SIZE WEIGHT per size. A uniform range is drawn from at most 64 evenly spaced sizes. The value starts with the sequence number, followed by a space and filler bytes. If not set, the value is just the sequence number.");
+
         parser.addArgument("--producer.config")
                 .action(store())
                 .required(false)
@@ -249,6 +333,24 @@ public class VerifiedGeneratorCommand {
                 .metavar("THROUGHPUT")
                 .help("If set >= 0, throttle maximum message throughput to *approximately* THROUGHPUT messages/sec.");
 
+        parser.addArgument("--throughput-profile")
+                .action(store())
+                .required(false)
+                .type(new RateProfileArgumentType())
+                .metavar("PROFILE")
+                .dest("throughputProfile")
+                .help("Target throughput which changes over time, replaces --throughput. One of constant:RATE, ramp:FROM:TO:DURATION-MS, step:START:INCREMENT:INTERVAL-MS[:STEPS], burst:BASE:PEAK:PERIOD-MS:BURST-MS or sine:MEAN:AMPLITUDE:PERIOD-MS. The target and the achieved rate of every step are reported.");
+
+        parser.addArgument("--throughput-unit")
+                .action(store())
+                .required(false)
+                .setDefault("messages")
+                .type(String.class)
+                .choices("messages", "bytes")
+                .metavar("UNIT")
+                .dest("throughputUnit")
+                .help("Whether --throughput and --throughput-profile are in messages/sec or in bytes/sec of key and value, including the filler of --payload-size.");
+
         parser.addArgument("--acks")
                 .action(store())
                 .required(false)
@@ -258,6 +360,124 @@ public class VerifiedGeneratorCommand {
                 .metavar("ACKS")
                 .help("Acks required on each produced message. See Kafka docs on acks for details.");
 
+        parser.addArgument("--shards")
+                .action(store())
+                .required(false)
+                .setDefault(1)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("SHARDS")
+                .dest("shards")
+                .help("Number of threads which send the messages. Every key is sent by exactly one thread, so the order per key is preserved. All threads together send at the target throughput.");
+
+        parser.addArgument("--dedicated-producers")
+                .action(store())
+                .required(false)
+                .setDefault(false)
+                .type(Boolean.class)
+                .metavar("DEDICATED-PRODUCERS")
+                .dest("dedicatedProducers")
+                .help("Use one producer per shard instead of one producer which is shared by all shards.");
+
+        parser.addArgument("--engine")
+                .action(store())
+                .required(false)
+                .setDefault("loop")
+                .type(String.class)
+                .choices("loop", "scheduled")
+                .metavar("ENGINE")
+                .dest("engine")
+                .help("How the messages are sent. 'loop' sends one message per key in turn, throttled by --throughput. 'scheduled' advances every key independently at --key-rate with --key-jitter, using --shards scheduler threads and a pool of --producers producers. With 'scheduled', --throughput limits the aggregate rate of all keys, --throughput-profile, --throughput-unit, --dedicated-producers, --sync, --message-create-time, --max-in-flight and the transaction options are ignored.");
+
+        parser.addArgument("--producers")
+                .action(store())
+                .required(false)
+                .setDefault(1)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("PRODUCERS")
+                .dest("producers")
+                .help("Number of producers which are shared by the keys of the scheduled engine.");
+
+        parser.addArgument("--key-rate")
+                .action(store())
+                .required(false)
+                .setDefault(-1.0)
+                .type(Double.class)
+                .metavar("KEY-RATE")
+                .dest("keyRate")
+                .help("Messages/sec of every key with the scheduled engine. If <= 0, every key is sent as fast as possible.");
+
+        parser.addArgument("--key-jitter")
+                .action(store())
+                .required(false)
+                .setDefault(0.0)
+                .type(Double.class)
+                .metavar("KEY-JITTER")
+                .dest("keyJitter")
+                .help("Fraction between 0 and 1 by which the time between two messages of a key varies randomly with the scheduled engine.");
+
+        parser.addArgument("--key-distribution")
+                .action(store())
+                .required(false)
+                .type(new KeyDistributionArgumentType())
+                .metavar("DISTRIBUTION")
+                .dest("keyDistribution")
+                .help("Share of the traffic of every key by its rank: uniform, zipf:EXPONENT or hotspot:TRAFFIC-PERCENT:KEYS-PERCENT. The loop engine draws the next key from the distribution instead of sending the keys in turn, the sequence of every key stays contiguous. With --shards, the keys are dealt to the shards by rank and every shard sends at the share of its keys, which requires --throughput or --throughput-profile and no --open-loop. The scheduled engine scales --key-rate of every key, keeping the aggregate rate. By default the keys are sent in turn.");
+
+        parser.addArgument("--open-loop")
+                .action(store())
+                .required(false)
+                .setDefault(false)
+                .type(Boolean.class)
+                .metavar("OPEN-LOOP")
+                .dest("openLoop")
+                .help("Send every record at its intended time of the constant --throughput, even if the broker has held up previous sends, and report the ack latency from the intended send time (corrected for coordinated omission) as well as from the call of send.");
+
+        parser.addArgument("--max-in-flight")
+                .action(store())
+                .required(false)
+                .setDefault(-1)
+                .type(Integer.class)
+                .metavar("MAX-IN-FLIGHT")
+                .dest("maxInFlight")
+                .help("Maximum number of records which have been sent but not acknowledged yet. Sending blocks while the window is full, and the time blocked is reported. The default of -1 leaves only the producer buffer (buffer.memory and max.block.ms) as the limit. Ignored by the scheduled engine.");
+
+        parser.addArgument("--transactional-id")
+                .action(store())
+                .required(false)
+                .type(String.class)
+                .metavar("TRANSACTIONAL-ID")
+                .dest("transactionalId")
+                .help("Send the records in transactions with this transactional id. Dedicated producers append their index to the id. Ignored by the scheduled engine.");
+
+        parser.addArgument("--transaction-records")
+                .action(store())
+                .required(false)
+                .setDefault(100L)
+                .type(Long.class)
+                .metavar("TRANSACTION-RECORDS")
+                .dest("transactionRecords")
+                .help("Maximum number of records per transaction, a value <= 0 means no limit.");
+
+        parser.addArgument("--transaction-ms")
+                .action(store())
+                .required(false)
+                .setDefault(-1L)
+                .type(Long.class)
+                .metavar("TRANSACTION-MS")
+                .dest("transactionMs")
+                .help("Maximum duration of a transaction in milliseconds, checked at every send. A value <= 0 means no limit.");
+
+        parser.addArgument("--abort-fraction")
+                .action(store())
+                .required(false)
+                .setDefault(0.0)
+                .type(Double.class)
+                .metavar("ABORT-FRACTION")
+                .dest("abortFraction")
+                .help("Fraction between 0 and 1 of the transactions which are aborted at random. The records of an aborted transaction are sent again, so a read_committed verifier sees every sequence without gaps or duplicates.");
+
         parser.addArgument("--sync")
                 .action(store())
                 .required(false)
@@ -292,6 +512,43 @@ public class VerifiedGeneratorCommand {
                 .metavar("CONFIG_FILE_CONSUMER")
                 .help("Consumer config properties file (config options shared with command line parameters will be overridden).");
 
+        parser.addArgument("--threads")
+                .action(store())
+                .required(false)
+                .setDefault(1)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("THREADS")
+                .help("Verify the assigned partitions with this many worker threads. Each partition is always verified by the same worker. The state of the keys stays in this process, a partition which a rebalance moves to another consumer process is verified there with fresh state. Default is 1.");
+
+        parser.addArgument("--pipeline-capacity")
+                .action(store())
+                .required(false)
+                .setDefault(0)
+                .type(Integer.class)
+                .choices(Arguments.range(0, 1 << 30))
+                .metavar("BATCHES")
+                .dest("pipelineCapacity")
+                .help("Verify the polled records on a separate thread and let up to this many polled batches wait for verification. The assigned partitions are paused while the queue is full. With auto commit, offsets may be committed before the records are verified. Default is 0, which verifies the records on the polling thread.");
+
+        parser.addArgument("--latency-report-interval")
+                .action(store())
+                .required(false)
+                .setDefault(10000L)
+                .type(Long.class)
+                .choices(Arguments.range(0L, Long.MAX_VALUE))
+                .metavar("INTERVAL_MS")
+                .dest("latencyReportInterval")
+                .help("Set the interval in milliseconds in which the end-to-end latencies of the received records and the ack latencies of the generator are reported. The end-to-end latency is measured from the record timestamp, the ack latency from the call of send. Default is 10 seconds, 0 only reports them in the final summary.");
+
+        parser.addArgument("--state-dir")
+                .action(store())
+                .required(false)
+                .type(String.class)
+                .metavar("STATE-DIR")
+                .dest("stateDir")
+                .help("Keep the verification state in memory-mapped files in this directory instead of on the heap. With multiple threads, every worker uses its own subdirectory. Existing state in the directory is deleted. The keys themselves are still kept on the heap to filter the records.");
+
         parser.addArgument("--session-timeout")
                 .action(store())
                 .required(false)
@@ -6,27 +6,34 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import net.uweeisele.examples.kafka.sequence.event.ClientEvent;
 import net.uweeisele.examples.kafka.sequence.event.ShutdownComplete;
 import net.uweeisele.examples.kafka.sequence.event.StartupComplete;
+import net.uweeisele.examples.kafka.sequence.state.HeapSequenceStateStore;
+import net.uweeisele.examples.kafka.sequence.state.SequenceStateStore;
+import net.uweeisele.examples.kafka.sequence.state.SequenceTracker;
 import org.apache.kafka.clients.consumer.*;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.FencedInstanceIdException;
+import org.apache.kafka.common.errors.InterruptException;
 import org.apache.kafka.common.errors.WakeupException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
-import java.util.stream.LongStream;
 
-import static java.lang.Long.parseLong;
-import static java.util.Collections.emptyList;
+import static java.lang.String.format;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.newSetFromMap;
 import static java.util.Objects.requireNonNull;
-import static java.util.stream.Collectors.*;
+import static java.util.stream.Collectors.toList;
 
 public class Verifier implements Runnable, AutoCloseable {
 
@@ -34,7 +41,7 @@ public class Verifier implements Runnable, AutoCloseable {
 
     private final String clientName;
 
-    private final KafkaConsumer<String, String> consumer;
+    private final KafkaConsumer<String, Long> consumer;
 
     private final String topic;
 
@@ -42,52 +49,94 @@ public class Verifier implements Runnable, AutoCloseable {
 
     private final boolean useAsyncCommit;
 
-    private final RecordFilter recordFilter;
+    private final List<PartitionWorker> workers = new ArrayList<>();
 
     private final EventHandler eventHandler;
 
-    private final Map<String, List<String>> valuesByKey = new ConcurrentHashMap<>();
+    private final VerifierCheckpoint checkpoint;
+
+    private final Map<TopicPartition, Long> verifiedOffsets = new HashMap<>();
+
+    private final Map<TopicPartition, Long> restoredOffsets = new HashMap<>();
+
+    // If no pipeline is set, the records are verified on the polling thread
+    private final Pipeline pipeline;
+
+    // If 0, the latencies are only reported in the final summary
+    private final long latencyReportIntervalMs;
+
+    private long lastLatencyReportMs = System.currentTimeMillis();
 
     private final CountDownLatch shutdownLatch = new CountDownLatch(1);
 
-    protected Verifier(String clientName, KafkaConsumer<String, String> consumer, String topic, boolean useAutoCommit, boolean useAsyncCommit, RecordFilter recordFilter, EventHandler eventHandler) {
+    protected Verifier(String clientName, KafkaConsumer<String, Long> consumer, String topic, boolean useAutoCommit, boolean useAsyncCommit, List<RecordFilter> recordFilters, List<SequenceStateStore> stateStores, VerifierCheckpoint checkpoint, int pipelineCapacity, long latencyReportIntervalMs, EventHandler eventHandler) {
+        if (recordFilters.isEmpty() || recordFilters.size() != stateStores.size()) {
+            throw new IllegalArgumentException("Exactly one record filter and one state store is required per worker.");
+        }
         this.clientName = clientName;
         this.consumer = consumer;
         this.topic = topic;
         this.useAutoCommit = useAutoCommit;
         this.useAsyncCommit = useAsyncCommit;
-        this.recordFilter = recordFilter;
+        this.checkpoint = checkpoint;
         this.eventHandler = eventHandler;
+        for (int i = 0; i < recordFilters.size(); i++) {
+            workers.add(new PartitionWorker(recordFilters.get(i), stateStores.get(i), recordFilters.size() > 1 ? workerExecutor(i) : null));
+        }
+        this.pipeline = pipelineCapacity > 0 ? new Pipeline(pipelineCapacity) : null;
+        this.latencyReportIntervalMs = latencyReportIntervalMs;
     }
 
     public boolean isFinished() {
-        return recordFilter.isFinished();
+        for (PartitionWorker worker : workers) {
+            if (!worker.recordFilter.isFinished()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public void run() {
+        boolean failed = false;
         try {
             eventHandler.on(new StartupComplete(clientName));
+            if (checkpoint != null) {
+                restoreCheckpoint();
+            }
             consumer.subscribe(Collections.singletonList(topic), new ConsumerRebalanceListener() {
+                // Without a pipeline every batch is verified and committed before the next poll, so there is no
+                // pending state to hand over on revocation. A pipeline is drained and its verified offsets are
+                // committed. A partition is always verified by the same worker, so the state of its keys is
+                // continued if the partition is assigned again. The state is not handed over to other processes,
+                // a partition which moves to another consumer starts there with fresh state.
                 @Override
                 public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                    if (pipeline != null) {
+                        pipeline.drain();
+                        commitVerified();
+                    }
                     eventHandler.on(new PartitionsRevoked(clientName, partitions));
                 }
                 @Override
                 public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                    seekToRestoredOffsets(partitions);
                     eventHandler.on(new PartitionsAssigned(clientName, partitions));
                 }
             });
 
-            while (!isFinished()) {
-                ConsumerRecords<String, String> records = consumer.poll(Duration.ofMillis(Long.MAX_VALUE));
-                Map<TopicPartition, OffsetAndMetadata> offsets = onRecordsReceived(records);
-
-                if (!useAutoCommit) {
-                    if (useAsyncCommit)
-                        consumer.commitAsync(offsets, this::onComplete);
-                    else
-                        commitSync(offsets);
+            if (pipeline != null) {
+                pipeline.start();
+                while (!isFinished()) {
+                    pipeline.pollAndEnqueue();
+                    commitVerified();
+                }
+                pipeline.drain();
+                commitVerified();
+            } else {
+                while (!isFinished()) {
+                    ConsumerRecords<String, Long> records = consumer.poll(Duration.ofMillis(Long.MAX_VALUE));
+                    commit(verifyBatch(records));
                 }
             }
         } catch (WakeupException e) {
@@ -96,104 +145,203 @@ public class Verifier implements Runnable, AutoCloseable {
         } catch (Throwable t) {
             // Log the error so it goes to the service log and not stdout
             log.error("Error during processing, terminating consumer process: ", t);
+            failed = true;
         } finally {
+            if (pipeline != null && !pipeline.stop()) {
+                failed = true;
+            }
+            // After an error the state may contain records which are not covered by the verified offsets
+            if (checkpoint != null && !failed) {
+                writeFinalCheckpoint();
+            }
             consumer.close();
-            verificationSummary().values().forEach(eventHandler::on);
+            // The workers have to be idle before their state is summarized and closed
+            workers.forEach(PartitionWorker::shutdown);
+            workers.forEach(PartitionWorker::awaitTermination);
+            // The summaries are streamed, so that the heap usage does not grow with the number of keys
+            forEachVerificationSummary(eventHandler::on);
+            eventHandler.on(latencySummary());
+            workers.forEach(worker -> worker.stateStore.close());
             eventHandler.on(new ShutdownComplete(clientName));
             shutdownLatch.countDown();
         }
     }
 
-    private Map<TopicPartition, OffsetAndMetadata> onRecordsReceived(ConsumerRecords<String, String> records) {
+    // Verifies a batch on the verification thread and returns the offsets up to which it has been verified
+    private Map<TopicPartition, OffsetAndMetadata> verifyBatch(ConsumerRecords<String, Long> records) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = onRecordsReceived(records);
+        offsets.forEach((tp, offset) -> verifiedOffsets.put(tp, offset.offset()));
+
+        if (checkpoint != null && checkpoint.isDue(System.currentTimeMillis())) {
+            offsets = writeCheckpoint(offsets);
+        }
+        return offsets;
+    }
+
+    private void commit(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        if (!useAutoCommit) {
+            if (useAsyncCommit)
+                consumer.commitAsync(offsets, this::onComplete);
+            else
+                commitSync(offsets);
+        }
+    }
+
+    private void commitVerified() {
+        Map<TopicPartition, OffsetAndMetadata> offsets = pipeline.takeVerifiedOffsets();
+        if (!offsets.isEmpty()) {
+            commit(offsets);
+        }
+    }
+
+    private void restoreCheckpoint() {
+        restoredOffsets.putAll(checkpoint.restore(recordFilters(), stateStores()));
+        verifiedOffsets.putAll(restoredOffsets);
+        if (!restoredOffsets.isEmpty()) {
+            eventHandler.on(new CheckpointRestored(clientName, checkpoint.checkpointId(), commitData(restoredOffsets)));
+        }
+    }
+
+    private void seekToRestoredOffsets(Collection<TopicPartition> partitions) {
+        for (TopicPartition tp : partitions) {
+            Long offset = restoredOffsets.remove(tp);
+            if (offset != null) {
+                consumer.seek(tp, offset);
+            }
+        }
+    }
+
+    // The checkpoint id is attached to the committed offsets, so that they can be related to the checkpoint
+    private Map<TopicPartition, OffsetAndMetadata> writeCheckpoint(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        long checkpointId = checkpoint.write(verifiedOffsets, recordFilters(), stateStores());
+        eventHandler.on(new CheckpointWritten(clientName, checkpointId, commitData(verifiedOffsets)));
+
+        Map<TopicPartition, OffsetAndMetadata> offsetsWithCheckpoint = new HashMap<>();
+        offsets.forEach((tp, offset) -> offsetsWithCheckpoint.put(tp, new OffsetAndMetadata(offset.offset(), "checkpoint-" + checkpointId)));
+        return offsetsWithCheckpoint;
+    }
+
+    private void writeFinalCheckpoint() {
+        try {
+            writeCheckpoint(emptyMap());
+        } catch (RuntimeException e) {
+            log.error("Could not write final checkpoint: ", e);
+        }
+    }
+
+    private List<RecordFilter> recordFilters() {
+        return workers.stream().map(worker -> worker.recordFilter).collect(toList());
+    }
+
+    private List<SequenceStateStore> stateStores() {
+        return workers.stream().map(worker -> worker.stateStore).collect(toList());
+    }
+
+    private static List<CommitData> commitData(Map<TopicPartition, Long> offsets) {
+        List<CommitData> commitData = new ArrayList<>();
+        offsets.forEach((tp, offset) -> commitData.add(new CommitData(tp.topic(), tp.partition(), offset)));
+        return commitData;
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> onRecordsReceived(ConsumerRecords<String, Long> records) {
         Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
 
-        List<RecordSetSummary> summaries = new ArrayList<>();
-        long totalRecords = 0;
-        long totalAccepted = 0;
+        List<Future<RecordSetSummary>> pending = new ArrayList<>();
         for (TopicPartition tp : records.partitions()) {
-            List<ConsumerRecord<String, String>> partitionRecords = records.records(tp);
+            List<ConsumerRecord<String, Long>> partitionRecords = records.records(tp);
 
             if (partitionRecords.isEmpty())
                 continue;
 
-            long minOffset = partitionRecords.get(0).offset();
-            long maxOffset = minOffset;
-            long count = 0;
-            long accepted = 0;
-
-            for (ConsumerRecord<String, String> record : partitionRecords) {
-              if(isFinished()) {
-                  break;
-              } else {
-                  maxOffset = record.offset();
-                  count++;
-              }
-              if (recordFilter.shouldAccept(record)) {
-                  accepted++;
-                  eventHandler.on(verify(record));
-              }
-            }
+            pending.add(workerOf(tp).submit(tp, partitionRecords));
+        }
 
-            offsets.put(tp, new OffsetAndMetadata(maxOffset + 1));
-            summaries.add(new RecordSetSummary(tp.topic(), tp.partition(),
-                    count, accepted, minOffset, maxOffset));
+        List<RecordSetSummary> summaries = new ArrayList<>();
+        long totalRecords = 0;
+        long totalAccepted = 0;
+        for (Future<RecordSetSummary> future : pending) {
+            RecordSetSummary summary = await(future);
+            if (summary.count() == 0)
+                continue;
 
-            totalRecords += count;
-            totalAccepted += accepted;
+            offsets.put(new TopicPartition(summary.topic(), summary.partition()), new OffsetAndMetadata(summary.maxOffset() + 1));
+            summaries.add(summary);
 
-            if (isFinished())
-                break;
+            totalRecords += summary.count();
+            totalAccepted += summary.accepted();
         }
 
         eventHandler.on(new RecordsConsumed(clientName, totalRecords, totalAccepted, summaries));
+
+        long now = System.currentTimeMillis();
+        if (latencyReportIntervalMs > 0 && now - lastLatencyReportMs >= latencyReportIntervalMs) {
+            eventHandler.on(latencyReport());
+            lastLatencyReportMs = now;
+        }
         return offsets;
     }
 
-    private RecordReceived verify(ConsumerRecord<String, String> record) {
-        RecordReceived recordReceived;
-        if(isInteger(record.value()) && isInSequence(record.key(), parseLong(record.value()))) {
-            recordReceived = new ValidRecordReceived(clientName, record);
-        } else {
-            recordReceived = new UnexpectedRecordReceived(clientName, record);
+    // Must only be called while no batch is verified, the histograms are owned by the worker threads
+    private LatencyReport latencyReport() {
+        LatencyHistogram total = new LatencyHistogram();
+        List<PartitionLatency> partitions = new ArrayList<>();
+        for (PartitionWorker worker : workers) {
+            partitions.addAll(worker.rollLatencies(total));
         }
-        valuesByKey.computeIfAbsent(record.key(), key -> new ArrayList<>()).add(record.value());
-        return recordReceived;
+        return new LatencyReport(clientName, new LatencyPercentiles(total), partitions);
     }
 
-    public Map<String, RecordVerificationSummary> verificationSummary() {
-        Map<String, RecordVerificationSummary> summaries = new HashMap<>();
-        for (Map.Entry<String, List<String>> entry : new HashMap<>(valuesByKey).entrySet()) {
-            String key = entry.getKey();
-            long values = entry.getValue().size();
-            long duplicates = entry.getValue().size() - new HashSet<>(entry.getValue()).size();
-            long missing = recordFilter.missingRecords(key);
-            long invalid = entry.getValue().stream().filter(value -> !isInteger(value)).count();
-            boolean outOfSequence = !isInSequence(key);
-            summaries.put(key, new RecordVerificationSummary(clientName, key, values, duplicates, missing, invalid, outOfSequence));
+    private LatencySummary latencySummary() {
+        LatencyHistogram total = new LatencyHistogram();
+        List<PartitionLatency> partitions = new ArrayList<>();
+        for (PartitionWorker worker : workers) {
+            worker.rollLatencies(new LatencyHistogram());
+            worker.totalLatencies.forEach((tp, histogram) -> {
+                partitions.add(new PartitionLatency(tp.topic(), tp.partition(), new LatencyPercentiles(histogram)));
+                total.add(histogram);
+            });
         }
-        return summaries;
+        return new LatencySummary(clientName, new LatencyPercentiles(total), partitions);
+    }
+
+    private PartitionWorker workerOf(TopicPartition tp) {
+        return workers.get(Math.floorMod(tp.partition(), workers.size()));
     }
 
-    private boolean isInteger(String value) {
-        return value != null && value.matches("\\d+");
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
     }
 
-    private boolean isInSequence(String key, long value) {
-        List<Long> values = valuesByKey.getOrDefault(key, emptyList()).stream()
-                .filter(this::isInteger).map(Long::parseLong).collect(toList());
+    private ExecutorService workerExecutor(int worker) {
+        return Executors.newSingleThreadExecutor(r -> new Thread(r, format("%s-worker-%d", clientName, worker)));
+    }
 
-        return (values.isEmpty() && value == 0) ||
-                (!values.isEmpty() && values.get(values.size() - 1).equals(value - 1) && value > values.stream().max(Long::compare).orElse(0L));
+    public Map<String, RecordVerificationSummary> verificationSummary() {
+        Map<String, RecordVerificationSummary> summaries = new HashMap<>();
+        forEachVerificationSummary(summary -> summaries.put(summary.key(), summary));
+        return summaries;
     }
 
-    private boolean isInSequence(String key) {
-        List<Long> values = valuesByKey.getOrDefault(key, emptyList()).stream()
-                .filter(this::isInteger).map(Long::parseLong).collect(toList());
-        if(!values.isEmpty()) {
-            List<Long> expected = LongStream.rangeClosed(values.get(0), values.get(values.size() - 1)).boxed().collect(toList());
-            return values.equals(expected);
+    /**
+     * Passes the summary of every key of every worker to the action, without collecting them.
+     */
+    public void forEachVerificationSummary(Consumer<RecordVerificationSummary> action) {
+        for (PartitionWorker worker : workers) {
+            worker.stateStore.forEach((key, tracker) -> {
+                long missing = worker.recordFilter.missingRecords(tracker);
+                action.accept(new RecordVerificationSummary(clientName, key, tracker.values(), tracker.duplicates(), missing, tracker.invalid(), tracker.isOutOfSequence()));
+            });
         }
-        return true;
     }
 
     private void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
@@ -246,9 +394,285 @@ public class Verifier implements Runnable, AutoCloseable {
         }
     }
 
+    /**
+     * Hands the polled batches over to a separate verification thread, so that polling and verification overlap.
+     *
+     * The consumer is only used by the polling thread. If the queue is full, the polling thread pauses all
+     * assigned partitions instead of blocking, so that it keeps polling and stays in the group. The verification
+     * thread hands back the offsets up to which the records have been verified, which are then committed by
+     * the polling thread.
+     */
+    private class Pipeline implements Runnable {
+
+        private static final long POLL_TIMEOUT_MS = 100;
+
+        private static final long IDLE_NANOS = 100_000;
+
+        private final SpscRingBuffer<ConsumerRecords<String, Long>> queue;
+
+        private final Map<TopicPartition, OffsetAndMetadata> uncommittedOffsets = new ConcurrentHashMap<>();
+
+        private final Thread thread;
+
+        private final AtomicLong verifiedBatches = new AtomicLong();
+
+        private volatile boolean stopped = false;
+
+        private volatile Throwable failure;
+
+        // Only accessed by the polling thread
+        private long enqueuedBatches = 0;
+
+        // A polled batch which did not fit into the queue
+        private ConsumerRecords<String, Long> overflow;
+
+        Pipeline(int capacity) {
+            this.queue = new SpscRingBuffer<>(capacity);
+            this.thread = new Thread(this, clientName + "-verification");
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void pollAndEnqueue() {
+            checkFailure();
+            if (overflow != null && enqueue(overflow)) {
+                overflow = null;
+                consumer.resume(consumer.paused());
+            }
+
+            ConsumerRecords<String, Long> records = consumer.poll(Duration.ofMillis(POLL_TIMEOUT_MS));
+            if (records.isEmpty()) {
+                return;
+            }
+            if (overflow == null && enqueue(records)) {
+                return;
+            }
+            // Partitions which have been assigned after the pause still return records
+            overflow = overflow == null ? records : merge(overflow, records);
+            consumer.pause(consumer.assignment());
+        }
+
+        /**
+         * Blocks until every polled batch has been verified.
+         *
+         * The partitions which have been paused because of the overflow are resumed, otherwise the partitions
+         * which stay assigned after a cooperative rebalance would never be polled again.
+         */
+        void drain() {
+            while (overflow != null) {
+                checkFailure();
+                if (enqueue(overflow)) {
+                    overflow = null;
+                    consumer.resume(consumer.paused());
+                } else {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+            while (verifiedBatches.get() < enqueuedBatches) {
+                checkFailure();
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+
+        Map<TopicPartition, OffsetAndMetadata> takeVerifiedOffsets() {
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : uncommittedOffsets.entrySet()) {
+                // An offset which has been replaced in the meantime is taken with the next call
+                if (uncommittedOffsets.remove(entry.getKey(), entry.getValue())) {
+                    offsets.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return offsets;
+        }
+
+        /**
+         * @return false if the verification has failed
+         */
+        boolean stop() {
+            stopped = true;
+            if (thread.isAlive()) {
+                LockSupport.unpark(thread);
+                boolean interrupted = false;
+                while (thread.isAlive()) {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+            return failure == null;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stopped) {
+                    ConsumerRecords<String, Long> records = queue.poll();
+                    if (records == null) {
+                        LockSupport.parkNanos(IDLE_NANOS);
+                        continue;
+                    }
+                    uncommittedOffsets.putAll(verifyBatch(records));
+                    verifiedBatches.incrementAndGet();
+                }
+            } catch (Throwable t) {
+                log.error("Error during verification, terminating verification thread: ", t);
+                failure = t;
+            }
+        }
+
+        private boolean enqueue(ConsumerRecords<String, Long> records) {
+            if (!queue.offer(records)) {
+                return false;
+            }
+            enqueuedBatches++;
+            LockSupport.unpark(thread);
+            return true;
+        }
+
+        private void checkFailure() {
+            if (failure != null) {
+                throw new IllegalStateException("Verification has failed.", failure);
+            }
+        }
+
+        private ConsumerRecords<String, Long> merge(ConsumerRecords<String, Long> first, ConsumerRecords<String, Long> second) {
+            Map<TopicPartition, List<ConsumerRecord<String, Long>>> records = new HashMap<>();
+            for (ConsumerRecords<String, Long> batch : Arrays.asList(first, second)) {
+                for (TopicPartition tp : batch.partitions()) {
+                    records.computeIfAbsent(tp, p -> new ArrayList<>()).addAll(batch.records(tp));
+                }
+            }
+            return new ConsumerRecords<>(records);
+        }
+    }
+
+    /**
+     * Verifies the records of a disjoint set of partitions with its own key state.
+     *
+     * If the worker has an executor, the records are verified on its thread, otherwise on the calling thread.
+     */
+    private class PartitionWorker {
+
+        private final RecordFilter recordFilter;
+
+        private final SequenceStateStore stateStore;
+
+        private final ExecutorService executor;
+
+        // End-to-end latencies since the last report, which are added to the totals on every report
+        private final Map<TopicPartition, LatencyHistogram> intervalLatencies = new HashMap<>();
+
+        private final Map<TopicPartition, LatencyHistogram> totalLatencies = new HashMap<>();
+
+        PartitionWorker(RecordFilter recordFilter, SequenceStateStore stateStore, ExecutorService executor) {
+            this.recordFilter = recordFilter;
+            this.stateStore = stateStore;
+            this.executor = executor;
+        }
+
+        Future<RecordSetSummary> submit(TopicPartition tp, List<ConsumerRecord<String, Long>> records) {
+            if (executor == null) {
+                return CompletableFuture.completedFuture(verify(tp, records));
+            }
+            return executor.submit(() -> verify(tp, records));
+        }
+
+        /**
+         * Adds the latencies since the last call to the totals and to the given histogram.
+         *
+         * @return the latencies since the last call for every partition which received records
+         */
+        List<PartitionLatency> rollLatencies(LatencyHistogram total) {
+            List<PartitionLatency> partitions = new ArrayList<>();
+            intervalLatencies.forEach((tp, histogram) -> {
+                if (histogram.count() == 0)
+                    return;
+                partitions.add(new PartitionLatency(tp.topic(), tp.partition(), new LatencyPercentiles(histogram)));
+                total.add(histogram);
+                totalLatencies.computeIfAbsent(tp, p -> new LatencyHistogram()).add(histogram);
+                histogram.reset();
+            });
+            return partitions;
+        }
+
+        void shutdown() {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+
+        /**
+         * Waits until the batches which have been submitted before {@link #shutdown()} are verified.
+         */
+        void awaitTermination() {
+            if (executor == null) {
+                return;
+            }
+            boolean interrupted = false;
+            while (!executor.isTerminated()) {
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        private RecordSetSummary verify(TopicPartition tp, List<ConsumerRecord<String, Long>> records) {
+            long minOffset = records.get(0).offset();
+            long maxOffset = minOffset;
+            long count = 0;
+            long accepted = 0;
+
+            // The clock is read once per batch, the latency of a record is the time since its timestamp
+            LatencyHistogram latencies = intervalLatencies.computeIfAbsent(tp, p -> new LatencyHistogram());
+            long now = System.currentTimeMillis();
+
+            for (ConsumerRecord<String, Long> record : records) {
+                if (isFinished()) {
+                    break;
+                } else {
+                    maxOffset = record.offset();
+                    count++;
+                }
+                if (record.timestamp() >= 0) {
+                    latencies.record(now - record.timestamp());
+                }
+                SequenceTracker tracker = recordFilter.accept(record);
+                if (tracker != null) {
+                    accepted++;
+                    boolean wasFinished = recordFilter.isFinished(tracker);
+                    eventHandler.on(verify(tracker, record));
+                    recordFilter.onVerified(tracker, wasFinished);
+                }
+            }
+
+            return new RecordSetSummary(tp.topic(), tp.partition(), count, accepted, minOffset, maxOffset);
+        }
+
+        private RecordReceived verify(SequenceTracker tracker, ConsumerRecord<String, Long> record) {
+            long number = sequenceOf(record);
+            if (number >= 0 && tracker.onValue(number)) {
+                return new ValidRecordReceived(clientName, record);
+            }
+            if (number < 0) {
+                tracker.onInvalidValue();
+            }
+            return new UnexpectedRecordReceived(clientName, record);
+        }
+    }
+
     public static class Builder {
 
-        private final KafkaConsumer<String, String> consumer;
+        private final KafkaConsumer<String, Long> consumer;
 
         private final String topic;
 
@@ -260,17 +684,37 @@ public class Verifier implements Runnable, AutoCloseable {
 
         private Supplier<ValueFilter> keyFilterSupplier = () -> new DistinctMaxAcceptedValueFilter(1);
 
-        private Supplier<ValueFilter> valueFilterSupplier = () -> new SequenceValueFilter(Long.MAX_VALUE);
+        private SequenceFilter valueFilter = new SequenceValueFilter(Long.MAX_VALUE);
+
+        private IntFunction<SequenceStateStore> stateStoreFactory = worker -> new HeapSequenceStateStore();
+
+        private int threads = 1;
+
+        // If no checkpoint is set, the verification state is not persisted
+        private VerifierCheckpoint checkpoint;
+
+        private int pipelineCapacity = 0;
+
+        private long latencyReportIntervalMs = 10000;
 
         private EventHandler eventHandler = new JsonPrintEventHandler();
 
-        public Builder(KafkaConsumer<String, String> consumer, String topic) {
+        public Builder(KafkaConsumer<String, Long> consumer, String topic) {
             this.consumer = consumer;
             this.topic = topic;
         }
 
         public Verifier build() {
-            return new Verifier(clientName, consumer, topic, useAutoCommit, useAsyncCommit, new RecordFilter(keyFilterSupplier, valueFilterSupplier), eventHandler);
+            // The key filter is shared by all workers, the state of the keys is owned by a worker
+            ValueFilter keyFilter = keyFilterSupplier.get();
+            List<RecordFilter> recordFilters = new ArrayList<>();
+            List<SequenceStateStore> stateStores = new ArrayList<>();
+            for (int worker = 0; worker < threads; worker++) {
+                SequenceStateStore stateStore = stateStoreFactory.apply(worker);
+                recordFilters.add(new RecordFilter(keyFilter, valueFilter, stateStore));
+                stateStores.add(stateStore);
+            }
+            return new Verifier(clientName, consumer, topic, useAutoCommit, useAsyncCommit, recordFilters, stateStores, checkpoint, pipelineCapacity, latencyReportIntervalMs, eventHandler);
         }
 
         public Builder withClientName(String clientName) {
@@ -293,8 +737,56 @@ public class Verifier implements Runnable, AutoCloseable {
             return this;
         }
 
-        public Builder withValueFilterSupplier(Supplier<ValueFilter> valueFilterSupplier) {
-            this.valueFilterSupplier = requireNonNull(valueFilterSupplier);
+        /**
+         * @param valueFilter the filter which is applied to the records of every key
+         */
+        public Builder withValueFilter(SequenceFilter valueFilter) {
+            this.valueFilter = requireNonNull(valueFilter);
+            return this;
+        }
+
+        /**
+         * @param stateStoreFactory creates the state store of the worker with the given index
+         */
+        public Builder withStateStoreFactory(IntFunction<SequenceStateStore> stateStoreFactory) {
+            this.stateStoreFactory = requireNonNull(stateStoreFactory);
+            return this;
+        }
+
+        public Builder withThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be >= 1");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder withCheckpoint(VerifierCheckpoint checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        /**
+         * @param pipelineCapacity the number of polled batches which may wait for verification on a separate
+         *                         thread, or 0 to verify the records on the polling thread
+         */
+        public Builder withPipeline(int pipelineCapacity) {
+            if (pipelineCapacity < 0) {
+                throw new IllegalArgumentException("pipelineCapacity must be >= 0");
+            }
+            this.pipelineCapacity = pipelineCapacity;
+            return this;
+        }
+
+        /**
+         * @param latencyReportIntervalMs the interval of the latency reports, or 0 to only report the latencies
+         *                                in the final summary
+         */
+        public Builder withLatencyReportInterval(long latencyReportIntervalMs) {
+            if (latencyReportIntervalMs < 0) {
+                throw new IllegalArgumentException("latencyReportIntervalMs must be >= 0");
+            }
+            this.latencyReportIntervalMs = latencyReportIntervalMs;
             return this;
         }
 
@@ -304,36 +796,71 @@ public class Verifier implements Runnable, AutoCloseable {
         }
     }
 
+    // The SequenceDeserializer returns null for values which are not a sequence number
+    private static long sequenceOf(ConsumerRecord<String, Long> record) {
+        Long value = record.value();
+        return value != null ? value : -1;
+    }
+
+    /**
+     * Filters the records of a worker. The key filter may be shared by several workers, the state of every key is
+     * read from its tracker in the state store of the worker.
+     */
     public static class RecordFilter {
 
         private final ValueFilter keyFilter;
 
-        private final Supplier<ValueFilter> valueFilterSupplier;
+        private final SequenceFilter valueFilter;
 
-        private final Map<String, ValueFilter> valueFiltersPerKey;
+        private final SequenceStateStore stateStore;
 
-        public RecordFilter(Supplier<ValueFilter> keyFilterSupplier, Supplier<ValueFilter> valueFilterSupplier) {
-            this(keyFilterSupplier.get(), valueFilterSupplier);
-        }
+        // Keys only ever become finished, so it is sufficient to count the transitions.
+        // The counters are only written by the thread which verifies the records, but read by all workers.
+        private volatile long unfinishedKeys = 0;
 
-        public RecordFilter(ValueFilter keyFilter, Supplier<ValueFilter> valueFilterSupplier) {
-            this(keyFilter, valueFilterSupplier, new ConcurrentHashMap<>());
-        }
+        private volatile long consumedRecords = 0;
 
-        RecordFilter(ValueFilter keyFilter, Supplier<ValueFilter> valueFilterSupplier, Map<String, ValueFilter> valueFiltersPerKey) {
+        public RecordFilter(ValueFilter keyFilter, SequenceFilter valueFilter, SequenceStateStore stateStore) {
             this.keyFilter = keyFilter;
-            this.valueFilterSupplier = valueFilterSupplier;
-            this.valueFiltersPerKey = valueFiltersPerKey;
+            this.valueFilter = valueFilter;
+            this.stateStore = stateStore;
+            recount();
         }
 
-        public boolean shouldAccept(ConsumerRecord<String, String> record) {
-            return keyFilter.shouldAccept(record.key()) &&
-                    valueFiltersPerKey.computeIfAbsent(record.key(), key -> valueFilterSupplier.get()).shouldAccept(record.value());
+        /**
+         * @return the tracker of the record's key if the record is accepted, otherwise null
+         */
+        public SequenceTracker accept(ConsumerRecord<String, Long> record) {
+            if (!keyFilter.shouldAccept(record.key())) {
+                return null;
+            }
+            SequenceTracker tracker = stateStore.tracker(record.key());
+            return valueFilter.shouldAccept(tracker, sequenceOf(record)) ? tracker : null;
         }
 
         boolean isFinished() {
-            return keyFilter.isFinished() &&
-                    valueFiltersPerKey.values().stream().allMatch(ValueFilter::isFinished);
+            return keyFilter.isFinished() && unfinishedKeys == 0;
+        }
+
+        boolean isFinished(SequenceTracker tracker) {
+            return valueFilter.isFinished(tracker);
+        }
+
+        /**
+         * Counts an accepted record after it has been recorded by the tracker of its key.
+         *
+         * @param wasFinished whether the key has been finished before the record has been recorded
+         */
+        void onVerified(SequenceTracker tracker, boolean wasFinished) {
+            consumedRecords++;
+            if (!wasFinished) {
+                // The first record of a key adds it to the unfinished keys, unless it already finishes the key
+                long unfinished = tracker.values() == 1 ? 1 : 0;
+                if (valueFilter.isFinished(tracker)) {
+                    unfinished--;
+                }
+                unfinishedKeys += unfinished;
+            }
         }
 
         long consumedKeys() {
@@ -345,11 +872,35 @@ public class Verifier implements Runnable, AutoCloseable {
         }
 
         long consumedRecords() {
-            return valueFiltersPerKey.values().stream().mapToLong(ValueFilter::accepted).sum();
+            return consumedRecords;
+        }
+
+        long missingRecords(SequenceTracker tracker) {
+            return valueFilter.missing(tracker);
         }
 
-        long missingRecords(String key) {
-            return valueFiltersPerKey.getOrDefault(key, valueFilterSupplier.get()).missing();
+        // The key filter may be shared by several record filters, so it is written separately
+        void writeKeyFilterTo(DataOutput out) throws IOException {
+            keyFilter.writeTo(out);
+        }
+
+        void readKeyFilterFrom(DataInput in) throws IOException {
+            keyFilter.readFrom(in);
+        }
+
+        /**
+         * Recounts the consumed records and unfinished keys, which must be done after the state store has been
+         * restored.
+         */
+        void recount() {
+            consumedRecords = 0;
+            unfinishedKeys = 0;
+            stateStore.forEach((key, tracker) -> {
+                consumedRecords += tracker.values();
+                if (!valueFilter.isFinished(tracker)) {
+                    unfinishedKeys++;
+                }
+            });
         }
 
     }
@@ -365,6 +916,13 @@ public class Verifier implements Runnable, AutoCloseable {
         boolean isFinished();
 
         long missing();
+
+        void writeTo(DataOutput out) throws IOException;
+
+        /**
+         * Restores the state which has been written by {@link #writeTo(DataOutput)}.
+         */
+        void readFrom(DataInput in) throws IOException;
     }
 
     public static class DistinctMaxAcceptedValueFilter implements ValueFilter {
@@ -385,10 +943,16 @@ public class Verifier implements Runnable, AutoCloseable {
             this.acceptedValues = acceptedValues;
         }
 
+        // The key filter is shared by all workers, so only adding a new value is synchronized
         @Override
         public boolean shouldAccept(String value) {
-            if (acceptedValues.size() < maxValues) {
-                acceptedValues.add(value);
+            if (acceptedValues.contains(value)) {
+                return true;
+            }
+            synchronized (acceptedValues) {
+                if (acceptedValues.size() < maxValues) {
+                    acceptedValues.add(value);
+                }
             }
             return acceptedValues.contains(value);
         }
@@ -412,6 +976,23 @@ public class Verifier implements Runnable, AutoCloseable {
         public long missing() {
             return maxAccepted() - accepted();
         }
+
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeInt(acceptedValues.size());
+            for (String value : acceptedValues) {
+                writeNullableString(out, value);
+            }
+        }
+
+        @Override
+        public void readFrom(DataInput in) throws IOException {
+            acceptedValues.clear();
+            int values = in.readInt();
+            for (int i = 0; i < values; i++) {
+                acceptedValues.add(readNullableString(in));
+            }
+        }
     }
 
     public static class FixedValueFilter extends DistinctMaxAcceptedValueFilter {
@@ -430,48 +1011,44 @@ public class Verifier implements Runnable, AutoCloseable {
 
     }
 
-    public static class MaxAcceptedValueFilter implements ValueFilter {
+    /**
+     * Decides which records of a key are verified. The state of the key is read from its tracker, so a single
+     * filter is used for all keys.
+     */
+    public interface SequenceFilter {
 
-        protected final long maxValues;
+        /**
+         * @param number the sequence number of the record, or -1 if its value is not a sequence number
+         */
+        boolean shouldAccept(SequenceTracker tracker, long number);
 
-        protected final List<String> acceptedValues;
+        boolean isFinished(SequenceTracker tracker);
 
-        public MaxAcceptedValueFilter(long maxValues) {
-            this(maxValues, new CopyOnWriteArrayList<>());
-        }
+        long missing(SequenceTracker tracker);
+    }
 
-        MaxAcceptedValueFilter(long maxValues, List<String> acceptedValues) {
-            this.maxValues = maxValues;
-            this.acceptedValues = acceptedValues;
-        }
+    public static class MaxAcceptedValueFilter implements SequenceFilter {
 
-        @Override
-        public boolean shouldAccept(String value) {
-            if(!isFinished()) {
-                acceptedValues.add(value);
-                return true;
-            }
-            return false;
-        }
+        protected final long maxValues;
 
-        @Override
-        public long maxAccepted() {
-            return maxValues;
+        public MaxAcceptedValueFilter(long maxValues) {
+            this.maxValues = maxValues;
         }
 
+        // Every accepted record is recorded by the tracker, either as a value or as invalid
         @Override
-        public long accepted() {
-            return acceptedValues.size();
+        public boolean shouldAccept(SequenceTracker tracker, long number) {
+            return tracker.values() < maxValues;
         }
 
         @Override
-        public boolean isFinished() {
-            return accepted() >= maxAccepted();
+        public boolean isFinished(SequenceTracker tracker) {
+            return tracker.values() >= maxValues;
         }
 
         @Override
-        public long missing() {
-            return maxAccepted() - accepted();
+        public long missing(SequenceTracker tracker) {
+            return maxValues - tracker.values();
         }
 
     }
@@ -486,33 +1063,30 @@ public class Verifier implements Runnable, AutoCloseable {
         }
 
         @Override
-        public boolean isFinished() {
-            return containsAllNumbersOfSequence();
+        public boolean isFinished(SequenceTracker tracker) {
+            return missing(tracker) <= 0;
         }
 
         @Override
-        public long missing() {
-            Set<Long> sequence = LongStream.range(0, numbers).boxed().collect(toUnmodifiableSet());
-            Set<Long> values = acceptedValues.stream()
-                    .filter(this::isInteger).map(Long::parseLong).collect(Collectors.toSet());
-            return sequence.size() - values.size();
+        public long missing(SequenceTracker tracker) {
+            return tracker.missing(numbers);
         }
+    }
 
-        private boolean containsAllNumbersOfSequence() {
-            List<Long> sequence = LongStream.range(0, numbers).boxed().collect(toUnmodifiableList());
-            List<Long> values = acceptedValues.stream()
-                    .filter(this::isInteger).map(Long::parseLong).collect(toList());
-            return values.containsAll(sequence);
+    static void writeNullableString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
         }
+    }
 
-        private boolean isInteger(String value) {
-            return value != null && value.matches("\\d+");
-        }
+    static String readNullableString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
     }
 
     public static class ValidRecordReceived extends RecordReceived {
 
-        public ValidRecordReceived(String clientName, ConsumerRecord<String, String> record) {
+        public ValidRecordReceived(String clientName, ConsumerRecord<String, Long> record) {
             super(clientName, record);
         }
 
@@ -524,7 +1098,7 @@ public class Verifier implements Runnable, AutoCloseable {
 
     public static class UnexpectedRecordReceived extends RecordReceived {
 
-        public UnexpectedRecordReceived(String clientName, ConsumerRecord<String, String> record) {
+        public UnexpectedRecordReceived(String clientName, ConsumerRecord<String, Long> record) {
             super(clientName, record);
         }
 
@@ -673,9 +1247,9 @@ public class Verifier implements Runnable, AutoCloseable {
     @JsonPropertyOrder({ "timestamp", "name", "key", "value", "topic", "partition", "offset" })
     public static class RecordReceived extends ClientEvent {
 
-        private final ConsumerRecord<String, String> record;
+        private final ConsumerRecord<String, Long> record;
 
-        public RecordReceived(String clientName, ConsumerRecord<String, String> record) {
+        public RecordReceived(String clientName, ConsumerRecord<String, Long> record) {
             super(clientName);
             this.record = record;
         }
@@ -700,8 +1274,14 @@ public class Verifier implements Runnable, AutoCloseable {
             return record.key();
         }
 
+        // The sequence number as text, null if the value is not one
         @JsonProperty
         public String value() {
+            return record.value() != null ? record.value().toString() : null;
+        }
+
+        // The sequence number, null if the value is not one
+        public Long sequence() {
             return record.value();
         }
 
@@ -710,6 +1290,10 @@ public class Verifier implements Runnable, AutoCloseable {
             return record.offset();
         }
 
+        public long recordTimestamp() {
+            return record.timestamp();
+        }
+
     }
 
     public static class PartitionData {
@@ -768,6 +1352,161 @@ public class Verifier implements Runnable, AutoCloseable {
 
     }
 
+    public static class CheckpointWritten extends ClientEvent {
+
+        private final long checkpointId;
+        private final List<CommitData> offsets;
+
+        public CheckpointWritten(String clientName, long checkpointId, List<CommitData> offsets) {
+            super(clientName);
+            this.checkpointId = checkpointId;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public String name() {
+            return "checkpoint_written";
+        }
+
+        @JsonProperty
+        public long checkpointId() {
+            return checkpointId;
+        }
+
+        @JsonProperty
+        public List<CommitData> offsets() {
+            return offsets;
+        }
+    }
+
+    public static class CheckpointRestored extends ClientEvent {
+
+        private final long checkpointId;
+        private final List<CommitData> offsets;
+
+        public CheckpointRestored(String clientName, long checkpointId, List<CommitData> offsets) {
+            super(clientName);
+            this.checkpointId = checkpointId;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public String name() {
+            return "checkpoint_restored";
+        }
+
+        @JsonProperty
+        public long checkpointId() {
+            return checkpointId;
+        }
+
+        @JsonProperty
+        public List<CommitData> offsets() {
+            return offsets;
+        }
+    }
+
+    /**
+     * End-to-end latencies in milliseconds of the records received since the previous report.
+     */
+    public static class LatencyReport extends ClientEvent {
+
+        private final LatencyPercentiles latency;
+        private final List<PartitionLatency> partitions;
+
+        public LatencyReport(String clientName, LatencyPercentiles latency, List<PartitionLatency> partitions) {
+            super(clientName);
+            this.latency = latency;
+            this.partitions = partitions;
+        }
+
+        @Override
+        public String name() {
+            return "latency_report";
+        }
+
+        @JsonProperty
+        public LatencyPercentiles latency() {
+            return latency;
+        }
+
+        @JsonProperty
+        public List<PartitionLatency> partitions() {
+            return partitions;
+        }
+    }
+
+    /**
+     * End-to-end latencies in milliseconds of all records received by the verifier.
+     */
+    public static class LatencySummary extends LatencyReport {
+
+        public LatencySummary(String clientName, LatencyPercentiles latency, List<PartitionLatency> partitions) {
+            super(clientName, latency, partitions);
+        }
+
+        @Override
+        public String name() {
+            return "latency_summary";
+        }
+    }
+
+    @JsonPropertyOrder({ "count", "p50", "p99", "p999", "max" })
+    public static class LatencyPercentiles {
+        private final long count;
+        private final long p50;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        public LatencyPercentiles(LatencyHistogram histogram) {
+            this.count = histogram.count();
+            this.p50 = histogram.valueAtPercentile(50.0);
+            this.p99 = histogram.valueAtPercentile(99.0);
+            this.p999 = histogram.valueAtPercentile(99.9);
+            this.max = histogram.max();
+        }
+
+        @JsonProperty
+        public long count() {
+            return count;
+        }
+
+        @JsonProperty
+        public long p50() {
+            return p50;
+        }
+
+        @JsonProperty
+        public long p99() {
+            return p99;
+        }
+
+        @JsonProperty
+        public long p999() {
+            return p999;
+        }
+
+        @JsonProperty
+        public long max() {
+            return max;
+        }
+    }
+
+    public static class PartitionLatency extends PartitionData {
+        private final LatencyPercentiles latency;
+
+        public PartitionLatency(String topic, int partition, LatencyPercentiles latency) {
+            super(topic, partition);
+            this.latency = latency;
+        }
+
+        @JsonProperty
+        public LatencyPercentiles latency() {
+            return latency;
+        }
+    }
+
     public static class CommitData extends PartitionData {
         private final long offset;
 
@@ -0,0 +1,128 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import net.uweeisele.examples.kafka.sequence.state.SequenceStateStore;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Persists the verification state of a {@link Verifier} together with the offsets up to which the
+ * records have been verified.
+ *
+ * A checkpoint is written to a temporary file which atomically replaces the previous checkpoint, so the
+ * checkpoint file is always complete. After a restore the verifier continues at the offsets of the
+ * checkpoint, independent of the offsets which have been committed afterwards.
+ */
+public class VerifierCheckpoint {
+
+    private static final int MAGIC = 0x56434b50;
+    private static final int VERSION = 3;
+
+    private final Path file;
+
+    private final long intervalMs;
+
+    private long lastCheckpointMs = System.currentTimeMillis();
+
+    private long checkpointId = 0;
+
+    public VerifierCheckpoint(Path file, long intervalMs) {
+        this.file = file;
+        this.intervalMs = intervalMs;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public long checkpointId() {
+        return checkpointId;
+    }
+
+    public boolean isDue(long nowMs) {
+        return nowMs - lastCheckpointMs >= intervalMs;
+    }
+
+    /**
+     * @param recordFilters the record filter of every worker, which all share the same key filter
+     * @param stateStores the state store of every worker, from which the record filters read the state of the keys
+     */
+    long write(Map<TopicPartition, Long> offsets, List<Verifier.RecordFilter> recordFilters, List<SequenceStateStore> stateStores) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long id = checkpointId + 1;
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(id);
+            out.writeInt(offsets.size());
+            for (Map.Entry<TopicPartition, Long> entry : offsets.entrySet()) {
+                out.writeUTF(entry.getKey().topic());
+                out.writeInt(entry.getKey().partition());
+                out.writeLong(entry.getValue());
+            }
+            out.writeInt(recordFilters.size());
+            recordFilters.get(0).writeKeyFilterTo(out);
+            for (int worker = 0; worker < recordFilters.size(); worker++) {
+                stateStores.get(worker).writeTo(out);
+            }
+            out.flush();
+            fileOut.getChannel().force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not write checkpoint %s.", temp), e);
+        }
+        try {
+            Files.move(temp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not replace checkpoint %s.", file), e);
+        }
+        checkpointId = id;
+        lastCheckpointMs = System.currentTimeMillis();
+        return id;
+    }
+
+    /**
+     * Restores the record filter and the state store from the checkpoint file, if it exists.
+     *
+     * @return the offsets at which the verification must be continued, or an empty map if there is no checkpoint
+     */
+    Map<TopicPartition, Long> restore(List<Verifier.RecordFilter> recordFilters, List<SequenceStateStore> stateStores) {
+        Map<TopicPartition, Long> offsets = new HashMap<>();
+        if (!Files.exists(file)) {
+            return offsets;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("File is not a verifier checkpoint of version " + VERSION + ".");
+            }
+            long id = in.readLong();
+            int partitions = in.readInt();
+            for (int i = 0; i < partitions; i++) {
+                offsets.put(new TopicPartition(in.readUTF(), in.readInt()), in.readLong());
+            }
+            int workers = in.readInt();
+            if (workers != recordFilters.size()) {
+                throw new IOException(format("Checkpoint has been written by %d workers, but %d are configured.", workers, recordFilters.size()));
+            }
+            recordFilters.get(0).readKeyFilterFrom(in);
+            for (int worker = 0; worker < workers; worker++) {
+                stateStores.get(worker).readFrom(in);
+                recordFilters.get(worker).recount();
+            }
+            checkpointId = id;
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not restore checkpoint %s.", file), e);
+        }
+        lastCheckpointMs = System.currentTimeMillis();
+        return offsets;
+    }
+}
@@ -1,10 +1,14 @@
 package net.uweeisele.examples.kafka.sequence;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.MutuallyExclusiveGroup;
 import net.sourceforge.argparse4j.inf.Namespace;
+import net.uweeisele.examples.kafka.sequence.state.HeapSequenceStateStore;
+import net.uweeisele.examples.kafka.sequence.state.MappedSequenceStateStore;
+import net.uweeisele.examples.kafka.sequence.state.SequenceStateStore;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.RangeAssignor;
@@ -12,12 +16,14 @@ import org.apache.kafka.clients.consumer.RoundRobinAssignor;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.utils.Exit;
 
+import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.function.IntFunction;
 import java.util.function.Supplier;
 
 import static java.lang.String.format;
@@ -35,20 +41,21 @@ public class VerifierCommand {
         }
 
         try {
-            final Verifier verifier = createFromArgs(parser, args);
-            Runtime.getRuntime().addShutdownHook(new Thread(verifier::close));
-            Executors.newSingleThreadScheduledExecutor(daemonThreadFactory()).schedule(verifier::close, timeoutMsFromArgs(parser, args), MILLISECONDS);
-
-            verifier.run();
+            Namespace res = parser.parseArgs(args);
+            try (EventHandler eventHandler = EventArguments.createEventHandler(res)) {
+                final Verifier verifier = createFromArgs(parser, res, eventHandler);
+                Runtime.getRuntime().addShutdownHook(EventArguments.shutdownHook(eventHandler, verifier::close));
+                Executors.newSingleThreadScheduledExecutor(daemonThreadFactory()).schedule(verifier::close, timeoutMsFromArgs(res), MILLISECONDS);
+
+                verifier.run();
+            }
         } catch (ArgumentParserException e) {
             parser.handleError(e);
             Exit.exit(1);
         }
     }
 
-    private static Verifier createFromArgs(ArgumentParser parser, String[] args) throws ArgumentParserException {
-        Namespace res = parser.parseArgs(args);
-
+    private static Verifier createFromArgs(ArgumentParser parser, Namespace res, EventHandler eventHandler) throws ArgumentParserException {
         String topic = res.getString("topic");
         boolean useAutoCommit = res.getBoolean("useAutoCommit");
 
@@ -68,17 +75,38 @@ public class VerifierCommand {
         actualConsumerProperties.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, Integer.toString(res.getInt("sessionTimeout")));
         actualConsumerProperties.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, res.getString("assignmentStrategy"));
 
-        StringDeserializer deserializer = new StringDeserializer();
-        KafkaConsumer<String, String> consumer = new KafkaConsumer<>(actualConsumerProperties, deserializer, deserializer);
+        KafkaConsumer<String, Long> consumer = new KafkaConsumer<>(actualConsumerProperties, new StringDeserializer(), new SequenceDeserializer());
 
         Supplier<Verifier.ValueFilter> keyFilterSupplier;
         List<String> keys = res.getList("keys");
+        Integer numKeys = res.getInt("numKeys");
+        Long keySeed = res.getLong("keySeed");
+        if ((numKeys != null) != (keySeed != null)) {
+            throw new ArgumentParserException("--num-keys and --key-seed must be used together.", parser);
+        }
         if (keys != null) {
            keyFilterSupplier = () -> new Verifier.FixedValueFilter(new HashSet<>(keys));
+        } else if (numKeys != null) {
+            // All slices of the key space, whichever generator sends them
+            List<String> seededKeys = new KeySpace(keySeed, numKeys).keys();
+            keyFilterSupplier = () -> new Verifier.FixedValueFilter(new HashSet<>(seededKeys));
         } else {
             keyFilterSupplier = () -> new Verifier.DistinctMaxAcceptedValueFilter(res.getLong("maxKeys"));
         }
 
+        int threads = res.getInt("threads");
+        String stateDir = res.getString("stateDir");
+        IntFunction<SequenceStateStore> stateStoreFactory;
+        if (stateDir == null) {
+            stateStoreFactory = worker -> new HeapSequenceStateStore();
+        } else if (threads > 1) {
+            stateStoreFactory = worker -> new MappedSequenceStateStore(Paths.get(stateDir, "worker-" + worker));
+        } else {
+            stateStoreFactory = worker -> new MappedSequenceStateStore(Paths.get(stateDir));
+        }
+
+        String checkpointFile = res.getString("checkpointFile");
+
         final long sequenceNumbers = res.getLong("sequenceNumbers") >= 0 ? res.getLong("sequenceNumbers") : Long.MAX_VALUE;
 
         return new Verifier.Builder(consumer, topic)
@@ -86,7 +114,13 @@ public class VerifierCommand {
                 .withAsyncCommit(false)
                 .withAutoCommit(useAutoCommit)
                 .withKeyFilterSupplier(keyFilterSupplier)
-                .withValueFilterSupplier(() -> new Verifier.SequenceValueFilter(sequenceNumbers))
+                .withValueFilter(new Verifier.SequenceValueFilter(sequenceNumbers))
+                .withStateStoreFactory(stateStoreFactory)
+                .withThreads(threads)
+                .withPipeline(res.getInt("pipelineCapacity"))
+                .withLatencyReportInterval(res.getLong("latencyReportInterval"))
+                .withEventHandler(eventHandler)
+                .withCheckpoint(checkpointFile != null ? new VerifierCheckpoint(Paths.get(checkpointFile), res.getLong("checkpointInterval")) : null)
                 .build();
     }
 
@@ -98,8 +132,7 @@ public class VerifierCommand {
         };
     }
 
-    private static long timeoutMsFromArgs(ArgumentParser parser, String[] args) throws ArgumentParserException {
-        Namespace res = parser.parseArgs(args);
+    private static long timeoutMsFromArgs(Namespace res) {
         return res.getInt("maxDuration") >= 0 ? res.getInt("maxDuration") : Long.MAX_VALUE;
 
     }
@@ -162,6 +195,22 @@ public class VerifierCommand {
                 .metavar("KEY")
                 .dest("keys")
                 .help("Key which should be consumed. Can be specified multiple times.");
+        keyGroup.addArgument("--num-keys")
+                .action(store())
+                .required(false)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("NUM-KEYS")
+                .dest("numKeys")
+                .help("Consume the keys which generators with the same --num-keys and --key-seed produce, including all their slices. Requires --key-seed.");
+
+        parser.addArgument("--key-seed")
+                .action(store())
+                .required(false)
+                .type(Long.class)
+                .metavar("SEED")
+                .dest("keySeed")
+                .help("Seed from which the keys of --num-keys are derived.");
 
         parser.addArgument("--sequence-numbers")
                 .action(store())
@@ -213,6 +262,60 @@ public class VerifierCommand {
                 .dest("assignmentStrategy")
                 .help("Set assignment strategy (e.g. " + RoundRobinAssignor.class.getName() + ")");
 
+        parser.addArgument("--threads")
+                .action(store())
+                .required(false)
+                .setDefault(1)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("THREADS")
+                .help("Verify the assigned partitions with this many worker threads. Each partition is always verified by the same worker. The state of the keys stays in this process, a partition which a rebalance moves to another consumer process is verified there with fresh state. Default is 1.");
+
+        parser.addArgument("--pipeline-capacity")
+                .action(store())
+                .required(false)
+                .setDefault(0)
+                .type(Integer.class)
+                .choices(Arguments.range(0, 1 << 30))
+                .metavar("BATCHES")
+                .dest("pipelineCapacity")
+                .help("Verify the polled records on a separate thread and let up to this many polled batches wait for verification. The assigned partitions are paused while the queue is full. With auto commit, offsets may be committed before the records are verified. Default is 0, which verifies the records on the polling thread.");
+
+        parser.addArgument("--latency-report-interval")
+                .action(store())
+                .required(false)
+                .setDefault(10000L)
+                .type(Long.class)
+                .choices(Arguments.range(0L, Long.MAX_VALUE))
+                .metavar("INTERVAL_MS")
+                .dest("latencyReportInterval")
+                .help("Set the interval in milliseconds in which the end-to-end latencies of the received records are reported. The latency is measured from the record timestamp. Default is 10 seconds, 0 only reports them in the final summary.");
+
+        parser.addArgument("--state-dir")
+                .action(store())
+                .required(false)
+                .type(String.class)
+                .metavar("STATE-DIR")
+                .dest("stateDir")
+                .help("Keep the verification state in memory-mapped files in this directory instead of on the heap. With multiple threads, every worker uses its own subdirectory. Existing state in the directory is deleted. The keys themselves are still kept on the heap to filter the records.");
+
+        parser.addArgument("--checkpoint-file")
+                .action(store())
+                .required(false)
+                .type(String.class)
+                .metavar("CHECKPOINT-FILE")
+                .dest("checkpointFile")
+                .help("Periodically write the verification state and the verified offsets to this file. If the file exists on startup, the state is restored and the verification continues at the offsets of the checkpoint.");
+
+        parser.addArgument("--checkpoint-interval")
+                .action(store())
+                .required(false)
+                .setDefault(10000L)
+                .type(Long.class)
+                .metavar("INTERVAL_MS")
+                .dest("checkpointInterval")
+                .help("Set the interval in milliseconds in which checkpoints are written. Default is 10 seconds.");
+
         parser.addArgument("--consumer.config")
                 .action(store())
                 .required(false)
@@ -220,6 +323,8 @@ public class VerifierCommand {
                 .metavar("CONFIG_FILE")
                 .help("Consumer config properties file (config options shared with command line arguments will be overridden by the arguments).");
 
+        EventArguments.addArguments(parser, "Default is 0, which writes every event on the thread which emits it.");
+
         return parser;
     }
 
@@ -0,0 +1,265 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import net.uweeisele.examples.kafka.sequence.Generator.FailedSend;
+import net.uweeisele.examples.kafka.sequence.Generator.SuccessfulSend;
+import net.uweeisele.examples.kafka.sequence.Verifier.LatencyPercentiles;
+import net.uweeisele.examples.kafka.sequence.Verifier.PartitionData;
+import net.uweeisele.examples.kafka.sequence.Verifier.RecordReceived;
+import net.uweeisele.examples.kafka.sequence.Verifier.UnexpectedRecordReceived;
+import net.uweeisele.examples.kafka.sequence.Verifier.ValidRecordReceived;
+import net.uweeisele.examples.kafka.sequence.event.ClientEvent;
+import net.uweeisele.examples.kafka.sequence.event.ShutdownComplete;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.*;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Aggregates the events which are emitted per record into one {@link WindowSummary} per client and fixed
+ * time window, all other events are passed on to the delegate.
+ *
+ * The windows of all clients which have ended are emitted with the first event of any client after their end
+ * and on {@link #flush()}, so a client which has become idle doesn't hold back its last window. The window of
+ * a client is also emitted when the client emits {@link ShutdownComplete}. Events which arrive late, after
+ * their window has been emitted, are counted in the next window of the client.
+ */
+public class WindowedEventHandler implements EventHandler {
+
+    private final EventHandler delegate;
+
+    private final long windowMs;
+
+    private final Map<String, Window> windows = new HashMap<>();
+
+    // End of the last emitted window of every client, no later window starts before it
+    private final Map<String, Long> emittedUntil = new HashMap<>();
+
+    public WindowedEventHandler(EventHandler delegate, long windowMs) {
+        if (windowMs <= 0) {
+            throw new IllegalArgumentException("windowMs must be > 0");
+        }
+        this.delegate = requireNonNull(delegate);
+        this.windowMs = windowMs;
+    }
+
+    @Override
+    public synchronized void on(ClientEvent event) {
+        closeWindows(event.timestamp());
+        if (aggregate(event)) {
+            return;
+        }
+        if (event instanceof ShutdownComplete) {
+            Window window = windows.remove(event.client());
+            if (window != null) {
+                delegate.on(window.summary());
+            }
+            emittedUntil.remove(event.client());
+        }
+        delegate.on(event);
+    }
+
+    @Override
+    public synchronized void flush() {
+        closeWindows(System.currentTimeMillis());
+        delegate.flush();
+    }
+
+    /**
+     * Emits the open windows, including those which haven't ended yet, and closes the delegate.
+     */
+    @Override
+    public synchronized void close() {
+        closeWindows(Long.MAX_VALUE);
+        delegate.close();
+    }
+
+    private void closeWindows(long now) {
+        if (windows.isEmpty()) {
+            return;
+        }
+        for (Iterator<Window> it = windows.values().iterator(); it.hasNext(); ) {
+            Window window = it.next();
+            if (now >= window.end) {
+                delegate.on(window.summary());
+                emittedUntil.put(window.client, window.end);
+                it.remove();
+            }
+        }
+    }
+
+    private boolean aggregate(ClientEvent event) {
+        if (event instanceof SuccessfulSend) {
+            SuccessfulSend send = (SuccessfulSend) event;
+            Window window = window(event);
+            window.acked++;
+            window.onRecord(send.topic(), send.partition(), send.offset(), event.timestamp(), send.recordTimestamp());
+        } else if (event instanceof FailedSend) {
+            window(event).failed++;
+        } else if (event instanceof ValidRecordReceived || event instanceof UnexpectedRecordReceived) {
+            RecordReceived record = (RecordReceived) event;
+            Window window = window(event);
+            if (event instanceof ValidRecordReceived) {
+                window.valid++;
+            } else {
+                window.unexpected++;
+            }
+            window.onRecord(record.topic(), record.partition(), record.offset(), event.timestamp(), record.recordTimestamp());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private Window window(ClientEvent event) {
+        Window window = windows.get(event.client());
+        if (window == null) {
+            long start = event.timestamp() - Math.floorMod(event.timestamp(), windowMs);
+            start = Math.max(start, emittedUntil.getOrDefault(event.client(), Long.MIN_VALUE));
+            window = new Window(event.client(), start, start + windowMs);
+            windows.put(event.client(), window);
+        }
+        return window;
+    }
+
+    private static class Window {
+
+        private final String client;
+        private final long start;
+        private final long end;
+
+        private long acked = 0;
+        private long failed = 0;
+        private long valid = 0;
+        private long unexpected = 0;
+
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        // count, min offset and max offset per partition
+        private final Map<TopicPartition, long[]> partitions = new HashMap<>();
+
+        Window(String client, long start, long end) {
+            this.client = client;
+            this.start = start;
+            this.end = end;
+        }
+
+        void onRecord(String topic, int partition, long offset, long eventTimestamp, long recordTimestamp) {
+            long[] range = partitions.computeIfAbsent(new TopicPartition(topic, partition), tp -> new long[] { 0, Long.MAX_VALUE, Long.MIN_VALUE });
+            range[0]++;
+            range[1] = Math.min(range[1], offset);
+            range[2] = Math.max(range[2], offset);
+            if (recordTimestamp >= 0) {
+                latencies.record(eventTimestamp - recordTimestamp);
+            }
+        }
+
+        WindowSummary summary() {
+            List<PartitionWindow> partitionWindows = new ArrayList<>();
+            partitions.forEach((tp, range) -> partitionWindows.add(new PartitionWindow(tp.topic(), tp.partition(), range[0], range[1], range[2])));
+            return new WindowSummary(client, start, end, acked, failed, valid, unexpected, new LatencyPercentiles(latencies), partitionWindows);
+        }
+    }
+
+    /**
+     * Records of a client within a time window. The latency is measured from the record timestamp to the
+     * acknowledgement of a send or the receipt of a record, in milliseconds.
+     */
+    public static class WindowSummary extends ClientEvent {
+
+        private final long windowStart;
+        private final long windowEnd;
+        private final long acked;
+        private final long failed;
+        private final long valid;
+        private final long unexpected;
+        private final LatencyPercentiles latency;
+        private final List<PartitionWindow> partitions;
+
+        public WindowSummary(String clientName, long windowStart, long windowEnd, long acked, long failed, long valid, long unexpected, LatencyPercentiles latency, List<PartitionWindow> partitions) {
+            super(clientName);
+            this.windowStart = windowStart;
+            this.windowEnd = windowEnd;
+            this.acked = acked;
+            this.failed = failed;
+            this.valid = valid;
+            this.unexpected = unexpected;
+            this.latency = latency;
+            this.partitions = partitions;
+        }
+
+        @Override
+        public String name() {
+            return "window_summary";
+        }
+
+        @JsonProperty
+        public long windowStart() {
+            return windowStart;
+        }
+
+        @JsonProperty
+        public long windowEnd() {
+            return windowEnd;
+        }
+
+        @JsonProperty
+        public long acked() {
+            return acked;
+        }
+
+        @JsonProperty
+        public long failed() {
+            return failed;
+        }
+
+        @JsonProperty
+        public long valid() {
+            return valid;
+        }
+
+        @JsonProperty
+        public long unexpected() {
+            return unexpected;
+        }
+
+        @JsonProperty
+        public LatencyPercentiles latency() {
+            return latency;
+        }
+
+        @JsonProperty
+        public List<PartitionWindow> partitions() {
+            return partitions;
+        }
+    }
+
+    public static class PartitionWindow extends PartitionData {
+        private final long count;
+        private final long minOffset;
+        private final long maxOffset;
+
+        public PartitionWindow(String topic, int partition, long count, long minOffset, long maxOffset) {
+            super(topic, partition);
+            this.count = count;
+            this.minOffset = minOffset;
+            this.maxOffset = maxOffset;
+        }
+
+        @JsonProperty
+        public long count() {
+            return count;
+        }
+
+        @JsonProperty
+        public long minOffset() {
+            return minOffset;
+        }
+
+        @JsonProperty
+        public long maxOffset() {
+            return maxOffset;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package net.uweeisele.examples.kafka.sequence.event;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class EventsDropped extends ClientEvent {
+
+    private final long dropped;
+
+    public EventsDropped(String client, long dropped) {
+        super(client);
+        this.dropped = dropped;
+    }
+
+    @Override
+    public String name() {
+        return "events_dropped";
+    }
+
+    @JsonProperty
+    public long dropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,276 @@
+package net.uweeisele.examples.kafka.sequence.eventlog;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.uweeisele.examples.kafka.sequence.EventHandler;
+import net.uweeisele.examples.kafka.sequence.Generator.FailedSend;
+import net.uweeisele.examples.kafka.sequence.Generator.SuccessfulSend;
+import net.uweeisele.examples.kafka.sequence.JsonPrintEventHandler;
+import net.uweeisele.examples.kafka.sequence.Verifier.CommitData;
+import net.uweeisele.examples.kafka.sequence.Verifier.OffsetsCommitted;
+import net.uweeisele.examples.kafka.sequence.Verifier.RecordReceived;
+import net.uweeisele.examples.kafka.sequence.Verifier.UnexpectedRecordReceived;
+import net.uweeisele.examples.kafka.sequence.Verifier.ValidRecordReceived;
+import net.uweeisele.examples.kafka.sequence.event.ClientEvent;
+import net.uweeisele.examples.kafka.sequence.event.ShutdownComplete;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static net.uweeisele.examples.kafka.sequence.eventlog.EventLogFormat.*;
+
+/**
+ * Writes the events in the compact binary format of {@link EventLogFormat} into segment files, which are
+ * rotated once they exceed the configured size. The segments can be read with {@link EventLogReader}.
+ *
+ * The events of the generator and the verifier which are emitted per record or commit are encoded field by
+ * field, any other event is stored as JSON. The handler is synchronized, wrap it in an
+ * {@link net.uweeisele.examples.kafka.sequence.AsyncEventHandler} to write the events on a separate thread.
+ */
+public class BinaryEventHandler implements EventHandler {
+
+    private final ObjectMapper mapper = JsonPrintEventHandler.newObjectMapper();
+
+    private final Path directory;
+
+    private final long maxSegmentBytes;
+
+    private final Buffer payload = new Buffer();
+
+    private final Buffer header = new Buffer();
+
+    // Interned ids of the current segment
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final Map<TopicPartition, Integer> partitions = new HashMap<>();
+
+    private long segmentIndex;
+    private DataOutputStream out;
+    private long segmentBytes;
+    private long lastTimestamp;
+
+    /**
+     * Existing segments in the directory are kept, new segments are appended after them.
+     */
+    public BinaryEventHandler(Path directory, long maxSegmentBytes) {
+        if (maxSegmentBytes <= 0) {
+            throw new IllegalArgumentException("maxSegmentBytes must be > 0");
+        }
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        try {
+            Files.createDirectories(directory);
+            this.segmentIndex = lastSegmentIndex(directory) + 1;
+            openSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not open event log in %s.", directory), e);
+        }
+    }
+
+    @Override
+    public synchronized void on(ClientEvent event) {
+        try {
+            if (out == null) {
+                throw new IllegalStateException("Event log has been closed.");
+            }
+            if (segmentBytes >= maxSegmentBytes) {
+                out.close();
+                segmentIndex++;
+                openSegment();
+            }
+            write(event);
+            if (event instanceof ShutdownComplete) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not write event to segment %d in %s.", segmentIndex, directory), e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            out = null;
+        }
+    }
+
+    private void openSegment() throws IOException {
+        Path file = directory.resolve(segmentName(segmentIndex));
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        segmentBytes = Integer.BYTES + 1;
+        strings.clear();
+        partitions.clear();
+        lastTimestamp = 0;
+    }
+
+    private void write(ClientEvent event) throws IOException {
+        payload.reset();
+        byte type;
+        if (event instanceof SuccessfulSend) {
+            type = SUCCESSFUL_SEND;
+            SuccessfulSend send = (SuccessfulSend) event;
+            writeCommon(event);
+            writeNullableString(send.key());
+            writeNullableLong(send.value());
+            payload.writeVarLong(partitionId(send.topic(), send.partition()));
+            payload.writeVarLong(zigZag(send.offset()));
+        } else if (event instanceof FailedSend) {
+            type = FAILED_SEND;
+            FailedSend send = (FailedSend) event;
+            writeCommon(event);
+            writeNullableString(send.key());
+            writeNullableLong(send.value());
+            payload.writeVarLong(stringId(send.topic()));
+            payload.writeVarLong(stringId(send.exception()));
+            writeNullableText(send.message());
+        } else if (event instanceof ValidRecordReceived || event instanceof UnexpectedRecordReceived) {
+            type = event instanceof ValidRecordReceived ? VALID_RECORD_RECEIVED : UNEXPECTED_RECORD_RECEIVED;
+            RecordReceived record = (RecordReceived) event;
+            writeCommon(event);
+            payload.writeVarLong(partitionId(record.topic(), record.partition()));
+            payload.writeVarLong(zigZag(record.offset()));
+            writeNullableString(record.key());
+            writeValue(record.sequence());
+        } else if (event instanceof OffsetsCommitted) {
+            type = OFFSETS_COMMITTED;
+            OffsetsCommitted commit = (OffsetsCommitted) event;
+            writeCommon(event);
+            payload.writeByte(commit.success() ? 1 : 0);
+            writeNullableText(commit.error());
+            payload.writeVarLong(commit.offsets().size());
+            for (CommitData offset : commit.offsets()) {
+                payload.writeVarLong(partitionId(offset.topic(), offset.partition()));
+                payload.writeVarLong(zigZag(offset.offset()));
+            }
+        } else {
+            type = JSON;
+            writeCommon(event);
+            try {
+                payload.writeBytes(mapper.writeValueAsBytes(event));
+            } catch (JsonProcessingException e) {
+                throw new IOException(format("Event %s can't be written as json.", event.name()), e);
+            }
+        }
+        writeRecord(type, payload);
+    }
+
+    private void writeCommon(ClientEvent event) {
+        payload.writeVarLong(zigZag(event.timestamp() - lastTimestamp));
+        lastTimestamp = event.timestamp();
+        writeNullableString(event.client());
+    }
+
+    private void writeRecord(byte type, Buffer record) throws IOException {
+        header.reset();
+        header.writeByte(type);
+        header.writeVarLong(record.length());
+        header.writeTo(out);
+        record.writeTo(out);
+        segmentBytes += header.length() + record.length();
+    }
+
+    // Interned string, 0 is null
+    private void writeNullableString(String value) {
+        payload.writeVarLong(value == null ? 0 : stringId(value) + 1);
+    }
+
+    // Not interned, for strings which hardly repeat
+    private void writeNullableText(String value) {
+        payload.writeByte(value == null ? 0 : 1);
+        if (value != null) {
+            payload.writeString(value);
+        }
+    }
+
+    private void writeNullableLong(Long value) {
+        payload.writeVarLong(value == null ? 0 : zigZag(value) + 1);
+    }
+
+    private void writeValue(Long value) {
+        if (value == null) {
+            payload.writeVarLong(VALUE_NULL);
+        } else if (value >= 0 && value <= Long.MAX_VALUE - VALUE_NUMBER_BASE) {
+            payload.writeVarLong(value + VALUE_NUMBER_BASE);
+        } else {
+            // Only numbers which the sequence deserializer never returns
+            payload.writeVarLong(VALUE_STRING);
+            payload.writeString(value.toString());
+        }
+    }
+
+    private int stringId(String value) {
+        Integer id = strings.get(value);
+        if (id == null) {
+            id = strings.size();
+            Buffer definition = new Buffer();
+            definition.writeVarLong(id);
+            definition.writeString(value);
+            writeDefinition(STRING_DEFINITION, definition);
+            strings.put(value, id);
+        }
+        return id;
+    }
+
+    private int partitionId(String topic, int partition) {
+        TopicPartition tp = new TopicPartition(topic, partition);
+        Integer id = partitions.get(tp);
+        if (id == null) {
+            int topicId = stringId(topic);
+            id = partitions.size();
+            Buffer definition = new Buffer();
+            definition.writeVarLong(id);
+            definition.writeVarLong(topicId);
+            definition.writeVarLong(partition);
+            writeDefinition(PARTITION_DEFINITION, definition);
+            partitions.put(tp, id);
+        }
+        return id;
+    }
+
+    private void writeDefinition(byte type, Buffer definition) {
+        try {
+            writeRecord(type, definition);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long lastSegmentIndex(Path directory) throws IOException {
+        long last = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                last = Math.max(last, segmentIndex(file));
+            }
+        }
+        return last;
+    }
+}
@@ -0,0 +1,154 @@
+package net.uweeisele.examples.kafka.sequence.eventlog;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.lang.String.format;
+
+/**
+ * Binary format of the event log segments.
+ *
+ * A segment starts with {@link #MAGIC} and {@link #VERSION}, followed by records of the form
+ * {@code type (1 byte), length (varint), payload}. Strings and topic partitions are interned per segment:
+ * a definition record assigns the next id before the id is used for the first time, so every segment can be
+ * read on its own. Timestamps are written as the zigzag encoded difference to the previous timestamp of the
+ * segment. All integers are written as unsigned or zigzag encoded LEB128 varints.
+ */
+final class EventLogFormat {
+
+    static final int MAGIC = 0x53455645;
+    static final int VERSION = 1;
+
+    static final byte STRING_DEFINITION = 0x01;
+    static final byte PARTITION_DEFINITION = 0x02;
+
+    static final byte SUCCESSFUL_SEND = 0x10;
+    static final byte FAILED_SEND = 0x11;
+    static final byte VALID_RECORD_RECEIVED = 0x12;
+    static final byte UNEXPECTED_RECORD_RECEIVED = 0x13;
+    static final byte OFFSETS_COMMITTED = 0x14;
+
+    // Any other event, which is stored as JSON
+    static final byte JSON = 0x7f;
+
+    // Tags of a value which is either null, a non-negative decimal number or any other string
+    static final int VALUE_NULL = 0;
+    static final int VALUE_STRING = 1;
+    static final int VALUE_NUMBER_BASE = 2;
+
+    private static final String SEGMENT_PREFIX = "events-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+
+    private EventLogFormat() {
+    }
+
+    static String segmentName(long index) {
+        return format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @return the index of the segment, or -1 if the file is not a segment
+     */
+    static long segmentIndex(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint.");
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Varint out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Growable buffer into which a record payload is encoded before its length is known.
+     */
+    static final class Buffer {
+
+        private byte[] bytes = new byte[256];
+        private int length = 0;
+
+        void reset() {
+            length = 0;
+        }
+
+        int length() {
+            return length;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, length);
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) value;
+        }
+
+        void writeBytes(byte[] value) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, bytes, length, value.length);
+            length += value.length;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length);
+            writeBytes(utf8);
+        }
+
+        private void ensureCapacity(int additional) {
+            if (length + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+            }
+        }
+    }
+}
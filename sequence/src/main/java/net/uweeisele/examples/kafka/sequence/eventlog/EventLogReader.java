@@ -0,0 +1,250 @@
+package net.uweeisele.examples.kafka.sequence.eventlog;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.uweeisele.examples.kafka.sequence.JsonPrintEventHandler;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+import static net.uweeisele.examples.kafka.sequence.eventlog.EventLogFormat.*;
+
+/**
+ * Reads the segments written by {@link BinaryEventHandler} and converts the events into the JSON
+ * representation of {@link JsonPrintEventHandler}.
+ *
+ * A record which has been cut off at the end of a segment, because the writer has not been closed, ends
+ * the segment.
+ */
+public class EventLogReader {
+
+    private final ObjectMapper mapper = JsonPrintEventHandler.newObjectMapper();
+
+    private final Path directory;
+
+    public EventLogReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the segment files in the order in which they have been written
+     */
+    public List<Path> segments() {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (segmentIndex(file) >= 0) {
+                    segments.add(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not list segments in %s.", directory), e);
+        }
+        segments.sort(Comparator.comparingLong(EventLogFormat::segmentIndex));
+        return segments;
+    }
+
+    public void forEach(Consumer<ObjectNode> action) {
+        for (Path segment : segments()) {
+            forEach(segment, action);
+        }
+    }
+
+    public void forEach(Path segment, Consumer<ObjectNode> action) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("File is not an event log segment of version " + VERSION + ".");
+            }
+            new SegmentDecoder(in).forEach(action);
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not read segment %s.", segment), e);
+        }
+    }
+
+    private class SegmentDecoder {
+
+        private final DataInputStream in;
+
+        private final List<String> strings = new ArrayList<>();
+        private final List<TopicPartition> partitions = new ArrayList<>();
+
+        private long lastTimestamp = 0;
+
+        SegmentDecoder(DataInputStream in) {
+            this.in = in;
+        }
+
+        void forEach(Consumer<ObjectNode> action) throws IOException {
+            while (true) {
+                byte type;
+                byte[] payload;
+                try {
+                    type = in.readByte();
+                    payload = new byte[readVarInt(in)];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return;
+                }
+                ObjectNode event = decode(type, new DataInputStream(new ByteArrayInputStream(payload)));
+                if (event != null) {
+                    action.accept(event);
+                }
+            }
+        }
+
+        private ObjectNode decode(byte type, DataInputStream record) throws IOException {
+            switch (type) {
+                case STRING_DEFINITION:
+                    define(strings, readVarInt(record), readString(record));
+                    return null;
+                case PARTITION_DEFINITION:
+                    int id = readVarInt(record);
+                    define(partitions, id, new TopicPartition(string(readVarInt(record)), readVarInt(record)));
+                    return null;
+                case SUCCESSFUL_SEND:
+                    return decodeSuccessfulSend(record);
+                case FAILED_SEND:
+                    return decodeFailedSend(record);
+                case VALID_RECORD_RECEIVED:
+                    return decodeRecordReceived(record, "valid_record_received");
+                case UNEXPECTED_RECORD_RECEIVED:
+                    return decodeRecordReceived(record, "unexpected_record_received");
+                case OFFSETS_COMMITTED:
+                    return decodeOffsetsCommitted(record);
+                case JSON:
+                    readTimestamp(record);
+                    readNullableString(record);
+                    JsonNode json = mapper.readTree((InputStream) record);
+                    if (!json.isObject()) {
+                        throw new IOException("Event is not a json object.");
+                    }
+                    return (ObjectNode) json;
+                default:
+                    // Unknown records are skipped, so that a reader can read segments with additional record types
+                    return null;
+            }
+        }
+
+        private ObjectNode decodeSuccessfulSend(DataInput record) throws IOException {
+            ObjectNode event = newEvent(record, "producer_send_success");
+            event.put("key", readNullableString(record));
+            putNullableLong(event, "value", record);
+            putPartition(event, partition(readVarInt(record)));
+            event.put("offset", unZigZag(readVarLong(record)));
+            return event;
+        }
+
+        private ObjectNode decodeFailedSend(DataInput record) throws IOException {
+            ObjectNode event = newEvent(record, "producer_send_error");
+            event.put("key", readNullableString(record));
+            putNullableLong(event, "value", record);
+            event.put("topic", string(readVarInt(record)));
+            event.put("exception", string(readVarInt(record)));
+            event.put("message", readNullableText(record));
+            return event;
+        }
+
+        private ObjectNode decodeRecordReceived(DataInput record, String name) throws IOException {
+            ObjectNode event = newEvent(record, name);
+            TopicPartition tp = partition(readVarInt(record));
+            long offset = unZigZag(readVarLong(record));
+            event.put("key", readNullableString(record));
+            long tag = readVarLong(record);
+            if (tag == VALUE_NULL) {
+                event.putNull("value");
+            } else if (tag == VALUE_STRING) {
+                event.put("value", readString(record));
+            } else {
+                event.put("value", String.valueOf(tag - VALUE_NUMBER_BASE));
+            }
+            putPartition(event, tp);
+            event.put("offset", offset);
+            return event;
+        }
+
+        private ObjectNode decodeOffsetsCommitted(DataInput record) throws IOException {
+            ObjectNode event = newEvent(record, "offsets_committed");
+            boolean success = record.readByte() != 0;
+            String error = readNullableText(record);
+            ArrayNode offsets = event.putArray("offsets");
+            int count = readVarInt(record);
+            for (int i = 0; i < count; i++) {
+                ObjectNode offset = offsets.addObject();
+                putPartition(offset, partition(readVarInt(record)));
+                offset.put("offset", unZigZag(readVarLong(record)));
+            }
+            if (error != null) {
+                event.put("error", error);
+            }
+            event.put("success", success);
+            return event;
+        }
+
+        private ObjectNode newEvent(DataInput record, String name) throws IOException {
+            ObjectNode event = mapper.createObjectNode();
+            event.put("timestamp", readTimestamp(record));
+            event.put("name", name);
+            event.put("client", readNullableString(record));
+            return event;
+        }
+
+        private long readTimestamp(DataInput record) throws IOException {
+            lastTimestamp += unZigZag(readVarLong(record));
+            return lastTimestamp;
+        }
+
+        private String readNullableString(DataInput record) throws IOException {
+            int id = readVarInt(record);
+            return id == 0 ? null : string(id - 1);
+        }
+
+        private String readNullableText(DataInput record) throws IOException {
+            return record.readByte() == 0 ? null : readString(record);
+        }
+
+        private void putNullableLong(ObjectNode event, String field, DataInput record) throws IOException {
+            long value = readVarLong(record);
+            if (value == 0) {
+                event.putNull(field);
+            } else {
+                event.put(field, unZigZag(value - 1));
+            }
+        }
+
+        private void putPartition(ObjectNode node, TopicPartition tp) {
+            node.put("topic", tp.topic());
+            node.put("partition", tp.partition());
+        }
+
+        private String string(int id) throws IOException {
+            if (id >= strings.size()) {
+                throw new IOException("Undefined string id " + id + ".");
+            }
+            return strings.get(id);
+        }
+
+        private TopicPartition partition(int id) throws IOException {
+            if (id >= partitions.size()) {
+                throw new IOException("Undefined partition id " + id + ".");
+            }
+            return partitions.get(id);
+        }
+
+        private <T> void define(List<T> definitions, int id, T value) throws IOException {
+            if (id != definitions.size()) {
+                throw new IOException(format("Expected definition of id %d, but got %d.", definitions.size(), id));
+            }
+            definitions.add(value);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package net.uweeisele.examples.kafka.sequence.state;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+public class HeapSequenceStateStore implements SequenceStateStore {
+
+    private final Map<String, SequenceTracker> trackersByKey = new HashMap<>();
+
+    @Override
+    public SequenceTracker tracker(String key) {
+        return trackersByKey.computeIfAbsent(key, k -> new HeapSequenceTracker());
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, SequenceTracker> action) {
+        trackersByKey.forEach(action);
+    }
+
+    @Override
+    public long size() {
+        return trackersByKey.size();
+    }
+
+    @Override
+    public void close() {
+    }
+}
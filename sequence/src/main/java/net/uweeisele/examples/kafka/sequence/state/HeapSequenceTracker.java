@@ -0,0 +1,99 @@
+package net.uweeisele.examples.kafka.sequence.state;
+
+/**
+ * {@link SequenceTracker} which keeps its state on the heap.
+ *
+ * Only primitive state is kept, the received numbers themselves are recorded in a {@link SequenceRangeSet}.
+ */
+public class HeapSequenceTracker extends SequenceTracker {
+
+    private final SequenceRangeSet seen = new SequenceRangeSet();
+
+    private long values = 0;
+    private long duplicates = 0;
+    private long invalid = 0;
+
+    private long lastValue = -1;
+    private long maxValue = -1;
+    private boolean outOfSequence = false;
+
+    @Override
+    public long values() {
+        return values;
+    }
+
+    @Override
+    public long duplicates() {
+        return duplicates;
+    }
+
+    @Override
+    public long invalid() {
+        return invalid;
+    }
+
+    @Override
+    public long lastValue() {
+        return lastValue;
+    }
+
+    @Override
+    public long maxValue() {
+        return maxValue;
+    }
+
+    @Override
+    public boolean isOutOfSequence() {
+        return outOfSequence;
+    }
+
+    @Override
+    protected boolean markSeen(long value) {
+        return seen.add(value);
+    }
+
+    @Override
+    protected void markSeen(long from, long to) {
+        seen.addRange(from, to);
+    }
+
+    @Override
+    protected long seenBelow(long bound) {
+        return bound - seen.missing(bound);
+    }
+
+    @Override
+    protected void forEachSeenRange(SequenceRangeSet.RangeConsumer action) {
+        seen.forEachRange(action);
+    }
+
+    @Override
+    protected void markOutOfSequence() {
+        outOfSequence = true;
+    }
+
+    @Override
+    protected void values(long values) {
+        this.values = values;
+    }
+
+    @Override
+    protected void duplicates(long duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    @Override
+    protected void invalid(long invalid) {
+        this.invalid = invalid;
+    }
+
+    @Override
+    protected void lastValue(long lastValue) {
+        this.lastValue = lastValue;
+    }
+
+    @Override
+    protected void maxValue(long maxValue) {
+        this.maxValue = maxValue;
+    }
+}
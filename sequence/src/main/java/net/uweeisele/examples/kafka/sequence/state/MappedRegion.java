@@ -0,0 +1,125 @@
+package net.uweeisele.examples.kafka.sequence.state;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A growable file which is memory-mapped in fixed size segments.
+ *
+ * Primitive values must be aligned to their size, so that they never cross a segment boundary.
+ */
+class MappedRegion implements AutoCloseable {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int segmentShift;
+    private final long segmentMask;
+
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    MappedRegion(Path file, int segmentShift) {
+        this.file = file;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        try {
+            this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+            ensureCapacity(channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not map file %s.", file), e);
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long capacity() {
+        return (long) segments.length << segmentShift;
+    }
+
+    void ensureCapacity(long capacity) {
+        int required = (int) ((capacity + segmentMask) >>> segmentShift);
+        if (required <= segments.length) {
+            return;
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, required);
+        try {
+            for (int i = segments.length; i < required; i++) {
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i << segmentShift, 1L << segmentShift);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not grow file %s to %d bytes.", file, capacity), e);
+        }
+        segments = grown;
+    }
+
+    long getLong(long position) {
+        return segments[(int) (position >>> segmentShift)].getLong((int) (position & segmentMask));
+    }
+
+    void putLong(long position, long value) {
+        segments[(int) (position >>> segmentShift)].putLong((int) (position & segmentMask), value);
+    }
+
+    int getInt(long position) {
+        return segments[(int) (position >>> segmentShift)].getInt((int) (position & segmentMask));
+    }
+
+    void putInt(long position, int value) {
+        segments[(int) (position >>> segmentShift)].putInt((int) (position & segmentMask), value);
+    }
+
+    byte get(long position) {
+        return segments[(int) (position >>> segmentShift)].get((int) (position & segmentMask));
+    }
+
+    void put(long position, byte value) {
+        segments[(int) (position >>> segmentShift)].put((int) (position & segmentMask), value);
+    }
+
+    void put(long position, byte[] values) {
+        for (int i = 0; i < values.length; i++) {
+            put(position + i, values[i]);
+        }
+    }
+
+    byte[] get(long position, int length) {
+        byte[] values = new byte[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = get(position + i);
+        }
+        return values;
+    }
+
+    boolean equals(long position, byte[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (get(position + i) != values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        segments = new MappedByteBuffer[0];
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not close file %s.", file), e);
+        }
+    }
+}
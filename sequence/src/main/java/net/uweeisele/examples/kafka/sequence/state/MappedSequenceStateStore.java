@@ -0,0 +1,509 @@
+package net.uweeisele.examples.kafka.sequence.state;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BiConsumer;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * {@link SequenceStateStore} which keeps the state of all keys in memory-mapped files, so that the heap
+ * usage does not depend on the number of keys or received values.
+ *
+ * The directory contains the following files:
+ * <ul>
+ *     <li>{@code keys-<capacity>.idx}: open addressing hash table with the counters of every key</li>
+ *     <li>{@code keys.dat}: the UTF-8 encoded keys referenced by the hash table</li>
+ *     <li>{@code pages-<capacity>.idx}: open addressing hash table from (key, page number) to bitmap page and
+ *     the number of values which are set in the page</li>
+ *     <li>{@code pages.dat}: bitmap pages which record the received sequence numbers of a key</li>
+ * </ul>
+ * Existing state files in the directory are deleted when the store is opened. The key filter of the verifier,
+ * which decides which keys are tracked, keeps its keys on the heap.
+ */
+public class MappedSequenceStateStore implements SequenceStateStore {
+
+    private static final int INDEX_SEGMENT_SHIFT = 20;
+    private static final int PAGES_SEGMENT_SHIFT = 26;
+
+    private static final long HEADER_BYTES = 64;
+    private static final long HEADER_CAPACITY = 0;
+    private static final long HEADER_SIZE = 8;
+    private static final long HEADER_NEXT = 16;
+
+    private static final long INITIAL_CAPACITY = 1024;
+
+    private static final long KEY_SLOT_BYTES = 72;
+    private static final long KEY_ID = 0;
+    private static final long KEY_REF = 8;
+    private static final long KEY_LENGTH = 16;
+    private static final long KEY_HASH = 20;
+    private static final long KEY_VALUES = 24;
+    private static final long KEY_DUPLICATES = 32;
+    private static final long KEY_INVALID = 40;
+    private static final long KEY_LAST_VALUE = 48;
+    private static final long KEY_MAX_VALUE = 56;
+    private static final long KEY_OUT_OF_SEQUENCE = 64;
+
+    private static final long PAGE_SLOT_BYTES = 32;
+    private static final long PAGE_KEY_ID = 0;
+    private static final long PAGE_NUMBER = 8;
+    private static final long PAGE_INDEX = 16;
+    private static final long PAGE_SEEN = 24;
+
+    private static final int PAGE_SHIFT = 16;
+    private static final long PAGE_VALUES = 1L << PAGE_SHIFT;
+    private static final long PAGE_MASK = PAGE_VALUES - 1;
+    private static final long PAGE_BYTES = (1L << PAGE_SHIFT) / Byte.SIZE;
+
+    private final Path directory;
+
+    private MappedRegion keyIndex;
+    // Incremented whenever the key index grows, which moves the slots of all keys
+    private long keyIndexGeneration = 0;
+    private final MappedRegion keyData;
+    private MappedRegion pageIndex;
+    private final MappedRegion pageData;
+
+    public MappedSequenceStateStore(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+            deleteStateFiles(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not prepare state directory %s.", directory), e);
+        }
+        this.keyIndex = createIndex("keys", INITIAL_CAPACITY, KEY_SLOT_BYTES);
+        this.keyData = new MappedRegion(directory.resolve("keys.dat"), INDEX_SEGMENT_SHIFT);
+        this.keyData.ensureCapacity(Long.BYTES);
+        this.keyData.putLong(0, Long.BYTES);
+        this.pageIndex = createIndex("pages", INITIAL_CAPACITY, PAGE_SLOT_BYTES);
+        this.pageData = new MappedRegion(directory.resolve("pages.dat"), PAGES_SEGMENT_SHIFT);
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    @Override
+    public SequenceTracker tracker(String key) {
+        byte[] bytes = key != null ? key.getBytes(UTF_8) : null;
+        int hash = hash(bytes);
+        long slot = findKeySlot(keyIndex, bytes, hash);
+        if (keyIndex.getLong(slot + KEY_ID) == 0) {
+            if ((keyIndex.getLong(HEADER_SIZE) + 1) * 2 > keyIndex.getLong(HEADER_CAPACITY)) {
+                growKeyIndex();
+                slot = findKeySlot(keyIndex, bytes, hash);
+            }
+            insertKey(slot, bytes, hash);
+        }
+        return new MappedSequenceTracker(slot);
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, SequenceTracker> action) {
+        long capacity = keyIndex.getLong(HEADER_CAPACITY);
+        for (long i = 0; i < capacity; i++) {
+            long slot = HEADER_BYTES + i * KEY_SLOT_BYTES;
+            if (keyIndex.getLong(slot + KEY_ID) != 0) {
+                action.accept(readKey(slot), new MappedSequenceTracker(slot));
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        return keyIndex.getLong(HEADER_SIZE);
+    }
+
+    public void flush() {
+        keyIndex.force();
+        keyData.force();
+        pageIndex.force();
+        pageData.force();
+    }
+
+    @Override
+    public void close() {
+        keyIndex.close();
+        keyData.close();
+        pageIndex.close();
+        pageData.close();
+    }
+
+    private long findKeySlot(MappedRegion index, byte[] key, int hash) {
+        long mask = index.getLong(HEADER_CAPACITY) - 1;
+        for (long i = mix(hash) & mask; ; i = (i + 1) & mask) {
+            long slot = HEADER_BYTES + i * KEY_SLOT_BYTES;
+            if (index.getLong(slot + KEY_ID) == 0 || (index.getInt(slot + KEY_HASH) == hash && keyEquals(index, slot, key))) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean keyEquals(MappedRegion index, long slot, byte[] key) {
+        int length = index.getInt(slot + KEY_LENGTH);
+        if (key == null || length < 0) {
+            return key == null && length < 0;
+        }
+        return length == key.length && keyData.equals(index.getLong(slot + KEY_REF), key);
+    }
+
+    private void insertKey(long slot, byte[] key, int hash) {
+        long keyId = keyIndex.getLong(HEADER_NEXT) + 1;
+        keyIndex.putLong(HEADER_NEXT, keyId);
+        keyIndex.putLong(HEADER_SIZE, keyIndex.getLong(HEADER_SIZE) + 1);
+
+        if (key != null) {
+            long ref = keyData.getLong(0);
+            keyData.ensureCapacity(ref + key.length);
+            keyData.put(ref, key);
+            keyData.putLong(0, ref + key.length);
+            keyIndex.putLong(slot + KEY_REF, ref);
+            keyIndex.putInt(slot + KEY_LENGTH, key.length);
+        } else {
+            keyIndex.putInt(slot + KEY_LENGTH, -1);
+        }
+        keyIndex.putInt(slot + KEY_HASH, hash);
+        keyIndex.putLong(slot + KEY_LAST_VALUE, -1);
+        keyIndex.putLong(slot + KEY_MAX_VALUE, -1);
+        keyIndex.putLong(slot + KEY_ID, keyId);
+    }
+
+    private String readKey(long slot) {
+        int length = keyIndex.getInt(slot + KEY_LENGTH);
+        return length >= 0 ? new String(keyData.get(keyIndex.getLong(slot + KEY_REF), length), UTF_8) : null;
+    }
+
+    private void growKeyIndex() {
+        MappedRegion grown = createIndex("keys", keyIndex.getLong(HEADER_CAPACITY) * 2, KEY_SLOT_BYTES);
+        grown.putLong(HEADER_SIZE, keyIndex.getLong(HEADER_SIZE));
+        grown.putLong(HEADER_NEXT, keyIndex.getLong(HEADER_NEXT));
+        long capacity = keyIndex.getLong(HEADER_CAPACITY);
+        for (long i = 0; i < capacity; i++) {
+            long slot = HEADER_BYTES + i * KEY_SLOT_BYTES;
+            if (keyIndex.getLong(slot + KEY_ID) != 0) {
+                long target = emptySlot(grown, keyIndex.getInt(slot + KEY_HASH), KEY_SLOT_BYTES, KEY_ID);
+                copySlot(keyIndex, slot, grown, target, KEY_SLOT_BYTES);
+            }
+        }
+        keyIndex = replaceIndex(keyIndex, grown);
+        keyIndexGeneration++;
+    }
+
+    private long findKeySlotById(long keyId, int hash) {
+        long mask = keyIndex.getLong(HEADER_CAPACITY) - 1;
+        for (long i = mix(hash) & mask; ; i = (i + 1) & mask) {
+            long slot = HEADER_BYTES + i * KEY_SLOT_BYTES;
+            if (keyIndex.getLong(slot + KEY_ID) == keyId) {
+                return slot;
+            }
+        }
+    }
+
+    // Slot of the page in the page index, or -1 if the page does not exist
+    private long lookupPage(long keyId, long pageNumber) {
+        long slot = findPageSlot(keyId, pageNumber);
+        return pageIndex.getLong(slot + PAGE_KEY_ID) != 0 ? slot : -1;
+    }
+
+    // Slot of the page in the page index, the page is created if it does not exist
+    private long findPage(long keyId, long pageNumber) {
+        long slot = findPageSlot(keyId, pageNumber);
+        if (pageIndex.getLong(slot + PAGE_KEY_ID) != 0) {
+            return slot;
+        }
+        if ((pageIndex.getLong(HEADER_SIZE) + 1) * 2 > pageIndex.getLong(HEADER_CAPACITY)) {
+            growPageIndex();
+            slot = findPageSlot(keyId, pageNumber);
+        }
+        long page = pageIndex.getLong(HEADER_NEXT);
+        pageIndex.putLong(HEADER_NEXT, page + 1);
+        pageIndex.putLong(HEADER_SIZE, pageIndex.getLong(HEADER_SIZE) + 1);
+        pageData.ensureCapacity((page + 1) * PAGE_BYTES);
+        pageIndex.putLong(slot + PAGE_NUMBER, pageNumber);
+        pageIndex.putLong(slot + PAGE_INDEX, page);
+        pageIndex.putLong(slot + PAGE_KEY_ID, keyId);
+        return slot;
+    }
+
+    private long findPageSlot(long keyId, long pageNumber) {
+        long mask = pageIndex.getLong(HEADER_CAPACITY) - 1;
+        for (long i = mix(pageHash(keyId, pageNumber)) & mask; ; i = (i + 1) & mask) {
+            long slot = HEADER_BYTES + i * PAGE_SLOT_BYTES;
+            long slotKeyId = pageIndex.getLong(slot + PAGE_KEY_ID);
+            if (slotKeyId == 0 || (slotKeyId == keyId && pageIndex.getLong(slot + PAGE_NUMBER) == pageNumber)) {
+                return slot;
+            }
+        }
+    }
+
+    private void growPageIndex() {
+        MappedRegion grown = createIndex("pages", pageIndex.getLong(HEADER_CAPACITY) * 2, PAGE_SLOT_BYTES);
+        grown.putLong(HEADER_SIZE, pageIndex.getLong(HEADER_SIZE));
+        grown.putLong(HEADER_NEXT, pageIndex.getLong(HEADER_NEXT));
+        long capacity = pageIndex.getLong(HEADER_CAPACITY);
+        for (long i = 0; i < capacity; i++) {
+            long slot = HEADER_BYTES + i * PAGE_SLOT_BYTES;
+            long keyId = pageIndex.getLong(slot + PAGE_KEY_ID);
+            if (keyId != 0) {
+                long target = emptySlot(grown, pageHash(keyId, pageIndex.getLong(slot + PAGE_NUMBER)), PAGE_SLOT_BYTES, PAGE_KEY_ID);
+                copySlot(pageIndex, slot, grown, target, PAGE_SLOT_BYTES);
+            }
+        }
+        pageIndex = replaceIndex(pageIndex, grown);
+    }
+
+    private MappedRegion createIndex(String name, long capacity, long slotBytes) {
+        MappedRegion index = new MappedRegion(directory.resolve(format("%s-%d.idx", name, capacity)), INDEX_SEGMENT_SHIFT);
+        index.ensureCapacity(HEADER_BYTES + capacity * slotBytes);
+        index.putLong(HEADER_CAPACITY, capacity);
+        return index;
+    }
+
+    private MappedRegion replaceIndex(MappedRegion current, MappedRegion replacement) {
+        current.close();
+        try {
+            Files.delete(current.file());
+        } catch (IOException e) {
+            throw new UncheckedIOException(format("Could not delete file %s.", current.file()), e);
+        }
+        return replacement;
+    }
+
+    private static long emptySlot(MappedRegion index, int hash, long slotBytes, long idOffset) {
+        long mask = index.getLong(HEADER_CAPACITY) - 1;
+        for (long i = mix(hash) & mask; ; i = (i + 1) & mask) {
+            long slot = HEADER_BYTES + i * slotBytes;
+            if (index.getLong(slot + idOffset) == 0) {
+                return slot;
+            }
+        }
+    }
+
+    private static void copySlot(MappedRegion source, long sourceSlot, MappedRegion target, long targetSlot, long slotBytes) {
+        for (long offset = 0; offset < slotBytes; offset += Long.BYTES) {
+            target.putLong(targetSlot + offset, source.getLong(sourceSlot + offset));
+        }
+    }
+
+    private static void deleteStateFiles(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{keys,pages}{*.idx,.dat}")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static int hash(byte[] key) {
+        if (key == null) {
+            return 0;
+        }
+        int hash = 1;
+        for (byte b : key) {
+            hash = 31 * hash + b;
+        }
+        return hash;
+    }
+
+    private static int pageHash(long keyId, long pageNumber) {
+        return Long.hashCode(keyId * 31 + pageNumber);
+    }
+
+    private static long mix(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private class MappedSequenceTracker extends SequenceTracker {
+
+        private final long keyId;
+        private final int hash;
+
+        // Slot of the key in the key index, which is looked up again by the key id once the index has grown
+        private long slot;
+        private long generation;
+
+        MappedSequenceTracker(long slot) {
+            this.keyId = keyIndex.getLong(slot + KEY_ID);
+            this.hash = keyIndex.getInt(slot + KEY_HASH);
+            this.slot = slot;
+            this.generation = keyIndexGeneration;
+        }
+
+        private long slot() {
+            if (generation != keyIndexGeneration) {
+                slot = findKeySlotById(keyId, hash);
+                generation = keyIndexGeneration;
+            }
+            return slot;
+        }
+
+        @Override
+        public long values() {
+            return keyIndex.getLong(slot() + KEY_VALUES);
+        }
+
+        @Override
+        public long duplicates() {
+            return keyIndex.getLong(slot() + KEY_DUPLICATES);
+        }
+
+        @Override
+        public long invalid() {
+            return keyIndex.getLong(slot() + KEY_INVALID);
+        }
+
+        @Override
+        public long lastValue() {
+            return keyIndex.getLong(slot() + KEY_LAST_VALUE);
+        }
+
+        @Override
+        public long maxValue() {
+            return keyIndex.getLong(slot() + KEY_MAX_VALUE);
+        }
+
+        @Override
+        public boolean isOutOfSequence() {
+            return keyIndex.getLong(slot() + KEY_OUT_OF_SEQUENCE) != 0;
+        }
+
+        @Override
+        protected boolean markSeen(long value) {
+            long pageSlot = findPage(keyId, value >>> PAGE_SHIFT);
+            long bit = value & PAGE_MASK;
+            long position = pageIndex.getLong(pageSlot + PAGE_INDEX) * PAGE_BYTES + (bit >>> 6) * Long.BYTES;
+            long word = pageData.getLong(position);
+            long mask = 1L << (bit & 63);
+            if ((word & mask) != 0) {
+                return false;
+            }
+            pageData.putLong(position, word | mask);
+            pageIndex.putLong(pageSlot + PAGE_SEEN, pageIndex.getLong(pageSlot + PAGE_SEEN) + 1);
+            return true;
+        }
+
+        @Override
+        protected void markSeen(long from, long to) {
+                        for (long value = from; value <= to; ) {
+                long pageSlot = findPage(keyId, value >>> PAGE_SHIFT);
+                long bit = value & PAGE_MASK;
+                int offset = (int) (bit & 63);
+                long count = Math.min(Long.SIZE - offset, to - value + 1);
+                long mask = (count == Long.SIZE ? -1L : (1L << count) - 1) << offset;
+                long position = pageIndex.getLong(pageSlot + PAGE_INDEX) * PAGE_BYTES + (bit >>> 6) * Long.BYTES;
+                long word = pageData.getLong(position);
+                pageData.putLong(position, word | mask);
+                pageIndex.putLong(pageSlot + PAGE_SEEN, pageIndex.getLong(pageSlot + PAGE_SEEN) + Long.bitCount(mask & ~word));
+                value += count;
+            }
+        }
+
+        @Override
+        protected long seenBelow(long bound) {
+                        long seen = 0;
+            for (long pageNumber = 0; bound > 0 && pageNumber <= (bound - 1) >>> PAGE_SHIFT; pageNumber++) {
+                long pageSlot = lookupPage(keyId, pageNumber);
+                if (pageSlot < 0) {
+                    continue;
+                }
+                long pageStart = pageNumber << PAGE_SHIFT;
+                if (bound - pageStart >= PAGE_VALUES) {
+                    seen += pageIndex.getLong(pageSlot + PAGE_SEEN);
+                    continue;
+                }
+                // Only the bits of the last page below the bound are counted
+                long page = pageIndex.getLong(pageSlot + PAGE_INDEX);
+                for (long word = 0; word * Long.SIZE < bound - pageStart; word++) {
+                    long bits = pageData.getLong(page * PAGE_BYTES + word * Long.BYTES);
+                    long base = pageStart + word * Long.SIZE;
+                    if (bound - base < Long.SIZE) {
+                        bits &= (1L << (bound - base)) - 1;
+                    }
+                    seen += Long.bitCount(bits);
+                }
+            }
+            return seen;
+        }
+
+        @Override
+        protected void forEachSeenRange(SequenceRangeSet.RangeConsumer action) {
+                        long maxValue = maxValue();
+            long start = -1;
+            for (long pageNumber = 0; maxValue >= 0 && pageNumber <= maxValue >>> PAGE_SHIFT; pageNumber++) {
+                long pageSlot = lookupPage(keyId, pageNumber);
+                long pageSeen = pageSlot >= 0 ? pageIndex.getLong(pageSlot + PAGE_SEEN) : 0;
+                long pageStart = pageNumber << PAGE_SHIFT;
+                // Pages without values or without gaps continue or end the current range as a whole
+                if (pageSeen == 0) {
+                    if (start >= 0) {
+                        action.accept(start, pageStart - 1);
+                        start = -1;
+                    }
+                    continue;
+                }
+                if (pageSeen == PAGE_VALUES) {
+                    if (start < 0) {
+                        start = pageStart;
+                    }
+                    continue;
+                }
+                long page = pageIndex.getLong(pageSlot + PAGE_INDEX);
+                for (long word = 0; word < PAGE_BYTES / Long.BYTES; word++) {
+                    long bits = pageData.getLong(page * PAGE_BYTES + word * Long.BYTES);
+                    if ((bits == -1L && start >= 0) || (bits == 0 && start < 0)) {
+                        continue;
+                    }
+                    long base = pageStart + word * Long.SIZE;
+                    for (int b = 0; b < Long.SIZE; b++) {
+                        boolean set = (bits & (1L << b)) != 0;
+                        if (set && start < 0) {
+                            start = base + b;
+                        } else if (!set && start >= 0) {
+                            action.accept(start, base + b - 1);
+                            start = -1;
+                        }
+                    }
+                }
+            }
+            if (start >= 0) {
+                action.accept(start, maxValue);
+            }
+        }
+
+        @Override
+        protected void markOutOfSequence() {
+            keyIndex.putLong(slot() + KEY_OUT_OF_SEQUENCE, 1);
+        }
+
+        @Override
+        protected void values(long values) {
+            keyIndex.putLong(slot() + KEY_VALUES, values);
+        }
+
+        @Override
+        protected void duplicates(long duplicates) {
+            keyIndex.putLong(slot() + KEY_DUPLICATES, duplicates);
+        }
+
+        @Override
+        protected void invalid(long invalid) {
+            keyIndex.putLong(slot() + KEY_INVALID, invalid);
+        }
+
+        @Override
+        protected void lastValue(long lastValue) {
+            keyIndex.putLong(slot() + KEY_LAST_VALUE, lastValue);
+        }
+
+        @Override
+        protected void maxValue(long maxValue) {
+            keyIndex.putLong(slot() + KEY_MAX_VALUE, maxValue);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package net.uweeisele.examples.kafka.sequence.state;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static java.lang.String.format;
+
+/**
+ * A set of non-negative longs which is stored as sorted, non-overlapping and non-adjacent ranges.
+ *
+ * A contiguous sequence collapses to a single range, so the memory footprint only depends on the number
+ * of gaps and not on the number of values. Appending the successor of the current maximum is O(1) and
+ * {@link #contains(long)} is O(log n) in the number of ranges. Adding a value which opens or closes a gap
+ * shifts the ranges behind it, which is O(n), and {@link #missing(long)} is O(n) unless the bound is above
+ * the maximum.
+ */
+public class SequenceRangeSet {
+
+    private static final int INITIAL_CAPACITY = 2;
+
+    // starts[i] and ends[i] (both inclusive) describe the i-th range
+    private long[] starts;
+    private long[] ends;
+    private int size = 0;
+    private long cardinality = 0;
+
+    public SequenceRangeSet() {
+        this.starts = new long[INITIAL_CAPACITY];
+        this.ends = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @return true if the value was not yet contained in this set
+     */
+    public boolean add(long value) {
+        if (size > 0 && ends[size - 1] + 1 == value) {
+            ends[size - 1] = value;
+            cardinality++;
+            return true;
+        }
+
+        int index = floorIndex(value);
+        if (index >= 0 && value <= ends[index]) {
+            return false;
+        }
+
+        boolean joinsLower = index >= 0 && ends[index] + 1 == value;
+        boolean joinsUpper = index + 1 < size && starts[index + 1] - 1 == value;
+        if (joinsLower && joinsUpper) {
+            ends[index] = ends[index + 1];
+            remove(index + 1);
+        } else if (joinsLower) {
+            ends[index] = value;
+        } else if (joinsUpper) {
+            starts[index + 1] = value;
+        } else {
+            insert(index + 1, value);
+        }
+        cardinality++;
+        return true;
+    }
+
+    /**
+     * Adds all values of the range [from, to]. Ranges must be added in ascending order.
+     */
+    public void addRange(long from, long to) {
+        if (from > to || (size > 0 && from <= ends[size - 1])) {
+            throw new IllegalArgumentException(format("Range [%d, %d] is not ascending.", from, to));
+        }
+        if (size > 0 && ends[size - 1] + 1 == from) {
+            ends[size - 1] = to;
+        } else {
+            insert(size, from);
+            ends[size - 1] = to;
+        }
+        cardinality += to - from + 1;
+    }
+
+    public void forEachRange(RangeConsumer action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(starts[i], ends[i]);
+        }
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(starts[i]);
+            out.writeLong(ends[i]);
+        }
+    }
+
+    /**
+     * Adds the ranges which have been written by {@link #writeTo(DataOutput)}.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        int ranges = in.readInt();
+        for (int i = 0; i < ranges; i++) {
+            addRange(in.readLong(), in.readLong());
+        }
+    }
+
+    public boolean contains(long value) {
+        int index = floorIndex(value);
+        return index >= 0 && value <= ends[index];
+    }
+
+    /**
+     * @return the number of values in this set
+     */
+    public long cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @return the number of values in the range [0, numbers) which are not contained in this set
+     */
+    public long missing(long numbers) {
+        return numbers - countBelow(numbers);
+    }
+
+    /**
+     * @return the number of disjoint ranges which are required to represent this set
+     */
+    public int ranges() {
+        return size;
+    }
+
+    public long first() {
+        return size > 0 ? starts[0] : -1;
+    }
+
+    public long last() {
+        return size > 0 ? ends[size - 1] : -1;
+    }
+
+    private long countBelow(long bound) {
+        if (size > 0 && ends[size - 1] < bound) {
+            return cardinality;
+        }
+        long count = 0;
+        for (int i = 0; i < size && starts[i] < bound; i++) {
+            count += Math.min(ends[i], bound - 1) - starts[i] + 1;
+        }
+        return count;
+    }
+
+    // index of the last range with start <= value, or -1
+    private int floorIndex(long value) {
+        int index = Arrays.binarySearch(starts, 0, size, value);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private void insert(int index, long value) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        System.arraycopy(starts, index, starts, index + 1, size - index);
+        System.arraycopy(ends, index, ends, index + 1, size - index);
+        starts[index] = value;
+        ends[index] = value;
+        size++;
+    }
+
+    private void remove(int index) {
+        System.arraycopy(starts, index + 1, starts, index, size - index - 1);
+        System.arraycopy(ends, index + 1, ends, index, size - index - 1);
+        size--;
+    }
+
+    @FunctionalInterface
+    public interface RangeConsumer {
+
+        void accept(long from, long to);
+    }
+}
@@ -0,0 +1,58 @@
+package net.uweeisele.examples.kafka.sequence.state;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.BiConsumer;
+
+/**
+ * Holds the {@link SequenceTracker} of every key seen by a verifier.
+ *
+ * Implementations are not thread-safe.
+ */
+public interface SequenceStateStore extends AutoCloseable {
+
+    /**
+     * @return the tracker of the given key, which is created if the key is not known yet. The tracker stays valid
+     *         while other keys are added to the store.
+     */
+    SequenceTracker tracker(String key);
+
+    void forEach(BiConsumer<String, SequenceTracker> action);
+
+    long size();
+
+    default void writeTo(DataOutput out) throws IOException {
+        out.writeLong(size());
+        try {
+            forEach((key, tracker) -> {
+                try {
+                    out.writeBoolean(key != null);
+                    if (key != null) {
+                        out.writeUTF(key);
+                    }
+                    tracker.writeTo(out);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Restores the state which has been written by {@link #writeTo(DataOutput)} into this empty store.
+     */
+    default void readFrom(DataInput in) throws IOException {
+        long keys = in.readLong();
+        for (long i = 0; i < keys; i++) {
+            String key = in.readBoolean() ? in.readUTF() : null;
+            tracker(key).readFrom(in);
+        }
+    }
+
+    @Override
+    void close();
+}
@@ -0,0 +1,144 @@
+package net.uweeisele.examples.kafka.sequence.state;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Tracks the sequence numbers received for a single key.
+ *
+ * The verification logic is implemented here, the state itself is kept by the subclasses.
+ * Values which are not a sequence number are only counted as invalid.
+ */
+public abstract class SequenceTracker {
+
+    /**
+     * Records the given sequence number.
+     *
+     * @return true if the value is the direct successor of the previous value and greater than all
+     * previously received values, or if it is the first value and 0
+     */
+    public boolean onValue(long value) {
+        boolean inSequence = isNext(value);
+        long lastValue = lastValue();
+        if (lastValue >= 0 && value != lastValue + 1) {
+            markOutOfSequence();
+        }
+        if (!markSeen(value)) {
+            duplicates(duplicates() + 1);
+        }
+        values(values() + 1);
+        lastValue(value);
+        maxValue(Math.max(maxValue(), value));
+        return inSequence;
+    }
+
+    public void onInvalidValue() {
+        values(values() + 1);
+        invalid(invalid() + 1);
+    }
+
+    /**
+     * @return the number of values within [0, numbers) which have not been received yet
+     */
+    public long missing(long numbers) {
+        // Every received value is either invalid, a duplicate or received for the first time
+        long seen = values() - duplicates() - invalid();
+        return maxValue() < numbers ? numbers - seen : numbers - seenBelow(numbers);
+    }
+
+    public boolean isNext(long value) {
+        long lastValue = lastValue();
+        return lastValue < 0 ? value == 0 : lastValue == value - 1 && value > maxValue();
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(values());
+        out.writeLong(duplicates());
+        out.writeLong(invalid());
+        out.writeLong(lastValue());
+        out.writeLong(maxValue());
+        out.writeBoolean(isOutOfSequence());
+        try {
+            forEachSeenRange((from, to) -> {
+                try {
+                    out.writeLong(from);
+                    out.writeLong(to);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.writeLong(-1);
+    }
+
+    /**
+     * Restores the state which has been written by {@link #writeTo(DataOutput)} into this empty tracker.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        values(in.readLong());
+        duplicates(in.readLong());
+        invalid(in.readLong());
+        lastValue(in.readLong());
+        maxValue(in.readLong());
+        if (in.readBoolean()) {
+            markOutOfSequence();
+        }
+        for (long from = in.readLong(); from >= 0; from = in.readLong()) {
+            markSeen(from, in.readLong());
+        }
+    }
+
+    public abstract long values();
+
+    public abstract long duplicates();
+
+    public abstract long invalid();
+
+    /**
+     * @return the last received sequence number, or -1 if none has been received yet
+     */
+    public abstract long lastValue();
+
+    /**
+     * @return the greatest received sequence number, or -1 if none has been received yet
+     */
+    public abstract long maxValue();
+
+    public abstract boolean isOutOfSequence();
+
+    /**
+     * @return true if the value has not been seen before
+     */
+    protected abstract boolean markSeen(long value);
+
+    /**
+     * Marks all values of the range [from, to] as seen. Ranges are marked in ascending order.
+     */
+    protected abstract void markSeen(long from, long to);
+
+    /**
+     * @return the number of distinct values below the given bound, which is at most the greatest received value
+     */
+    protected abstract long seenBelow(long bound);
+
+    /**
+     * Calls the action for every range of seen values in ascending order.
+     */
+    protected abstract void forEachSeenRange(SequenceRangeSet.RangeConsumer action);
+
+    protected abstract void markOutOfSequence();
+
+    protected abstract void values(long values);
+
+    protected abstract void duplicates(long duplicates);
+
+    protected abstract void invalid(long invalid);
+
+    protected abstract void lastValue(long lastValue);
+
+    protected abstract void maxValue(long maxValue);
+}
@@ -0,0 +1,91 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AliasTableTest {
+
+    private static final double DELTA = 1e-12;
+
+    @Test
+    void testUniformWeights() {
+        AliasTable table = new AliasTable(new double[]{3, 3, 3, 3, 3});
+        assertEquals(5, table.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0.2, table.probability(i), DELTA);
+        }
+    }
+
+    @Test
+    void testColumnsHoldWeights() {
+        double[] weights = {1, 2, 3, 4};
+        AliasTable table = new AliasTable(weights);
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals(weights[i] / 10, table.probability(i), DELTA);
+        }
+    }
+
+    @Test
+    void testColumnsHoldSkewedWeights() {
+        // Zipf weights with gaps, which leaves many columns to fill up from few large ones
+        Random random = new Random(0);
+        double[] weights = new double[10_000];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = i > 0 && random.nextInt(3) == 0 ? 0 : 1 / Math.pow(i + 1, 1.2);
+            total += weights[i];
+        }
+
+        AliasTable table = new AliasTable(weights);
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            double probability = table.probability(i);
+            assertEquals(weights[i] / total, probability, 1e-9, "Index " + i);
+            sum += probability;
+        }
+        assertEquals(1, sum, 1e-9);
+    }
+
+    @Test
+    void testZeroWeightsAreNeverDrawn() {
+        AliasTable table = new AliasTable(new double[]{0, 1, 0, 3});
+        assertEquals(0, table.probability(0));
+        assertEquals(0, table.probability(2));
+        for (int i = 0; i < 10_000; i++) {
+            int index = table.next();
+            assertTrue(index == 1 || index == 3, "Drew " + index);
+        }
+    }
+
+    @Test
+    void testDrawsFollowWeights() {
+        AliasTable table = new AliasTable(new double[]{1, 2, 3, 4});
+        int draws = 400_000;
+        int[] counts = new int[4];
+        for (int i = 0; i < draws; i++) {
+            counts[table.next()]++;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals((i + 1) / 10.0, counts[i] / (double) draws, 0.01);
+        }
+    }
+
+    @Test
+    void testSingleWeight() {
+        AliasTable table = new AliasTable(new double[]{0.5});
+        assertEquals(1, table.probability(0), DELTA);
+        assertEquals(0, table.next());
+    }
+
+    @Test
+    void testInvalidWeights() {
+        assertThrows(IllegalArgumentException.class, () -> new AliasTable(new double[0]));
+        assertThrows(IllegalArgumentException.class, () -> new AliasTable(new double[]{0, 0}));
+        assertThrows(IllegalArgumentException.class, () -> new AliasTable(new double[]{1, -1}));
+        assertThrows(IllegalArgumentException.class, () -> new AliasTable(new double[]{1, Double.NaN}));
+        assertThrows(IllegalArgumentException.class, () -> new AliasTable(new double[]{1, Double.POSITIVE_INFINITY}));
+    }
+}
@@ -0,0 +1,220 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import net.uweeisele.examples.kafka.sequence.AsyncEventHandler.OverflowPolicy;
+import net.uweeisele.examples.kafka.sequence.event.ClientEvent;
+import net.uweeisele.examples.kafka.sequence.event.EventsDropped;
+import net.uweeisele.examples.kafka.sequence.event.ShutdownComplete;
+import net.uweeisele.examples.kafka.sequence.event.StartupComplete;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncEventHandlerTest {
+
+    @Test
+    void testFlushWaitsForEnqueuedEvents() {
+        RecordingHandler delegate = new RecordingHandler();
+        delegate.release();
+        try (AsyncEventHandler handler = new AsyncEventHandler(delegate, 16, OverflowPolicy.BLOCK)) {
+            for (int i = 0; i < 100; i++) {
+                handler.on(event(i));
+            }
+            handler.flush();
+            assertEquals(100, delegate.flushedEvents());
+            assertEquals(clients(0, 100), delegate.clients());
+        }
+    }
+
+    @Test
+    void testBlockPolicyWaitsForRoom() throws InterruptedException {
+        RecordingHandler delegate = new RecordingHandler();
+        try (AsyncEventHandler handler = new AsyncEventHandler(delegate, 4, OverflowPolicy.BLOCK)) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    handler.on(event(i));
+                }
+            });
+            producer.start();
+            producer.join(200);
+            assertTrue(producer.isAlive());
+
+            delegate.release();
+            producer.join(TimeUnit.SECONDS.toMillis(30));
+            assertFalse(producer.isAlive());
+            handler.flush();
+            assertEquals(clients(0, 100), delegate.clients());
+            assertEquals(0, handler.dropped());
+        }
+    }
+
+    @Test
+    void testDropPolicyDiscardsEvents() throws InterruptedException {
+        RecordingHandler delegate = new RecordingHandler();
+        try (AsyncEventHandler handler = new AsyncEventHandler(delegate, 4, OverflowPolicy.DROP)) {
+            fillWhileWriting(handler, delegate, 100);
+            delegate.release();
+            handler.flush();
+            // The event which has been written while the others arrived and the four queued events
+            assertEquals(clients(0, 5), delegate.clients());
+            assertEquals(0, handler.dropped());
+        }
+        assertTrue(delegate.dropped().isEmpty());
+    }
+
+    @Test
+    void testCountAndDropPolicyReportsDroppedEvents() throws InterruptedException {
+        RecordingHandler delegate = new RecordingHandler();
+        try (AsyncEventHandler handler = new AsyncEventHandler(delegate, 4, OverflowPolicy.COUNT_AND_DROP)) {
+            fillWhileWriting(handler, delegate, 100);
+            assertEquals(95, handler.dropped());
+            delegate.release();
+        }
+        assertEquals(clients(0, 5), delegate.clients());
+        assertEquals(95, delegate.dropped().stream().mapToLong(EventsDropped::dropped).sum());
+    }
+
+    @Test
+    void testShutdownCompleteIsFlushedIfQueueIsFull() throws InterruptedException {
+        RecordingHandler delegate = new RecordingHandler();
+        try (AsyncEventHandler handler = new AsyncEventHandler(delegate, 4, OverflowPolicy.COUNT_AND_DROP)) {
+            fillWhileWriting(handler, delegate, 10);
+
+            Thread shutdown = new Thread(() -> handler.on(new ShutdownComplete("client")));
+            shutdown.start();
+            shutdown.join(200);
+            assertTrue(shutdown.isAlive());
+
+            delegate.release();
+            shutdown.join(TimeUnit.SECONDS.toMillis(30));
+            assertFalse(shutdown.isAlive());
+
+            // The dropped events are reported before the shutdown, which has been flushed when on() returned
+            List<ClientEvent> events = delegate.events();
+            assertTrue(events.get(events.size() - 1) instanceof ShutdownComplete);
+            assertTrue(events.get(events.size() - 2) instanceof EventsDropped);
+            assertEquals(5, delegate.dropped().get(0).dropped());
+            assertEquals(events.size(), delegate.flushedEvents());
+        }
+    }
+
+    @Test
+    void testCloseClosesDelegate() {
+        RecordingHandler delegate = new RecordingHandler();
+        delegate.release();
+        AsyncEventHandler handler = new AsyncEventHandler(delegate, 16, OverflowPolicy.BLOCK);
+        handler.on(event(0));
+        handler.close();
+        assertEquals(clients(0, 1), delegate.clients());
+        assertTrue(delegate.closed());
+    }
+
+    @Test
+    void testStopKeepsDelegateOpen() {
+        RecordingHandler delegate = new RecordingHandler();
+        delegate.release();
+        AsyncEventHandler handler = new AsyncEventHandler(delegate, 16, OverflowPolicy.BLOCK);
+        handler.on(event(0));
+        handler.stop();
+        assertEquals(clients(0, 1), delegate.clients());
+        assertFalse(delegate.closed());
+    }
+
+    // Sends the given number of events while the delegate writes the first one, so the queue overflows
+    private static void fillWhileWriting(AsyncEventHandler handler, RecordingHandler delegate, int events) throws InterruptedException {
+        handler.on(event(0));
+        assertTrue(delegate.writing.await(30, TimeUnit.SECONDS));
+        for (int i = 1; i < events; i++) {
+            handler.on(event(i));
+        }
+    }
+
+    private static ClientEvent event(int i) {
+        return new StartupComplete("client-" + i);
+    }
+
+    private static List<String> clients(int from, int to) {
+        List<String> clients = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            clients.add("client-" + i);
+        }
+        return clients;
+    }
+
+    // Blocks in on() until released, so that the queue of the handler can be filled
+    private static class RecordingHandler implements EventHandler {
+
+        private final CountDownLatch writing = new CountDownLatch(1);
+
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private final List<ClientEvent> events = new ArrayList<>();
+
+        private int flushedEvents = 0;
+
+        private boolean closed = false;
+
+        void release() {
+            released.countDown();
+        }
+
+        @Override
+        public void on(ClientEvent event) {
+            writing.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                events.add(event);
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            flushedEvents = events.size();
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+        }
+
+        synchronized boolean closed() {
+            return closed;
+        }
+
+        synchronized int flushedEvents() {
+            return flushedEvents;
+        }
+
+        synchronized List<ClientEvent> events() {
+            return new ArrayList<>(events);
+        }
+
+        synchronized List<String> clients() {
+            List<String> clients = new ArrayList<>();
+            for (ClientEvent event : events) {
+                if (event instanceof StartupComplete) {
+                    clients.add(event.client());
+                }
+            }
+            return clients;
+        }
+
+        synchronized List<EventsDropped> dropped() {
+            List<EventsDropped> dropped = new ArrayList<>();
+            for (ClientEvent event : events) {
+                if (event instanceof EventsDropped) {
+                    dropped.add((EventsDropped) event);
+                }
+            }
+            return dropped;
+        }
+    }
+}
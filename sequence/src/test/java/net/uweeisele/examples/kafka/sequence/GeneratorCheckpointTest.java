@@ -0,0 +1,192 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeneratorCheckpointTest {
+
+    private static final List<String> KEYS = Arrays.asList(null, "a", "b", "c", "d", "e", "f");
+
+    @Test
+    void testRestoreWithoutCheckpointFile(@TempDir Path directory) {
+        GeneratorCheckpoint checkpoint = new GeneratorCheckpoint(directory.resolve("checkpoint"), 1000);
+        assertTrue(checkpoint.restore().isEmpty());
+        assertEquals(0, checkpoint.checkpointId());
+    }
+
+    @Test
+    void testWriteAndRestoreWithNullKey(@TempDir Path directory) {
+        GeneratorCheckpoint checkpoint = new GeneratorCheckpoint(directory.resolve("checkpoint"), 1000);
+        assertEquals(1, checkpoint.write(KEYS, new long[]{4, GeneratorCheckpoint.NONE, 0, 7, 2, 9, 1}));
+        assertEquals(2, checkpoint.write(KEYS, new long[]{5, GeneratorCheckpoint.NONE, 0, 7, 2, 9, 3}));
+        assertFalse(Files.exists(directory.resolve("checkpoint.tmp")));
+
+        GeneratorCheckpoint restored = new GeneratorCheckpoint(directory.resolve("checkpoint"), 1000);
+        Map<String, Long> values = restored.restore();
+        assertEquals(2, restored.checkpointId());
+        assertEquals(KEYS, new ArrayList<>(values.keySet()));
+        assertEquals(Arrays.asList(5L, GeneratorCheckpoint.NONE, 0L, 7L, 2L, 9L, 3L), new ArrayList<>(values.values()));
+    }
+
+    @Test
+    void testRestoreFailsForOtherFile(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("checkpoint");
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(UncheckedIOException.class, () -> new GeneratorCheckpoint(file, 1000).restore());
+    }
+
+    @Test
+    void testGeneratorWritesValuesOfEveryKeyOfEveryShard(@TempDir Path directory) {
+        Path file = directory.resolve("checkpoint");
+        long[] values = {4, GeneratorCheckpoint.NONE, 0, 7, 2, 9, 1};
+        new GeneratorCheckpoint(file, 1000).write(KEYS, values);
+
+        // Only the records of some keys are acked, the others keep their restored values
+        AckingProducer producer = new AckingProducer(new HashSet<>(Arrays.asList(null, "b", "f")));
+        generator(producer, file, 3, 10).run();
+
+        for (int k = 0; k < KEYS.size(); k++) {
+            String key = KEYS.get(k);
+            if (values[k] < 9) {
+                assertEquals(values[k] + 1, producer.firstValue(key), "first value of key " + key);
+            } else {
+                assertNull(producer.firstValue(key));
+            }
+        }
+        Map<String, Long> expected = new LinkedHashMap<>();
+        for (int k = 0; k < KEYS.size(); k++) {
+            expected.put(KEYS.get(k), producer.acks(KEYS.get(k)) ? 9 : values[k]);
+        }
+        assertEquals(expected, new GeneratorCheckpoint(file, 1000).restore());
+    }
+
+    @Test
+    void testRestoreWithOtherNumberOfShards(@TempDir Path directory) {
+        Path file = directory.resolve("checkpoint");
+        AckingProducer first = new AckingProducer(new HashSet<>(Arrays.asList(null, "a", "c", "d")));
+        Generator.Builder builder = new Generator.Builder(first, "topic")
+                .withKeys(KEYS)
+                .withMaxMessagesPerKey(5)
+                .withThroughput(new ThroughputThrottler(-1))
+                .withShards(3)
+                .withCheckpoint(new GeneratorCheckpoint(file, 1000))
+                .withEventHandler(event -> {});
+        builder.build().run();
+
+        Map<String, Long> checkpointed = new GeneratorCheckpoint(file, 1000).restore();
+        assertEquals(KEYS, new ArrayList<>(checkpointed.keySet()));
+        for (String key : KEYS) {
+            assertEquals(first.acks(key) ? 4 : GeneratorCheckpoint.NONE, checkpointed.get(key), "value of key " + key);
+        }
+
+        // The restored keys are dealt to two shards, every key continues after its checkpointed value
+        AckingProducer second = new AckingProducer(new HashSet<>(KEYS));
+        generator(second, file, 2, 10).run();
+        Map<String, Long> expected = new LinkedHashMap<>();
+        for (String key : KEYS) {
+            assertEquals(checkpointed.get(key) + 1, second.firstValue(key), "first value of key " + key);
+            expected.put(key, 9L);
+        }
+        assertEquals(expected, new GeneratorCheckpoint(file, 1000).restore());
+    }
+
+    @Test
+    void testFailedValueIsSentAgainAfterRestore(@TempDir Path directory) {
+        Path file = directory.resolve("checkpoint");
+        AckingProducer first = new AckingProducer(new HashSet<>(KEYS));
+        first.fail("c", 4);
+        Generator.Builder builder = new Generator.Builder(first, "topic")
+                .withKeys(KEYS)
+                .withMaxMessagesPerKey(10)
+                .withThroughput(new ThroughputThrottler(-1))
+                .withShards(3)
+                .withCheckpoint(new GeneratorCheckpoint(file, 1000))
+                .withEventHandler(event -> {});
+        builder.build().run();
+
+        // The values after the failed one have been acked, but the checkpoint stays before the gap
+        Map<String, Long> checkpointed = new GeneratorCheckpoint(file, 1000).restore();
+        for (String key : KEYS) {
+            assertEquals("c".equals(key) ? 3 : 9, checkpointed.get(key), "value of key " + key);
+        }
+
+        AckingProducer second = new AckingProducer(new HashSet<>(KEYS));
+        generator(second, file, 3, 10).run();
+        assertEquals(4, second.firstValue("c"));
+        assertEquals(Collections.nCopies(KEYS.size(), 9L), new ArrayList<>(new GeneratorCheckpoint(file, 1000).restore().values()));
+    }
+
+    private static Generator generator(AckingProducer producer, Path file, int shards, long maxMessagesPerKey) {
+        return new Generator.Builder(producer, "topic")
+                .withKeys(Collections.singletonList("ignored"))
+                .withMaxMessagesPerKey(maxMessagesPerKey)
+                .withThroughput(new ThroughputThrottler(-1))
+                .withShards(shards)
+                .withCheckpoint(new GeneratorCheckpoint(file, 1000))
+                .withEventHandler(event -> {})
+                .build();
+    }
+
+    // Completes the records of the given keys right away and never completes the others, a failing value fails right away
+    private static class AckingProducer extends MockProducer<String, Long> {
+
+        private final RecordMetadata metadata = new RecordMetadata(new TopicPartition("topic", 0), 0, 0, 0, 0L, 0, 0);
+
+        private final Set<String> ackedKeys;
+
+        private final Map<String, Long> firstValues = new HashMap<>();
+
+        private String failingKey;
+        private long failingValue = -1;
+
+        AckingProducer(Set<String> ackedKeys) {
+            super(false, new StringSerializer(), new SequenceSerializer());
+            this.ackedKeys = ackedKeys;
+        }
+
+        void fail(String key, long value) {
+            this.failingKey = key;
+            this.failingValue = value;
+        }
+
+        boolean acks(String key) {
+            return ackedKeys.contains(key);
+        }
+
+        synchronized Long firstValue(String key) {
+            return firstValues.get(key);
+        }
+
+        @Override
+        public Future<RecordMetadata> send(ProducerRecord<String, Long> record, Callback callback) {
+            synchronized (this) {
+                firstValues.putIfAbsent(record.key(), record.value());
+            }
+            if (Objects.equals(record.key(), failingKey) && record.value() == failingValue) {
+                callback.onCompletion(null, new KafkaException("Failed value " + failingValue));
+            } else if (acks(record.key())) {
+                callback.onCompletion(metadata, null);
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import com.sun.management.ThreadMXBean;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class GeneratorTest {
+
+    private static final int RECORDS = 500_000;
+
+    // The record, the copy of its headers and the boxed value, well below the 392 bytes before callbacks were recycled
+    private static final double MAX_BYTES_PER_RECORD = 200;
+
+    @Test
+    void testSendAllocatesLittlePerRecord() throws InterruptedException {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        CompletingProducer producer = new CompletingProducer();
+        producer.start();
+        try {
+            // The first run warms up the send path, so that only the steady state is measured
+            double bytesPerRecord = Double.MAX_VALUE;
+            for (int run = 0; run < 2; run++) {
+                Generator generator = new Generator.Builder(producer, "topic")
+                        .withNumKeys(100)
+                        .withMaxMessagesPerKey(RECORDS / 100)
+                        .withThroughput(new ThroughputThrottler(-1))
+                        .withEventHandler(event -> {})
+                        .build();
+                long threadId = Thread.currentThread().getId();
+                long before = threads.getThreadAllocatedBytes(threadId);
+                generator.run();
+                bytesPerRecord = (threads.getThreadAllocatedBytes(threadId) - before) / (double) RECORDS;
+                assertEquals(RECORDS, generator.getNumSent());
+            }
+            assertTrue(bytesPerRecord < MAX_BYTES_PER_RECORD, "Allocated " + bytesPerRecord + " bytes per record");
+        } finally {
+            producer.stop();
+        }
+    }
+
+    // Completes the callbacks on a separate thread like the I/O thread of the KafkaProducer, without keeping the records
+    private static class CompletingProducer extends MockProducer<String, Long> {
+
+        private final RecordMetadata metadata = new RecordMetadata(new TopicPartition("topic", 0), 0, 0, 0, 0L, 0, 0);
+
+        private final BlockingQueue<Callback> callbacks = new ArrayBlockingQueue<>(1 << 16);
+
+        private final Thread completer = new Thread(() -> {
+            try {
+                while (true) {
+                    callbacks.take().onCompletion(metadata, null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        CompletingProducer() {
+            super(true, new StringSerializer(), new SequenceSerializer());
+        }
+
+        void start() {
+            completer.start();
+        }
+
+        void stop() throws InterruptedException {
+            completer.interrupt();
+            completer.join();
+        }
+
+        @Override
+        public Future<RecordMetadata> send(ProducerRecord<String, Long> record, Callback callback) {
+            try {
+                callbacks.put(callback);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            // The producer is reused by the next generator
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeySpaceTest {
+
+    @Test
+    void testSlicesAreDisjointAndCoverKeys() {
+        for (int numKeys : new int[]{1, 7, 100, 1001}) {
+            KeySpace keySpace = new KeySpace(42, numKeys);
+            for (int slices : new int[]{1, 2, 3, 7}) {
+                if (slices > numKeys) {
+                    continue;
+                }
+                List<String> joined = new ArrayList<>();
+                int minSize = Integer.MAX_VALUE;
+                int maxSize = 0;
+                for (int slice = 0; slice < slices; slice++) {
+                    List<String> keys = keySpace.slice(slice, slices);
+                    joined.addAll(keys);
+                    minSize = Math.min(minSize, keys.size());
+                    maxSize = Math.max(maxSize, keys.size());
+                }
+                // The slices in order are the keys in order, so every key is in exactly one slice
+                assertEquals(keySpace.keys(), joined, numKeys + " keys in " + slices + " slices");
+                assertTrue(maxSize - minSize <= 1, numKeys + " keys in " + slices + " slices");
+            }
+        }
+    }
+
+    @Test
+    void testKeysAreDistinct() {
+        List<String> keys = new KeySpace(42, 10_000).keys();
+        assertEquals(10_000, keys.size());
+        assertEquals(keys.size(), new HashSet<>(keys).size());
+    }
+
+    @Test
+    void testKeysDependOnSeedOnly() {
+        KeySpace keySpace = new KeySpace(42, 10);
+        assertEquals(keySpace.keys(), new KeySpace(42, 10).keys());
+        // A generator with fewer keys sends a prefix of the keys of a verifier with more keys
+        assertEquals(keySpace.keys(), new KeySpace(42, 20).keys().subList(0, 10));
+        // The derivation must not change, or processes of different versions disagree on the keys
+        assertEquals("370f5232-f80a-37b9-b875-7ff1607afa1b", keySpace.key(0));
+
+        Set<String> otherSeed = new HashSet<>(new KeySpace(43, 10).keys());
+        assertTrue(keySpace.keys().stream().noneMatch(otherSeed::contains));
+    }
+
+    @Test
+    void testInvalidSlices() {
+        KeySpace keySpace = new KeySpace(42, 3);
+        assertThrows(IllegalArgumentException.class, () -> keySpace.slice(0, 0));
+        assertThrows(IllegalArgumentException.class, () -> keySpace.slice(0, 4));
+        assertThrows(IllegalArgumentException.class, () -> keySpace.slice(-1, 2));
+        assertThrows(IllegalArgumentException.class, () -> keySpace.slice(2, 2));
+        assertThrows(IllegalArgumentException.class, () -> new KeySpace(42, 0));
+    }
+}
@@ -0,0 +1,98 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    private static final long MAX_TRACKABLE_VALUE = (1L << 40) - 1;
+
+    @Test
+    void testSmallValuesAreExact() {
+        for (long value = 0; value < 256; value++) {
+            assertEquals(value, highestEquivalentValue(value));
+        }
+    }
+
+    @Test
+    void testBucketsStartAtPowersOfTwo() {
+        assertEquals(255, highestEquivalentValue(255));
+        assertEquals(257, highestEquivalentValue(256));
+        assertEquals(257, highestEquivalentValue(257));
+        assertEquals(259, highestEquivalentValue(258));
+        assertEquals((1L << 20) + (1L << 13) - 1, highestEquivalentValue(1L << 20));
+        assertEquals((1L << 20) - 1, highestEquivalentValue((1L << 20) - 1));
+    }
+
+    @Test
+    void testHighestEquivalentValueIsWithinOnePercent() {
+        Random random = new Random(0);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> (24 + random.nextInt(40));
+            long highest = highestEquivalentValue(value);
+            assertTrue(highest >= value, value + " is counted up to " + highest);
+            assertTrue(highest - value < Math.max(1, value / 100), value + " is counted up to " + highest);
+            // The buckets adjoin, the next value starts the next bucket
+            assertEquals(highest, highestEquivalentValue(highest));
+            if (highest < MAX_TRACKABLE_VALUE) {
+                assertTrue(highestEquivalentValue(highest + 1) > highest);
+            }
+        }
+    }
+
+    @Test
+    void testLargerValuesAreCountedInLastBucket() {
+        assertEquals(MAX_TRACKABLE_VALUE, highestEquivalentValue(MAX_TRACKABLE_VALUE));
+        assertEquals(MAX_TRACKABLE_VALUE, highestEquivalentValue(1L << 50));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1L << 50);
+        assertEquals(1L << 50, histogram.max());
+        assertEquals(MAX_TRACKABLE_VALUE, histogram.valueAtPercentile(100));
+    }
+
+    @Test
+    void testPercentilesAreCappedAtMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.valueAtPercentile(50));
+        assertEquals(1000, histogram.valueAtPercentile(100));
+    }
+
+    @Test
+    void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.valueAtPercentile(50));
+        histogram.record(-5);
+        for (long value = 1; value < 100; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100, histogram.count());
+        assertEquals(0, histogram.valueAtPercentile(0));
+        assertEquals(0, histogram.valueAtPercentile(1));
+        assertEquals(49, histogram.valueAtPercentile(50));
+        assertEquals(98, histogram.valueAtPercentile(99));
+        assertEquals(99, histogram.valueAtPercentile(100));
+
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(1000);
+        histogram.add(other);
+        assertEquals(101, histogram.count());
+        assertEquals(1000, histogram.max());
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.valueAtPercentile(100));
+    }
+
+    // The percentile of a value below the max is the highest value of its bucket
+    private static long highestEquivalentValue(long value) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(value);
+        histogram.record(Long.MAX_VALUE);
+        return histogram.valueAtPercentile(50);
+    }
+}
@@ -0,0 +1,84 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MpscRingBufferTest {
+
+    @Test
+    void testOfferFailsIfFull() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+        assertEquals(0, buffer.poll());
+        assertTrue(buffer.offer(4));
+        assertEquals(5, buffer.producerPosition());
+    }
+
+    @Test
+    void testDrainIsLimited() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(8);
+        for (int i = 0; i < 5; i++) {
+            buffer.offer(i);
+        }
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(3, buffer.drain(drained::add, 3));
+        assertEquals(2, buffer.drain(drained::add, 3));
+        assertEquals(0, buffer.drain(drained::add, 3));
+        assertEquals(List.of(0, 1, 2, 3, 4), drained);
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    void testConcurrentProducersLoseAndDuplicateNothing() throws InterruptedException {
+        int producers = 4;
+        int elementsPerProducer = 50_000;
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(16);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < elementsPerProducer; i++) {
+                    while (!buffer.offer(producer * elementsPerProducer + i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+
+        // The elements of every producer must arrive exactly once and in the order in which they have been offered
+        int[] next = new int[producers];
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        for (int received = 0; received < producers * elementsPerProducer; ) {
+            Integer element = buffer.poll();
+            if (element == null) {
+                assertTrue(System.nanoTime() < deadline, "Timed out after " + received + " elements");
+                Thread.yield();
+                continue;
+            }
+            int producer = element / elementsPerProducer;
+            assertEquals(next[producer]++, element % elementsPerProducer);
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(buffer.poll());
+        for (int producer = 0; producer < producers; producer++) {
+            assertEquals(elementsPerProducer, next[producer]);
+        }
+        assertEquals(producers * elementsPerProducer, buffer.producerPosition());
+    }
+}
@@ -0,0 +1,104 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RatePacerTest {
+
+    private static final long NS_PER_MS = 1_000_000L;
+
+    @Test
+    void testFractionalIntervalDoesNotDrift() {
+        // 2.33 ns per permit, which whole nanoseconds would round to 2 ns
+        RatePacer pacer = RatePacer.unbounded(3e9 / 7);
+        long first = pacer.reserve(1);
+        pacer.reserve(2_999_999);
+        long last = pacer.reserve(1);
+        assertEquals(7 * NS_PER_MS, last - first, 7 * NS_PER_MS / 1000);
+    }
+
+    @Test
+    void testConcurrentReservationsAreDisjoint() throws InterruptedException {
+        RatePacer pacer = RatePacer.unbounded(1e8);
+        int threads = 4;
+        int permits = 10_000;
+        long[][] reservations = new long[threads][permits];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long[] times = reservations[t];
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < permits; i++) {
+                    times[i] = pacer.reserve(1);
+                    if (i % 100 == 0) {
+                        Thread.yield();
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // Every permit is reserved once, exactly 10 ns after the previous one
+        long[] times = Arrays.stream(reservations).flatMapToLong(Arrays::stream).sorted().toArray();
+        for (int i = 1; i < times.length; i++) {
+            assertEquals(10, times[i] - times[i - 1], "Reservation " + i);
+        }
+    }
+
+    @Test
+    void testBurstIsCapped() throws InterruptedException {
+        RatePacer pacer = new RatePacer(1000, 5 * NS_PER_MS);
+        pacer.reserve(1);
+        // Saves up far more permits than the burst allows
+        Thread.sleep(50);
+
+        long before = System.nanoTime();
+        long[] times = new long[20];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = pacer.reserve(1);
+        }
+        long after = System.nanoTime();
+
+        // The first reservation starts at most the burst before now, the others follow at the rate
+        assertTrue(times[0] >= before - 5 * NS_PER_MS - 1, "Burst of " + (before - times[0]) + " ns");
+        long due = Arrays.stream(times).filter(time -> time <= after).count();
+        assertTrue(due <= 6 + (after - before) / NS_PER_MS, due + " permits are due at once");
+        for (int i = 1; i < times.length; i++) {
+            assertTrue(times[i] - times[i - 1] >= NS_PER_MS - 1);
+        }
+    }
+
+    @Test
+    void testWithoutBurstUnusedPermitsAreLost() throws InterruptedException {
+        RatePacer pacer = new RatePacer(1000, 0);
+        pacer.reserve(1);
+        Thread.sleep(20);
+        long before = System.nanoTime();
+        assertTrue(pacer.reserve(1) >= before);
+    }
+
+    @Test
+    void testAcquireWaitsForReservation() {
+        RatePacer pacer = new RatePacer(100);
+        long start = System.nanoTime();
+        pacer.acquire(1);
+        pacer.acquire(1);
+        assertTrue(System.nanoTime() - start >= 10 * NS_PER_MS - 1);
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new RatePacer(0));
+        assertThrows(IllegalArgumentException.class, () -> new RatePacer(Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> new RatePacer(Double.POSITIVE_INFINITY));
+        assertThrows(IllegalArgumentException.class, () -> new RatePacer(1000, -1));
+    }
+}
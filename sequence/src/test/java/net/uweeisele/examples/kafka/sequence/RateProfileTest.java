@@ -0,0 +1,106 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateProfileTest {
+
+    private static final long NS_PER_MS = 1_000_000L;
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    void testConstant() {
+        RateProfile profile = RateProfile.constant(100);
+        assertTrue(profile.isConstant());
+        assertEquals(250, profile.amountUntil(2500 * NS_PER_MS), DELTA);
+        assertEquals(Double.POSITIVE_INFINITY, RateProfile.constant(-1).amountUntil(NS_PER_MS));
+    }
+
+    @Test
+    void testRamp() {
+        RateProfile profile = RateProfile.ramp(0, 100, 1000);
+        assertEquals(50, profile.rateAt(500 * NS_PER_MS), DELTA);
+        assertEquals(12.5, profile.amountUntil(500 * NS_PER_MS), DELTA);
+        assertEquals(50, profile.amountUntil(1000 * NS_PER_MS), DELTA);
+        // Continues at the target rate
+        assertEquals(150, profile.amountUntil(2000 * NS_PER_MS), DELTA);
+    }
+
+    @Test
+    void testStep() {
+        RateProfile profile = RateProfile.step(10, 5, 1000, 2);
+        assertEquals(10, profile.amountUntil(1000 * NS_PER_MS), DELTA);
+        assertEquals(17.5, profile.amountUntil(1500 * NS_PER_MS), DELTA);
+        assertEquals(25, profile.amountUntil(2000 * NS_PER_MS), DELTA);
+        assertEquals(45, profile.amountUntil(3000 * NS_PER_MS), DELTA);
+        // No increment after the last step
+        assertEquals(65, profile.amountUntil(4000 * NS_PER_MS), DELTA);
+        assertEquals(3, profile.stepAt(3500 * NS_PER_MS));
+        assertEquals(3000 * NS_PER_MS, profile.stepStart(3));
+    }
+
+    @Test
+    void testBurst() {
+        RateProfile profile = RateProfile.burst(10, 100, 1000, 200);
+        assertEquals(10, profile.amountUntil(100 * NS_PER_MS), DELTA);
+        assertEquals(23, profile.amountUntil(500 * NS_PER_MS), DELTA);
+        assertEquals(28, profile.amountUntil(1000 * NS_PER_MS), DELTA);
+        assertEquals(66, profile.amountUntil(2100 * NS_PER_MS), DELTA);
+        // Every burst and every pause is a step
+        assertEquals(4, profile.stepAt(2100 * NS_PER_MS));
+        assertEquals(5, profile.stepAt(2200 * NS_PER_MS));
+        assertEquals(2200 * NS_PER_MS, profile.stepStart(5));
+    }
+
+    @Test
+    void testSine() {
+        RateProfile profile = RateProfile.sine(100, 50, 1000);
+        assertEquals(25 + 50 / (2 * Math.PI), profile.amountUntil(250 * NS_PER_MS), DELTA);
+        assertEquals(50 + 50 / Math.PI, profile.amountUntil(500 * NS_PER_MS), DELTA);
+        // The sine cancels out over a full period
+        assertEquals(300, profile.amountUntil(3000 * NS_PER_MS), DELTA);
+    }
+
+    @Test
+    void testAmountIsIntegralOfRate() {
+        List<RateProfile> profiles = Arrays.asList(
+                RateProfile.constant(100),
+                RateProfile.ramp(200, 50, 1700),
+                RateProfile.step(0, 30, 300, 5),
+                RateProfile.step(100, -10, 250, 8).scaled(0.5),
+                RateProfile.burst(5, 500, 700, 100),
+                RateProfile.sine(1000, 900, 1300));
+        for (RateProfile profile : profiles) {
+            // Midpoint sum with steps of 1 ms, which is exact at the steps of the profiles
+            double integral = 0;
+            for (long ms = 0; ms < 5000; ms++) {
+                integral += profile.rateAt(ms * NS_PER_MS + NS_PER_MS / 2) / 1000;
+                long elapsedNs = (ms + 1) * NS_PER_MS;
+                assertEquals(integral, profile.amountUntil(elapsedNs), 1e-3 * Math.max(1, integral), profile + " at " + elapsedNs);
+            }
+        }
+    }
+
+    @Test
+    void testScaledMultipliesAmount() {
+        RateProfile profile = RateProfile.ramp(0, 100, 1000);
+        assertEquals(profile.amountUntil(1500 * NS_PER_MS) / 4, profile.scaled(0.25).amountUntil(1500 * NS_PER_MS), DELTA);
+    }
+
+    @Test
+    void testParse() {
+        assertEquals(RateProfile.step(10, 5, 1000, 2).amountUntil(4000 * NS_PER_MS), RateProfile.parse("step:10:5:1000:2").amountUntil(4000 * NS_PER_MS), DELTA);
+        assertEquals(28, RateProfile.parse(" burst:10:100:1000:200 ").amountUntil(1000 * NS_PER_MS), DELTA);
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("ramp:0:100"));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("ramp:0:x:100"));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("square:1:2"));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("burst:10:100:1000:1000"));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("sine:10:20:1000"));
+        assertThrows(IllegalArgumentException.class, () -> RateProfile.parse("step:10:-5:1000:3"));
+    }
+}
@@ -0,0 +1,59 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SequenceSerializerTest {
+
+    private static final long[] NUMBERS = {0, 1, 9, 10, 99, 100, 123456789, 999999999999999999L, 1000000000000000000L, Long.MAX_VALUE, -1, -10, Long.MIN_VALUE};
+
+    private final SequenceSerializer serializer = new SequenceSerializer();
+
+    private final SequenceDeserializer deserializer = new SequenceDeserializer();
+
+    @Test
+    void testSerializeMatchesStringSerializer() {
+        StringSerializer stringSerializer = new StringSerializer();
+        for (long number : NUMBERS) {
+            // The buffers are reused for numbers of the same length, so every value is checked before the next one
+            assertArrayEquals(stringSerializer.serialize("topic", String.valueOf(number)), serializer.serialize("topic", number), "number " + number);
+        }
+        assertNull(serializer.serialize("topic", null));
+    }
+
+    @Test
+    void testDeserializeSerializedNumbers() {
+        for (long number : NUMBERS) {
+            Long expected = number >= 0 ? number : null;
+            assertEquals(expected, deserializer.deserialize("topic", serializer.serialize("topic", number)), "number " + number);
+        }
+        assertNull(deserializer.deserialize("topic", null));
+    }
+
+    @Test
+    void testDeserializeOtherValuesToNull() {
+        for (String value : new String[]{"", " ", "abc", "12a", "1.5", "+1", "-1", " 12", "9223372036854775808", "99999999999999999999"}) {
+            assertNull(deserializer.deserialize("topic", value.getBytes(UTF_8)), "value '" + value + "'");
+        }
+    }
+
+    @Test
+    void testDeserializeIgnoresFiller() {
+        assertEquals(42, deserializer.deserialize("topic", "42 filler".getBytes(UTF_8)));
+        assertEquals(42, deserializer.deserialize("topic", "42 ".getBytes(UTF_8)));
+        assertEquals(7, deserializer.deserialize("topic", "7 8 9".getBytes(UTF_8)));
+        assertEquals(Long.MAX_VALUE, deserializer.deserialize("topic", (Long.MAX_VALUE + " x").getBytes(UTF_8)));
+
+        PayloadSerializer payloadSerializer = new PayloadSerializer(PayloadSize.parse("fixed:64"));
+        for (long number : new long[]{0, 10, 123456789, Long.MAX_VALUE}) {
+            byte[] value = payloadSerializer.serialize("topic", number);
+            assertEquals(64, value.length);
+            assertEquals(64, payloadSerializer.lastSize());
+            assertEquals(number, deserializer.deserialize("topic", value));
+            assertEquals(number, Payload.sequenceOf(value));
+        }
+    }
+}
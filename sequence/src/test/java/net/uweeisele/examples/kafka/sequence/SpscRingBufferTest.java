@@ -0,0 +1,68 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpscRingBufferTest {
+
+    @Test
+    void testCapacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1, new SpscRingBuffer<>(1).capacity());
+        assertEquals(4, new SpscRingBuffer<>(3).capacity());
+        assertEquals(8, new SpscRingBuffer<>(8).capacity());
+        assertThrows(IllegalArgumentException.class, () -> new SpscRingBuffer<>(0));
+    }
+
+    @Test
+    void testOfferFailsIfFull() {
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<>(2);
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.offer(1));
+        assertTrue(buffer.offer(2));
+        assertTrue(buffer.isFull());
+        assertFalse(buffer.offer(3));
+        assertEquals(1, buffer.poll());
+        assertTrue(buffer.offer(3));
+        assertEquals(2, buffer.poll());
+        assertEquals(3, buffer.poll());
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void testElementsArePolledInOrderAcrossThreads() throws InterruptedException {
+        int elements = 200_000;
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<>(64);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < elements; i++) {
+                while (!buffer.offer(i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        AtomicReference<String> error = new AtomicReference<>();
+        Thread consumer = new Thread(() -> {
+            for (int expected = 0; expected < elements; ) {
+                Integer element = buffer.poll();
+                if (element == null) {
+                    Thread.yield();
+                } else if (element != expected++) {
+                    error.set("expected " + (expected - 1) + " but was " + element);
+                    return;
+                }
+            }
+        });
+        producer.start();
+        consumer.start();
+        producer.join(TimeUnit.SECONDS.toMillis(30));
+        consumer.join(TimeUnit.SECONDS.toMillis(30));
+        assertNull(error.get());
+        assertFalse(producer.isAlive());
+        assertFalse(consumer.isAlive());
+        assertTrue(buffer.isEmpty());
+    }
+}
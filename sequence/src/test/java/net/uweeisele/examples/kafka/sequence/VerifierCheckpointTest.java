@@ -0,0 +1,155 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import net.uweeisele.examples.kafka.sequence.state.HeapSequenceStateStore;
+import net.uweeisele.examples.kafka.sequence.state.MappedSequenceStateStore;
+import net.uweeisele.examples.kafka.sequence.state.SequenceStateStore;
+import net.uweeisele.examples.kafka.sequence.state.SequenceTracker;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VerifierCheckpointTest {
+
+    private static final Set<String> KEYS = new HashSet<>(Arrays.asList("a", "b", "d"));
+
+    @Test
+    void testRestoreWithoutCheckpointFile(@TempDir Path directory) {
+        VerifierCheckpoint checkpoint = new VerifierCheckpoint(directory.resolve("checkpoint"), 1000);
+        List<Verifier.RecordFilter> filters = new ArrayList<>();
+        List<SequenceStateStore> stores = new ArrayList<>();
+        addWorker(new Verifier.FixedValueFilter(KEYS), new HeapSequenceStateStore(), filters, stores);
+
+        assertTrue(checkpoint.restore(filters, stores).isEmpty());
+        assertEquals(0, checkpoint.checkpointId());
+    }
+
+    @Test
+    void testWriteAndRestore(@TempDir Path directory) {
+        Verifier.ValueFilter keyFilter = new Verifier.FixedValueFilter(KEYS);
+        List<Verifier.RecordFilter> filters = new ArrayList<>();
+        List<SequenceStateStore> stores = new ArrayList<>();
+        addWorker(keyFilter, new HeapSequenceStateStore(), filters, stores);
+        addWorker(keyFilter, new MappedSequenceStateStore(directory.resolve("worker-1")), filters, stores);
+
+        // Worker 0 finishes key a and receives a duplicate, worker 1 receives a gap and an invalid value of key b
+        for (long value = 0; value < 10; value++) {
+            verify(filters.get(0), "a", value);
+        }
+        verify(filters.get(0), "a", 3L);
+        verify(filters.get(0), "c", 0L);
+        verify(filters.get(1), "b", 0L);
+        verify(filters.get(1), "b", 2L);
+        verify(filters.get(1), "b", null);
+        verify(filters.get(1), "d", 0L);
+
+        Map<TopicPartition, Long> offsets = new HashMap<>();
+        offsets.put(new TopicPartition("topic", 0), 11L);
+        offsets.put(new TopicPartition("topic", 1), 4L);
+        VerifierCheckpoint checkpoint = new VerifierCheckpoint(directory.resolve("checkpoint"), 1000);
+        assertEquals(1, checkpoint.write(offsets, filters, stores));
+
+        Verifier.ValueFilter restoredKeyFilter = new Verifier.FixedValueFilter(KEYS);
+        List<Verifier.RecordFilter> restoredFilters = new ArrayList<>();
+        List<SequenceStateStore> restoredStores = new ArrayList<>();
+        addWorker(restoredKeyFilter, new HeapSequenceStateStore(), restoredFilters, restoredStores);
+        addWorker(restoredKeyFilter, new MappedSequenceStateStore(directory.resolve("restored-1")), restoredFilters, restoredStores);
+        VerifierCheckpoint restoredCheckpoint = new VerifierCheckpoint(directory.resolve("checkpoint"), 1000);
+
+        assertEquals(offsets, restoredCheckpoint.restore(restoredFilters, restoredStores));
+        assertEquals(1, restoredCheckpoint.checkpointId());
+        assertEquals(3, restoredKeyFilter.accepted());
+        for (int worker = 0; worker < 2; worker++) {
+            assertEquals(filters.get(worker).consumedRecords(), restoredFilters.get(worker).consumedRecords());
+            assertEquals(summary(stores.get(worker)), summary(restoredStores.get(worker)));
+        }
+        assertEquals(11, restoredFilters.get(0).consumedRecords());
+        assertEquals(4, restoredFilters.get(1).consumedRecords());
+
+        // The restored state continues the sequences
+        SequenceTracker a = restoredStores.get(0).tracker("a");
+        assertEquals(3, a.lastValue());
+        assertEquals(9, a.maxValue());
+        assertEquals(0, restoredFilters.get(0).missingRecords(a));
+        SequenceTracker b = restoredStores.get(1).tracker("b");
+        assertEquals(8, restoredFilters.get(1).missingRecords(b));
+        verify(restoredFilters.get(1), "b", 1L);
+        verify(restoredFilters.get(1), "b", 2L);
+        assertEquals(7, restoredFilters.get(1).missingRecords(b));
+        assertEquals(1, b.duplicates());
+        assertEquals(5, b.values());
+
+        restoredStores.forEach(SequenceStateStore::close);
+        stores.forEach(SequenceStateStore::close);
+    }
+
+    @Test
+    void testRestoreFinishesWhenAllKeysAreComplete(@TempDir Path directory) {
+        Set<String> keys = new HashSet<>(Collections.singletonList("a"));
+        List<Verifier.RecordFilter> filters = new ArrayList<>();
+        List<SequenceStateStore> stores = new ArrayList<>();
+        addWorker(new Verifier.FixedValueFilter(keys), new HeapSequenceStateStore(), filters, stores);
+        for (long value = 0; value < 10; value++) {
+            assertFalse(filters.get(0).isFinished());
+            verify(filters.get(0), "a", value);
+        }
+        assertTrue(filters.get(0).isFinished());
+        VerifierCheckpoint checkpoint = new VerifierCheckpoint(directory.resolve("checkpoint"), 1000);
+        checkpoint.write(Collections.emptyMap(), filters, stores);
+
+        List<Verifier.RecordFilter> restoredFilters = new ArrayList<>();
+        List<SequenceStateStore> restoredStores = new ArrayList<>();
+        addWorker(new Verifier.FixedValueFilter(keys), new HeapSequenceStateStore(), restoredFilters, restoredStores);
+        checkpoint.restore(restoredFilters, restoredStores);
+        assertTrue(restoredFilters.get(0).isFinished());
+    }
+
+    @Test
+    void testRestoreRejectsDifferentNumberOfWorkers(@TempDir Path directory) {
+        Verifier.ValueFilter keyFilter = new Verifier.FixedValueFilter(KEYS);
+        List<Verifier.RecordFilter> filters = new ArrayList<>();
+        List<SequenceStateStore> stores = new ArrayList<>();
+        addWorker(keyFilter, new HeapSequenceStateStore(), filters, stores);
+        addWorker(keyFilter, new HeapSequenceStateStore(), filters, stores);
+        VerifierCheckpoint checkpoint = new VerifierCheckpoint(directory.resolve("checkpoint"), 1000);
+        checkpoint.write(Collections.emptyMap(), filters, stores);
+
+        List<Verifier.RecordFilter> restoredFilters = new ArrayList<>();
+        List<SequenceStateStore> restoredStores = new ArrayList<>();
+        addWorker(new Verifier.FixedValueFilter(KEYS), new HeapSequenceStateStore(), restoredFilters, restoredStores);
+        assertThrows(UncheckedIOException.class, () -> checkpoint.restore(restoredFilters, restoredStores));
+    }
+
+    private static void addWorker(Verifier.ValueFilter keyFilter, SequenceStateStore store, List<Verifier.RecordFilter> filters, List<SequenceStateStore> stores) {
+        filters.add(new Verifier.RecordFilter(keyFilter, new Verifier.SequenceValueFilter(10), store));
+        stores.add(store);
+    }
+
+    // Same steps as a worker of the verifier
+    private static void verify(Verifier.RecordFilter filter, String key, Long value) {
+        SequenceTracker tracker = filter.accept(new ConsumerRecord<>("topic", 0, 0, key, value));
+        if (tracker == null) {
+            return;
+        }
+        boolean wasFinished = filter.isFinished(tracker);
+        if (value != null) {
+            tracker.onValue(value);
+        } else {
+            tracker.onInvalidValue();
+        }
+        filter.onVerified(tracker, wasFinished);
+    }
+
+    private static Map<String, List<Object>> summary(SequenceStateStore store) {
+        Map<String, List<Object>> summary = new HashMap<>();
+        store.forEach((key, tracker) -> summary.put(key, Arrays.asList(tracker.values(), tracker.duplicates(), tracker.invalid(),
+                tracker.lastValue(), tracker.maxValue(), tracker.isOutOfSequence(), tracker.missing(10))));
+        return summary;
+    }
+}
@@ -0,0 +1,111 @@
+package net.uweeisele.examples.kafka.sequence;
+
+import net.uweeisele.examples.kafka.sequence.Verifier.UnexpectedRecordReceived;
+import net.uweeisele.examples.kafka.sequence.Verifier.ValidRecordReceived;
+import net.uweeisele.examples.kafka.sequence.WindowedEventHandler.PartitionWindow;
+import net.uweeisele.examples.kafka.sequence.WindowedEventHandler.WindowSummary;
+import net.uweeisele.examples.kafka.sequence.event.ClientEvent;
+import net.uweeisele.examples.kafka.sequence.event.ShutdownComplete;
+import net.uweeisele.examples.kafka.sequence.event.StartupComplete;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WindowedEventHandlerTest {
+
+    private final List<ClientEvent> events = new ArrayList<>();
+
+    private final WindowedEventHandler handler = new WindowedEventHandler(events::add, 1000);
+
+    @Test
+    void testRecordsAreAggregatedPerWindow() {
+        handler.on(valid("a", 1000, 0, 10));
+        handler.on(valid("a", 1500, 0, 11));
+        handler.on(unexpected("a", 1999, 1, 5));
+        assertTrue(summaries().isEmpty());
+
+        // The first event at the end of the window emits it, the event itself opens the next window
+        handler.on(valid("a", 2000, 0, 12));
+        List<WindowSummary> summaries = summaries();
+        assertEquals(1, summaries.size());
+        WindowSummary summary = summaries.get(0);
+        assertEquals(1000, summary.windowStart());
+        assertEquals(2000, summary.windowEnd());
+        assertEquals(2, summary.valid());
+        assertEquals(1, summary.unexpected());
+        PartitionWindow partition = summary.partitions().stream().filter(p -> p.partition() == 0).findFirst().orElseThrow();
+        assertEquals(2, partition.count());
+        assertEquals(10, partition.minOffset());
+        assertEquals(11, partition.maxOffset());
+    }
+
+    @Test
+    void testEventOfOtherClientEmitsEndedWindows() {
+        handler.on(valid("a", 1200, 0, 1));
+        handler.on(valid("b", 2100, 0, 1));
+        List<WindowSummary> summaries = summaries();
+        assertEquals(1, summaries.size());
+        assertEquals("a", summaries.get(0).client());
+    }
+
+    @Test
+    void testLateEventIsCountedInNextWindow() {
+        handler.on(valid("a", 1200, 0, 1));
+        handler.on(valid("b", 2100, 0, 1));
+        // Belongs to the emitted window of a, which is not emitted a second time
+        handler.on(valid("a", 1800, 0, 2));
+        handler.on(valid("a", 3000, 0, 3));
+        List<WindowSummary> summaries = summaries().stream().filter(s -> s.client().equals("a")).collect(Collectors.toList());
+        assertEquals(2, summaries.size());
+        assertEquals(1000, summaries.get(0).windowStart());
+        assertEquals(2000, summaries.get(1).windowStart());
+        assertEquals(3000, summaries.get(1).windowEnd());
+        assertEquals(1, summaries.get(1).valid());
+    }
+
+    @Test
+    void testShutdownCompleteEmitsWindowBeforeIt() {
+        handler.on(new StartupComplete("a"));
+        handler.on(valid("a", System.currentTimeMillis(), 0, 1));
+        handler.on(new ShutdownComplete("a"));
+        assertEquals(3, events.size());
+        assertTrue(events.get(0) instanceof StartupComplete);
+        assertTrue(events.get(1) instanceof WindowSummary);
+        assertEquals(1, ((WindowSummary) events.get(1)).valid());
+        assertTrue(events.get(2) instanceof ShutdownComplete);
+    }
+
+    @Test
+    void testFlushEmitsEndedWindows() {
+        handler.on(valid("a", 1000, 0, 1));
+        handler.flush();
+        assertEquals(1, summaries().size());
+    }
+
+    private List<WindowSummary> summaries() {
+        return events.stream().filter(e -> e instanceof WindowSummary).map(e -> (WindowSummary) e).collect(Collectors.toList());
+    }
+
+    private static ClientEvent valid(String client, long timestamp, int partition, long offset) {
+        return new ValidRecordReceived(client, new ConsumerRecord<>("topic", partition, offset, "key", offset)) {
+            @Override
+            public long timestamp() {
+                return timestamp;
+            }
+        };
+    }
+
+    private static ClientEvent unexpected(String client, long timestamp, int partition, long offset) {
+        return new UnexpectedRecordReceived(client, new ConsumerRecord<>("topic", partition, offset, "key", offset)) {
+            @Override
+            public long timestamp() {
+                return timestamp;
+            }
+        };
+    }
+}
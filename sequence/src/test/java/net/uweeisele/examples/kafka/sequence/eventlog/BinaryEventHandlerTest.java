@@ -0,0 +1,143 @@
+package net.uweeisele.examples.kafka.sequence.eventlog;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.uweeisele.examples.kafka.sequence.Generator.FailedSend;
+import net.uweeisele.examples.kafka.sequence.Generator.SuccessfulSend;
+import net.uweeisele.examples.kafka.sequence.JsonPrintEventHandler;
+import net.uweeisele.examples.kafka.sequence.Verifier.CommitData;
+import net.uweeisele.examples.kafka.sequence.Verifier.OffsetsCommitted;
+import net.uweeisele.examples.kafka.sequence.Verifier.UnexpectedRecordReceived;
+import net.uweeisele.examples.kafka.sequence.Verifier.ValidRecordReceived;
+import net.uweeisele.examples.kafka.sequence.event.ClientEvent;
+import net.uweeisele.examples.kafka.sequence.event.ShutdownComplete;
+import net.uweeisele.examples.kafka.sequence.event.StartupComplete;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryEventHandlerTest {
+
+    private final ObjectMapper mapper = JsonPrintEventHandler.newObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testEveryRecordTypeReadsAsJson() throws IOException {
+        List<ClientEvent> events = Arrays.asList(
+                new StartupComplete("producer"),
+                new SuccessfulSend("producer", "key-1", 7L, metadata("topic", 3, 42)),
+                new SuccessfulSend("producer", null, null, metadata("topic", 3, 43)),
+                new FailedSend("producer", "key-1", 8L, "topic", new TimeoutException("Expiring 1 record(s)")),
+                new ValidRecordReceived("consumer", new ConsumerRecord<>("topic", 3, 42, "key-1", 7L)),
+                new UnexpectedRecordReceived("consumer", new ConsumerRecord<>("topic", 1, 5, null, -1L)),
+                new ValidRecordReceived("consumer", new ConsumerRecord<>("topic", 1, 6, "key-2", null)),
+                new OffsetsCommitted("consumer", Arrays.asList(new CommitData("topic", 3, 43), new CommitData("other", 0, 0)), null, true),
+                new OffsetsCommitted("consumer", List.of(), "Commit cannot be completed", false),
+                new ShutdownComplete("producer"));
+
+        try (BinaryEventHandler handler = new BinaryEventHandler(directory, Long.MAX_VALUE)) {
+            events.forEach(handler::on);
+        }
+
+        List<ObjectNode> read = read(new EventLogReader(directory));
+        assertEquals(events.size(), read.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(json(events.get(i)), normalize(read.get(i)), events.get(i).name());
+        }
+    }
+
+    @Test
+    void testStringsAreDefinedAgainInNewSegment() throws IOException {
+        List<ClientEvent> events = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            events.add(new SuccessfulSend("producer", "key-" + (i % 3), (long) i, metadata("topic", i % 2, i)));
+        }
+
+        try (BinaryEventHandler handler = new BinaryEventHandler(directory, 128)) {
+            events.forEach(handler::on);
+        }
+
+        EventLogReader reader = new EventLogReader(directory);
+        List<Path> segments = reader.segments();
+        assertTrue(segments.size() > 2, "Expected several segments, but got " + segments.size());
+        List<ObjectNode> read = read(reader);
+        assertEquals(events.size(), read.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(json(events.get(i)), normalize(read.get(i)));
+        }
+
+        // Every segment can be read on its own
+        List<ObjectNode> last = new ArrayList<>();
+        reader.forEach(segments.get(segments.size() - 1), last::add);
+        assertFalse(last.isEmpty());
+        assertEquals(json(events.get(events.size() - 1)), normalize(last.get(last.size() - 1)));
+    }
+
+    @Test
+    void testNewHandlerAppendsSegments() throws IOException {
+        try (BinaryEventHandler handler = new BinaryEventHandler(directory, Long.MAX_VALUE)) {
+            handler.on(new StartupComplete("first"));
+        }
+        try (BinaryEventHandler handler = new BinaryEventHandler(directory, Long.MAX_VALUE)) {
+            handler.on(new StartupComplete("second"));
+        }
+
+        List<ObjectNode> read = read(new EventLogReader(directory));
+        assertEquals(2, read.size());
+        assertEquals("first", read.get(0).get("client").asText());
+        assertEquals("second", read.get(1).get("client").asText());
+    }
+
+    @Test
+    void testTruncatedRecordEndsSegment() throws IOException {
+        try (BinaryEventHandler handler = new BinaryEventHandler(directory, Long.MAX_VALUE)) {
+            for (int i = 0; i < 10; i++) {
+                handler.on(new ValidRecordReceived("consumer", new ConsumerRecord<>("topic", 0, i, "key", (long) i)));
+            }
+        }
+        EventLogReader reader = new EventLogReader(directory);
+        Path segment = reader.segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        List<ObjectNode> read = read(reader);
+        assertEquals(9, read.size());
+        assertEquals(8, read.get(8).get("offset").asLong());
+    }
+
+    private static RecordMetadata metadata(String topic, int partition, long offset) {
+        return new RecordMetadata(new TopicPartition(topic, partition), offset, 0, System.currentTimeMillis(), 0L, 0, 0);
+    }
+
+    private static List<ObjectNode> read(EventLogReader reader) {
+        List<ObjectNode> events = new ArrayList<>();
+        reader.forEach(events::add);
+        return events;
+    }
+
+    private JsonNode json(ClientEvent event) throws IOException {
+        return mapper.readTree(mapper.writeValueAsString(event));
+    }
+
+    // Parses the event again, so that numbers are compared by value and not by the type of their node
+    private JsonNode normalize(ObjectNode event) throws IOException {
+        return mapper.readTree(mapper.writeValueAsString(event));
+    }
+}
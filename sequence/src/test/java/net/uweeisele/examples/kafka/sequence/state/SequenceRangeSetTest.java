@@ -0,0 +1,132 @@
+package net.uweeisele.examples.kafka.sequence.state;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SequenceRangeSetTest {
+
+    @Test
+    void testContiguousValuesCollapseToOneRange() {
+        SequenceRangeSet set = new SequenceRangeSet();
+        for (long value = 0; value < 1000; value++) {
+            assertTrue(set.add(value));
+        }
+        assertEquals(1, set.ranges());
+        assertEquals(1000, set.cardinality());
+        assertEquals(0, set.first());
+        assertEquals(999, set.last());
+    }
+
+    @Test
+    void testDuplicateIsNotAdded() {
+        SequenceRangeSet set = new SequenceRangeSet();
+        assertTrue(set.add(5));
+        assertFalse(set.add(5));
+        assertEquals(1, set.cardinality());
+    }
+
+    @Test
+    void testGapSplitsRanges() {
+        SequenceRangeSet set = new SequenceRangeSet();
+        set.add(0);
+        set.add(1);
+        set.add(5);
+        set.add(3);
+        assertEquals(List.of(List.of(0L, 1L), List.of(3L, 3L), List.of(5L, 5L)), ranges(set));
+        assertFalse(set.contains(2));
+        assertTrue(set.contains(3));
+        assertFalse(set.contains(4));
+    }
+
+    @Test
+    void testFillingGapMergesRanges() {
+        SequenceRangeSet set = new SequenceRangeSet();
+        set.add(0);
+        set.add(2);
+        set.add(4);
+        set.add(1);
+        assertEquals(List.of(List.of(0L, 2L), List.of(4L, 4L)), ranges(set));
+        set.add(3);
+        assertEquals(List.of(List.of(0L, 4L)), ranges(set));
+        assertEquals(5, set.cardinality());
+    }
+
+    @Test
+    void testValueBeforeFirstRangeExtendsIt() {
+        SequenceRangeSet set = new SequenceRangeSet();
+        set.add(10);
+        set.add(9);
+        set.add(7);
+        assertEquals(List.of(List.of(7L, 7L), List.of(9L, 10L)), ranges(set));
+    }
+
+    @Test
+    void testMissingCountsValuesBelowBound() {
+        SequenceRangeSet set = new SequenceRangeSet();
+        set.addRange(0, 4);
+        set.addRange(10, 14);
+        assertEquals(0, set.missing(5));
+        assertEquals(5, set.missing(10));
+        assertEquals(5, set.missing(12));
+        assertEquals(5, set.missing(15));
+        assertEquals(10, set.missing(20));
+        assertEquals(0, set.missing(0));
+    }
+
+    @Test
+    void testAddRangeRejectsDescendingRanges() {
+        SequenceRangeSet set = new SequenceRangeSet();
+        set.addRange(5, 10);
+        assertThrows(IllegalArgumentException.class, () -> set.addRange(8, 12));
+        assertThrows(IllegalArgumentException.class, () -> set.addRange(20, 15));
+        set.addRange(11, 12);
+        assertEquals(List.of(List.of(5L, 12L)), ranges(set));
+    }
+
+    @Test
+    void testRandomValuesMatchTreeSet() {
+        Random random = new Random(0);
+        SequenceRangeSet set = new SequenceRangeSet();
+        TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextInt(2000);
+            assertEquals(expected.add(value), set.add(value));
+        }
+        assertEquals(expected.size(), set.cardinality());
+        for (long value = 0; value < 2100; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+        assertEquals(300 - expected.headSet(300L).size(), set.missing(300));
+        assertEquals(expected.first(), set.first());
+        assertEquals(expected.last(), set.last());
+    }
+
+    @Test
+    void testWriteAndReadRanges() throws IOException {
+        SequenceRangeSet set = new SequenceRangeSet();
+        set.add(0);
+        set.add(2);
+        set.add(3);
+        set.add(100);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        set.writeTo(new DataOutputStream(bytes));
+
+        SequenceRangeSet restored = new SequenceRangeSet();
+        restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(ranges(set), ranges(restored));
+        assertEquals(set.cardinality(), restored.cardinality());
+    }
+
+    private static List<List<Long>> ranges(SequenceRangeSet set) {
+        List<List<Long>> ranges = new ArrayList<>();
+        set.forEachRange((from, to) -> ranges.add(List.of(from, to)));
+        return ranges;
+    }
+}
@@ -0,0 +1,124 @@
+package net.uweeisele.examples.kafka.sequence.state;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SequenceTrackerTest {
+
+    @Test
+    void testMissingOfHeapTracker() {
+        assertMissing(new HeapSequenceStateStore());
+    }
+
+    @Test
+    void testMissingOfMappedTracker(@TempDir Path directory) {
+        try (MappedSequenceStateStore store = new MappedSequenceStateStore(directory)) {
+            assertMissing(store);
+        }
+    }
+
+    @Test
+    void testMappedTrackerStaysValidWhileKeyIndexGrows(@TempDir Path directory) {
+        try (MappedSequenceStateStore store = new MappedSequenceStateStore(directory)) {
+            SequenceTracker tracker = store.tracker("key");
+            tracker.onValue(0);
+            // Enough keys to grow the key index several times, which moves the slot of every key
+            for (int k = 0; k < 5000; k++) {
+                store.tracker("other-" + k).onValue(k);
+            }
+            tracker.onValue(1);
+            tracker.onValue(1);
+            assertEquals(3, tracker.values());
+            assertEquals(1, tracker.duplicates());
+            assertEquals(1, tracker.maxValue());
+            assertEquals(3, store.tracker("key").values());
+            assertEquals(1, store.tracker("other-4999").values());
+            assertEquals(4999, store.tracker("other-4999").maxValue());
+        }
+    }
+
+    @Test
+    void testMissingAcrossPagesOfMappedTracker(@TempDir Path directory) {
+        try (MappedSequenceStateStore store = new MappedSequenceStateStore(directory)) {
+            SequenceTracker tracker = store.tracker("key");
+            tracker.onValue(0);
+            tracker.onValue(65535);
+            tracker.onValue(65536);
+            tracker.onValue(200000);
+            assertEquals(65535 - 1, tracker.missing(65535));
+            assertEquals(65536 - 2, tracker.missing(65536));
+            assertEquals(65537 - 3, tracker.missing(65537));
+            assertEquals(200000 - 3, tracker.missing(200000));
+            assertEquals(200001 - 4, tracker.missing(200001));
+        }
+    }
+
+    @Test
+    void testFullPagesOfMappedTrackerAreWrittenAsRanges(@TempDir Path directory) throws IOException {
+        try (MappedSequenceStateStore store = new MappedSequenceStateStore(directory.resolve("store"))) {
+            SequenceTracker tracker = store.tracker("key");
+            for (long value = 0; value <= 300000; value++) {
+                if (value != 70000) {
+                    tracker.onValue(value);
+                }
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            tracker.writeTo(new DataOutputStream(bytes));
+            // Five counters, the out of sequence flag, two ranges and the end marker
+            assertEquals(5 * Long.BYTES + 1 + 4 * Long.BYTES + Long.BYTES, bytes.size());
+
+            SequenceTracker restored = new HeapSequenceStateStore().tracker("key");
+            restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            assertEquals(1, restored.missing(300001));
+            assertEquals(0, restored.missing(70000));
+            assertEquals(1, tracker.missing(300001));
+            assertEquals(1, tracker.missing(200000));
+            assertTrue(restored.isNext(300001));
+
+            // Restoring the ranges counts the values of the pages
+            try (MappedSequenceStateStore restoredStore = new MappedSequenceStateStore(directory.resolve("restored"))) {
+                SequenceTracker mapped = restoredStore.tracker("key");
+                mapped.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+                assertEquals(1, mapped.missing(200000));
+                ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+                mapped.writeTo(new DataOutputStream(rewritten));
+                assertArrayEquals(bytes.toByteArray(), rewritten.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    void testDuplicatesAndInvalidValuesAreNotCounted() {
+        SequenceTracker tracker = new HeapSequenceStateStore().tracker(null);
+        tracker.onValue(0);
+        tracker.onValue(0);
+        tracker.onInvalidValue();
+        tracker.onValue(1);
+        assertEquals(4, tracker.values());
+        assertEquals(0, tracker.missing(2));
+        assertEquals(8, tracker.missing(10));
+        assertEquals(0, tracker.missing(0));
+    }
+
+    private static void assertMissing(SequenceStateStore store) {
+        Random random = new Random(0);
+        SequenceTracker tracker = store.tracker("key");
+        TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < 5000; i++) {
+            long value = random.nextInt(3000);
+            tracker.onValue(value);
+            expected.add(value);
+        }
+        for (long numbers : new long[]{0, 1, 63, 64, 65, 1000, 2999, 3000, 3001, Long.MAX_VALUE}) {
+            long seen = expected.headSet(numbers).size();
+            assertEquals(numbers - seen, tracker.missing(numbers), "numbers " + numbers);
+        }
+    }
+}